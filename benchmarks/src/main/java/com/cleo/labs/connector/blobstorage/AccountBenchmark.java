@@ -0,0 +1,49 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cleo.labs.connector.blobstorage.BlobStorageAccount.ContainerAndPath;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+    private BlobStorageAccount account;
+    private BlobStorageContainer container;
+
+    @Setup
+    public void setup() throws Exception {
+        account = BenchmarkAccount.create();
+        container = account.getContainer("container");
+    }
+
+    /**
+     * Account level connection: the container is the first node of the path.
+     */
+    @Benchmark
+    public ContainerAndPath parseAccountPath() throws Exception {
+        return account.parse(null, "container/inbound/partner/invoice-000123.edi");
+    }
+
+    /**
+     * Container level connection: the container is injected.
+     */
+    @Benchmark
+    public ContainerAndPath parseContainerPath() throws Exception {
+        return account.parse(container, "inbound/partner/invoice-000123.edi");
+    }
+}
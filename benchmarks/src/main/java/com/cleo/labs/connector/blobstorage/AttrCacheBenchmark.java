@@ -0,0 +1,87 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AttrCache operations with 8 threads contending for 1000 cached paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttrCacheBenchmark {
+    private static final int PATHS = 1000;
+    private static final String ALIAS = "benchmark";
+
+    private Path[] paths;
+    private BasicFileAttributeView attrs;
+
+    @Setup
+    public void setup() {
+        paths = new Path[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = new Path().parse("container/inbound/file-" + i + ".edi");
+        }
+        attrs = new BlobStorageEmptyAttributes(null);
+        for (Path path : paths) {
+            AttrCache.put(ALIAS, path, attrs);
+        }
+    }
+
+    private Path random() {
+        return paths[ThreadLocalRandom.current().nextInt(PATHS)];
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Optional<BasicFileAttributeView> get() throws Exception {
+        return AttrCache.get(ALIAS, random(), () -> Optional.of(attrs));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void put() {
+        AttrCache.put(ALIAS, random(), attrs);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void invalidate() {
+        AttrCache.invalidate(ALIAS, random());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public Optional<BasicFileAttributeView> mixedGet() throws Exception {
+        return AttrCache.get(ALIAS, random(), () -> Optional.of(attrs));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedPutInvalidate() {
+        Path path = random();
+        AttrCache.invalidate(ALIAS, path);
+        AttrCache.put(ALIAS, path, attrs);
+    }
+}
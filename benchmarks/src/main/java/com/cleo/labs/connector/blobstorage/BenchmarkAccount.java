@@ -0,0 +1,39 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.lang.reflect.Method;
+import java.util.Base64;
+import java.util.Date;
+
+import com.microsoft.azure.storage.blob.BlobProperties;
+
+/**
+ * An offline account for benchmarks: references are built locally and no
+ * requests are made.
+ */
+public class BenchmarkAccount {
+    public static final String CONNECTION_STRING = "DefaultEndpointsProtocol=https;AccountName=benchmark;AccountKey="
+            + Base64.getEncoder().encodeToString(new byte[64]) + ";EndpointSuffix=core.windows.net";
+
+    public static BlobStorageAccount create() throws Exception {
+        return new BlobStorageAccount(CONNECTION_STRING);
+    }
+
+    /**
+     * Fills in the properties a listing would have returned.
+     * @param properties the blob properties
+     * @param length the blob length
+     * @param lastModified the last modified date
+     * @throws Exception
+     */
+    public static void setProperties(BlobProperties properties, long length, Date lastModified) throws Exception {
+        Method setLength = BlobProperties.class.getDeclaredMethod("setLength", long.class);
+        setLength.setAccessible(true);
+        setLength.invoke(properties, length);
+        Method setLastModified = BlobProperties.class.getDeclaredMethod("setLastModified", Date.class);
+        setLastModified.setAccessible(true);
+        setLastModified.invoke(properties, lastModified);
+    }
+
+    private BenchmarkAccount() {
+    }
+}
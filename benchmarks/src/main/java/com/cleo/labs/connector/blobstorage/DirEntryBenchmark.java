@@ -0,0 +1,68 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cleo.connector.api.directory.Entry;
+import com.cleo.labs.connector.blobstorage.BlobStorageAccount.ContainerAndPath;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+
+/**
+ * DIR entry construction (including the attribute cache priming) for a
+ * listing page of 1000 items: a placeholder, 10 folders and 989 blobs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirEntryBenchmark {
+    private static final int ITEMS = 1000;
+
+    private BlobStorageAccount account;
+    private ContainerAndPath cp;
+    private List<ListBlobItem> items;
+
+    @Setup
+    public void setup() throws Exception {
+        account = BenchmarkAccount.create();
+        cp = account.parse(null, "container/inbound");
+        CloudBlobContainer container = account.client().getContainerReference("container");
+        items = new ArrayList<>(ITEMS);
+        items.add(container.getBlockBlobReference("inbound/")); // placeholder
+        for (int i = 0; i < 10; i++) {
+            items.add(container.getDirectoryReference("inbound/folder-" + i + "/"));
+        }
+        Date now = new Date();
+        while (items.size() < ITEMS) {
+            CloudBlockBlob blob = container.getBlockBlobReference("inbound/file-" + items.size() + ".edi");
+            BenchmarkAccount.setProperties(blob.getProperties(), 1024L * items.size(), now);
+            items.add(blob);
+        }
+    }
+
+    @Benchmark
+    public void dirEntries(Blackhole bh) {
+        for (ListBlobItem item : items) {
+            Entry entry = BlobStorageConnectorClient.dirEntry(account, cp, item, "benchmark", null);
+            bh.consume(entry);
+        }
+    }
+}
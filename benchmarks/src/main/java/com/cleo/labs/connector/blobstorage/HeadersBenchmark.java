@@ -0,0 +1,48 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeadersBenchmark {
+    @Param({"0", "1", "10"})
+    private int count;
+
+    private String value;
+
+    @Setup
+    public void setup() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"enabled\":").append(i % 5 != 4)
+                .append(",\"header\":\"x-ms-meta-header").append(i)
+                .append("\",\"value\":\"value").append(i).append("\"}");
+        }
+        value = count == 0 ? "" : json.append(']').toString();
+    }
+
+    @Benchmark
+    public HashMap<String,String> toHeaders() {
+        return HeadersTableProperty.toHeaders(value);
+    }
+}
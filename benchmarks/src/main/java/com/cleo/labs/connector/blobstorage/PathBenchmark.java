@@ -0,0 +1,51 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+    private String source;
+    private Path path;
+
+    @Setup
+    public void setup() {
+        source = "/container/inbound/partner/2018/06/invoice-000123.edi";
+        path = new Path().parse(source);
+    }
+
+    @Benchmark
+    public Path parse() {
+        return new Path().parse(source);
+    }
+
+    @Benchmark
+    public Path child() {
+        return path.child("invoice-000124.edi");
+    }
+
+    @Benchmark
+    public Path chroot() {
+        return path.chroot(1);
+    }
+
+    @Benchmark
+    public String parseChrootToString() {
+        return new Path().parse(source).chroot(1).toString();
+    }
+}
@@ -0,0 +1,179 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.microsoft.azure.storage.blob.ListBlobItem;
+
+/**
+ * A non-blocking facade over a {@link BlobStorageContainer}: each operation
+ * runs on an executor (by default the bounded pool of the account, see
+ * {@link BlobStorageAccount#async()}) and completes a {@link CompletableFuture},
+ * so operations can be composed without a dedicated thread per caller.
+ * <p/>
+ * Cancelling a future with {@code mayInterruptIfRunning} interrupts the
+ * running operation.  An interrupted upload is abandoned without committing,
+ * so the blob is left as it was.
+ */
+public class AsyncBlobStorageContainer {
+    private static final int BUFFER = 64 * 1024;
+
+    private interface Operation<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * A future that interrupts its task when cancelled.
+     */
+    private static class Task<T> extends CompletableFuture<T> {
+        private volatile Future<?> running;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> future = running;
+            if (cancelled && future != null) {
+                future.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+
+    private final BlobStorageContainer container;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a facade running the operations of {@code container} on {@code executor}.
+     * @param container the container
+     * @param executor the executor
+     */
+    public AsyncBlobStorageContainer(BlobStorageContainer container, ExecutorService executor) {
+        this.container = container;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the underlying (blocking) container.
+     * @return the container
+     */
+    public BlobStorageContainer getContainer() {
+        return container;
+    }
+
+    private <T> CompletableFuture<T> submit(Operation<T> operation) {
+        Task<T> task = new Task<>();
+        task.running = executor.submit(() -> {
+            if (task.isDone()) {
+                return; // cancelled while queued
+            }
+            try {
+                task.complete(operation.call());
+            } catch (Throwable e) {
+                task.completeExceptionally(e);
+            }
+        });
+        if (task.isCancelled()) {
+            task.running.cancel(true);
+        }
+        return task;
+    }
+
+    /**
+     * Copies {@code in} to {@code out}, stopping if the thread is interrupted.
+     */
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER];
+        long total = 0;
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("cancelled");
+            }
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Downloads a blob into {@code out}, which is not closed.
+     * @param path the blob path
+     * @param out the destination
+     * @return the number of bytes downloaded
+     */
+    public CompletableFuture<Long> get(Path path, OutputStream out) {
+        return submit(() -> {
+            try (InputStream in = container.getInputStream(path)) {
+                return copy(in, out);
+            }
+        });
+    }
+
+    /**
+     * Uploads {@code in}, which is closed, to a blob.
+     * @param path the blob path
+     * @param in the content
+     * @param append {@code true} to append to an append blob
+     * @param unique {@code true} to make a unique name if the blob exists
+     * @return the path of the blob written
+     */
+    public CompletableFuture<Path> put(Path path, InputStream in, boolean append, boolean unique) {
+        return submit(() -> {
+            BlobStorageContainer.Upload out = container.getOutputStream(path, append, unique);
+            try (InputStream source = in) {
+                copy(source, out);
+            }
+            out.close(); // commits: skipped if the copy failed or was cancelled
+            return out.getPath();
+        });
+    }
+
+    /**
+     * Lists a folder, following all the continuation tokens.
+     * @param folder the folder path
+     * @return the listing
+     */
+    public CompletableFuture<List<ListBlobItem>> list(Path folder) {
+        return submit(() -> {
+            List<ListBlobItem> items = new ArrayList<>();
+            for (ListBlobItem item : container.dir(folder)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("cancelled");
+                }
+                items.add(item);
+            }
+            return items;
+        });
+    }
+
+    /**
+     * Deletes a blob.
+     * @param path the blob path
+     * @return a future completed when the blob is deleted
+     */
+    public CompletableFuture<Void> delete(Path path) {
+        return submit(() -> {
+            container.delete(path);
+            return null;
+        });
+    }
+
+    /**
+     * Copies a block blob within the container, server side.
+     * @param source the source path
+     * @param destination the destination path
+     * @return a future completed when the copy is complete
+     */
+    public CompletableFuture<Void> copy(Path source, Path destination) {
+        return submit(() -> {
+            container.copy(source, destination);
+            return null;
+        });
+    }
+}
@@ -17,9 +17,9 @@ public class AttrCache {
 
     private static String spec = null;
 
-    private static Cache<String,Optional<BasicFileAttributeView>> cache = update(DEFAULT_SPEC);
+    private static Cache<Key,Optional<BasicFileAttributeView>> cache = update(DEFAULT_SPEC);
 
-    public static synchronized Cache<String,Optional<BasicFileAttributeView>> update(String newspec) {
+    public static synchronized Cache<Key,Optional<BasicFileAttributeView>> update(String newspec) {
         // if the value in the config file is null or missing or blank, this means "default"
         // if the value in the config file is "disabled", this means null
         if (Strings.isNullOrEmpty(newspec)) {
@@ -36,7 +36,7 @@ public class AttrCache {
             cache = null;
             // logger.debug("Amazon metadata cache disabled");
         } else {
-            Cache<String,Optional<BasicFileAttributeView>> newcache = CacheBuilder.from(newspec)
+            Cache<Key,Optional<BasicFileAttributeView>> newcache = CacheBuilder.from(newspec)
                 .build();
             if (cache!=null) {
                 newcache.putAll(cache.asMap());
@@ -48,8 +48,44 @@ public class AttrCache {
         return cache;
     }
 
-    private static String key(String clientkey, Path path) {
-        return clientkey + "[" + path.toString() + "]";
+    /**
+     * The cache key: a client key (the host alias) and a path.
+     */
+    static final class Key {
+        private final String clientkey;
+        private final Path path;
+        private final int hash;
+
+        Key(String clientkey, Path path) {
+            this.clientkey = Strings.nullToEmpty(clientkey);
+            this.path = path;
+            this.hash = 31 * this.clientkey.hashCode() + path.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && clientkey.equals(other.clientkey) && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return clientkey + "[" + path + "]";
+        }
+    }
+
+    private static Key key(String clientkey, Path path) {
+        return new Key(clientkey, path);
     }
 
     public static Optional<BasicFileAttributeView> get(String clientkey, Path path,
@@ -61,12 +97,37 @@ public class AttrCache {
         }
     }
 
+    /**
+     * Returns the cached entry for {@code path} without loading it.
+     * @param clientkey the client key
+     * @param path the path
+     * @return the cached (possibly negative) entry, or {@code null} if none
+     */
+    public static Optional<BasicFileAttributeView> peek(String clientkey, Path path) {
+        if (cache!=null) {
+            return cache.getIfPresent(key(clientkey, path));
+        } else {
+            return null;
+        }
+    }
+
     public static void put(String clientkey, Path path, BasicFileAttributeView attr) {
         if (cache!=null) {
             cache.put(key(clientkey, path), Optional.of(attr));
         }
     }
 
+    /**
+     * Records that nothing exists at {@code path}, e.g. after a DELETE.
+     * @param clientkey the client key
+     * @param path the path
+     */
+    public static void putMissing(String clientkey, Path path) {
+        if (cache!=null) {
+            cache.put(key(clientkey, path), Optional.empty());
+        }
+    }
+
     public static void invalidate(String clientkey, Path path) {
         if (cache!=null) {
             cache.invalidate(key(clientkey, path));
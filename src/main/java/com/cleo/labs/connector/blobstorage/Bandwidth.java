@@ -0,0 +1,173 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Token bucket limits on transfer bandwidth: one bucket shared by all
+ * connections of a host, and an optional global bucket shared by all hosts.
+ * <p/>
+ * Bytes are charged in slices of at most {@link #SLICE} bytes, so that
+ * concurrent transfers (and the parallel block and range workers of a
+ * single transfer) interleave at a fine grain and a small file is never
+ * queued behind the whole of a large one.
+ */
+public class Bandwidth {
+    /**
+     * The largest number of bytes charged to the buckets at once.
+     */
+    public static final int SLICE = 64 * 1024;
+
+    private static final ConcurrentMap<String,Bandwidth> HOSTS = new ConcurrentHashMap<>();
+
+    private static long globalRate = 0;
+    private static volatile RateLimiter global = null;
+
+    private long rate;
+    private volatile RateLimiter limiter;
+
+    private Bandwidth() {
+        this.rate = 0;
+        this.limiter = null;
+    }
+
+    /**
+     * Updates the global limit shared by all hosts.
+     * @param bytesPerSecond the new limit, or 0 for no limit
+     */
+    public static synchronized void updateGlobal(long bytesPerSecond) {
+        if (bytesPerSecond == globalRate) {
+            // leave it
+        } else if (bytesPerSecond <= 0) {
+            global = null;
+        } else if (global == null) {
+            global = RateLimiter.create(bytesPerSecond);
+        } else {
+            global.setRate(bytesPerSecond);
+        }
+        globalRate = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Returns the limiter shared by all connections of a host, updating its
+     * rate and, if {@code globalBytesPerSecond} is set, the global rate.  A
+     * host that leaves the global limit at 0 does not clear a global limit
+     * set by another host.
+     * @param alias the host alias
+     * @param bytesPerSecond the host limit, or 0 for no limit
+     * @param globalBytesPerSecond the global limit, or 0 if not configured
+     * @return the limiter
+     */
+    public static Bandwidth of(String alias, long bytesPerSecond, long globalBytesPerSecond) {
+        if (globalBytesPerSecond > 0) {
+            updateGlobal(globalBytesPerSecond);
+        }
+        Bandwidth bandwidth = HOSTS.computeIfAbsent(alias, k -> new Bandwidth());
+        bandwidth.update(bytesPerSecond);
+        return bandwidth;
+    }
+
+    private synchronized void update(long bytesPerSecond) {
+        if (bytesPerSecond == rate) {
+            // leave it
+        } else if (bytesPerSecond <= 0) {
+            limiter = null;
+        } else if (limiter == null) {
+            limiter = RateLimiter.create(bytesPerSecond);
+        } else {
+            limiter.setRate(bytesPerSecond);
+        }
+        rate = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Returns {@code true} if neither the host nor the global limit applies.
+     * @return {@code true} if unlimited
+     */
+    public boolean unlimited() {
+        return limiter == null && global == null;
+    }
+
+    /**
+     * Waits until {@code bytes} bytes may be transferred.
+     * @param bytes the number of bytes
+     */
+    public void acquire(int bytes) {
+        RateLimiter host = limiter;
+        RateLimiter all = global;
+        while (bytes > 0) {
+            int slice = Math.min(bytes, SLICE);
+            if (host != null) {
+                host.acquire(slice);
+            }
+            if (all != null) {
+                all.acquire(slice);
+            }
+            bytes -= slice;
+        }
+    }
+
+    /**
+     * Wraps a stream so that reads are charged against the limits.
+     * @param in the stream
+     * @return the throttled stream (or {@code in} itself if unlimited)
+     */
+    public InputStream throttle(InputStream in) {
+        if (unlimited()) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, Math.min(len, SLICE));
+                if (n > 0) {
+                    acquire(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream so that writes are charged against the limits.
+     * @param out the stream
+     * @return the throttled stream (or {@code out} itself if unlimited)
+     */
+    public OutputStream throttle(OutputStream out) {
+        if (unlimited()) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int n = Math.min(len, SLICE);
+                    acquire(n);
+                    out.write(b, off, n);
+                    off += n;
+                    len -= n;
+                }
+            }
+        };
+    }
+}
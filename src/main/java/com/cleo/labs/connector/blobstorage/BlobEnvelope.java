@@ -0,0 +1,257 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Strings;
+import com.microsoft.azure.storage.blob.CloudBlob;
+
+/**
+ * Chunked AES-GCM envelope encryption for blob content.
+ * <p/>
+ * Each blob is encrypted under its own random data key, which is itself
+ * wrapped (AES-GCM) under the configured master key and stored in the blob
+ * metadata entry {@link #METADATA} as
+ * <pre>
+ *     v1:chunkSize:base64(iv+wrappedKey)
+ * </pre>
+ * The plaintext is cut into {@code chunkSize} chunks and each chunk is
+ * encrypted and authenticated independently, producing
+ * {@code chunkSize+}{@link #TAG_LENGTH} bytes of ciphertext.  Chunk {@code n}
+ * therefore always starts at ciphertext offset {@code n*(chunkSize+TAG_LENGTH)}
+ * and is uploaded as exactly one block, so blocks can be encrypted in parallel
+ * and any plaintext range can be decrypted from a ranged read of just the
+ * chunks that cover it.
+ * <p/>
+ * The chunk IV is the big-endian chunk index (unique under the per-blob data
+ * key), and the final chunk is marked in the additional authenticated data so
+ * that truncation at a chunk boundary is detected.  An empty blob is encoded
+ * as a single empty final chunk.
+ */
+public class BlobEnvelope {
+    /**
+     * The blob metadata entry marking (and describing) an enveloped blob.
+     */
+    public static final String METADATA = "cleoenvelope";
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int TAG_LENGTH = 16;
+
+    private static final String VERSION = "v1";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final byte[] NOT_FINAL = new byte[] { 0 };
+    private static final byte[] FINAL = new byte[] { 1 };
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SecretKey master;
+    private int chunkSize;
+
+    /**
+     * Constructs an envelope using a base64 encoded AES master key (16, 24 or 32
+     * bytes) for new blobs written in chunks of {@code chunkSize} bytes.
+     * @param key the base64 encoded master key
+     * @param chunkSize the plaintext chunk size for new blobs
+     * @throws InvalidKeyException if the key is not a valid AES key
+     */
+    public BlobEnvelope(String key, int chunkSize) throws InvalidKeyException {
+        byte[] raw;
+        try {
+            raw = Base64.getDecoder().decode(key.trim());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidKeyException("encryption key is not valid base64", e);
+        }
+        if (raw.length != 16 && raw.length != 24 && raw.length != 32) {
+            throw new InvalidKeyException("encryption key must be 128, 192 or 256 bits");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("encryption chunk size must be positive");
+        }
+        this.master = new SecretKeySpec(raw, "AES");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the plaintext chunk size used for new blobs.
+     * @return the chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns {@code true} if the blob metadata marks an enveloped blob.
+     * @param blob the blob (with attributes already fetched)
+     * @return {@code true} if the blob is enveloped
+     */
+    public static boolean isEnveloped(CloudBlob blob) {
+        Map<String,String> metadata = blob.getMetadata();
+        return metadata != null && !Strings.isNullOrEmpty(metadata.get(METADATA));
+    }
+
+    /**
+     * Returns the plaintext length of a blob, which for an enveloped blob
+     * is the stored length less the authentication tag overhead.
+     * @param blob the blob (with attributes already fetched)
+     * @return the plaintext length
+     */
+    public static long plainLength(CloudBlob blob) {
+        long length = blob.getProperties().getLength();
+        if (!isEnveloped(blob)) {
+            return length;
+        }
+        int chunk = parse(blob.getMetadata().get(METADATA)).chunkSize;
+        long cipherChunk = chunk + TAG_LENGTH;
+        long rem = length % cipherChunk;
+        return (length / cipherChunk) * chunk + (rem > 0 ? rem - TAG_LENGTH : 0);
+    }
+
+    /**
+     * The per-blob state: a data key and the chunk size it was written with.
+     */
+    public static class Sealed {
+        private final SecretKey key;
+        private final int chunkSize;
+        private final String metadata;
+
+        private Sealed(SecretKey key, int chunkSize, String metadata) {
+            this.key = key;
+            this.chunkSize = chunkSize;
+            this.metadata = metadata;
+        }
+
+        public int chunkSize() {
+            return chunkSize;
+        }
+
+        public int cipherChunkSize() {
+            return chunkSize + TAG_LENGTH;
+        }
+
+        /**
+         * Returns the value to store in the {@link BlobEnvelope#METADATA} entry.
+         * @return the metadata value
+         */
+        public String metadata() {
+            return metadata;
+        }
+
+        /**
+         * Encrypts one chunk.
+         * @param index the chunk index
+         * @param last {@code true} for the final chunk of the blob
+         * @param plain the plaintext buffer
+         * @param length the number of plaintext bytes (at most {@code chunkSize})
+         * @return the ciphertext including the authentication tag
+         * @throws GeneralSecurityException
+         */
+        public byte[] encrypt(long index, boolean last, byte[] plain, int length) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv(index));
+            cipher.updateAAD(last ? FINAL : NOT_FINAL);
+            return cipher.doFinal(plain, 0, length);
+        }
+
+        /**
+         * Decrypts and authenticates one chunk.
+         * @param index the chunk index
+         * @param last {@code true} if this must be the final chunk of the blob
+         * @param cipherText the ciphertext buffer
+         * @param length the number of ciphertext bytes including the tag
+         * @return the plaintext
+         * @throws GeneralSecurityException if the chunk fails authentication
+         */
+        public byte[] decrypt(long index, boolean last, byte[] cipherText, int length) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, iv(index));
+            cipher.updateAAD(last ? FINAL : NOT_FINAL);
+            return cipher.doFinal(cipherText, 0, length);
+        }
+
+        private static GCMParameterSpec iv(long index) {
+            return new GCMParameterSpec(TAG_LENGTH * 8, ByteBuffer.allocate(IV_LENGTH).putLong(IV_LENGTH - 8, index).array());
+        }
+    }
+
+    /**
+     * Creates the state for a new blob with a fresh random data key.
+     * @return the new per-blob state
+     * @throws GeneralSecurityException
+     */
+    public Sealed seal() throws GeneralSecurityException {
+        byte[] raw = new byte[master.getEncoded().length];
+        RANDOM.nextBytes(raw);
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, master, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+        cipher.updateAAD(header(chunkSize));
+        byte[] wrapped = cipher.doFinal(raw);
+        byte[] encoded = ByteBuffer.allocate(iv.length + wrapped.length).put(iv).put(wrapped).array();
+        String metadata = VERSION + ":" + chunkSize + ":" + Base64.getEncoder().encodeToString(encoded);
+        return new Sealed(new SecretKeySpec(raw, "AES"), chunkSize, metadata);
+    }
+
+    /**
+     * Recovers the state for an existing enveloped blob from its metadata.
+     * @param blob the blob (with attributes already fetched)
+     * @return the per-blob state
+     * @throws GeneralSecurityException if the data key can not be unwrapped
+     */
+    public Sealed open(CloudBlob blob) throws GeneralSecurityException {
+        return open(blob.getMetadata().get(METADATA));
+    }
+
+    /**
+     * Recovers the per-blob state from the {@link #METADATA} value.
+     * @param metadata the metadata value
+     * @return the per-blob state
+     * @throws GeneralSecurityException if the data key can not be unwrapped
+     */
+    public Sealed open(String metadata) throws GeneralSecurityException {
+        Header header;
+        try {
+            header = parse(metadata);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("invalid envelope metadata", e);
+        }
+        if (header.wrapped.length <= IV_LENGTH) {
+            throw new GeneralSecurityException("invalid envelope metadata");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, master, new GCMParameterSpec(TAG_LENGTH * 8, header.wrapped, 0, IV_LENGTH));
+        cipher.updateAAD(header(header.chunkSize));
+        byte[] raw = cipher.doFinal(header.wrapped, IV_LENGTH, header.wrapped.length - IV_LENGTH);
+        return new Sealed(new SecretKeySpec(raw, "AES"), header.chunkSize, metadata);
+    }
+
+    private static byte[] header(int chunkSize) {
+        return (VERSION + ":" + chunkSize).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class Header {
+        int chunkSize;
+        byte[] wrapped;
+    }
+
+    private static Header parse(String metadata) {
+        String[] parts = metadata.split(":");
+        if (parts.length != 3 || !parts[0].equals(VERSION)) {
+            throw new IllegalArgumentException("unsupported envelope version: " + metadata);
+        }
+        Header header = new Header();
+        header.chunkSize = Integer.parseInt(parts[1]);
+        header.wrapped = Base64.getDecoder().decode(parts[2]);
+        return header;
+    }
+}
@@ -0,0 +1,116 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlob;
+
+/**
+ * An {@link java.io.InputStream} over a range of a blob, fetched with ranged
+ * GETs of {@link #CHUNK_SIZE} bytes, up to {@code readAhead} at a time.
+ * Each ranged GET is conditional on the blob ETag, so a blob replaced while
+ * it is being read fails rather than returning mixed content.
+ */
+public class BlobRangeInputStream extends ChunkedInputStream {
+    /**
+     * The size of each ranged GET, matching the SDK default stream read size.
+     */
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private BlobStorageAccount account;
+    private CloudBlob blob;
+    private AccessCondition condition;
+    private long size;
+
+    /**
+     * Opens a range of a blob.
+     * @param account the account (for the worker pool, hedger and context)
+     * @param blob the blob, with attributes already fetched
+     * @param offset the offset to start reading from
+     * @param length the number of bytes to read, or negative to read to the end
+     * @param readAhead the number of ranges to fetch concurrently
+     */
+    public BlobRangeInputStream(BlobStorageAccount account, CloudBlob blob, long offset, long length, int readAhead) {
+        this(account, blob, blob.getProperties().getEtag(), blob.getProperties().getLength(), offset, length, readAhead);
+    }
+
+    /**
+     * Opens a range of a blob whose ETag and size are already known, e.g.
+     * from cached attributes, so {@code blob} may be a local reference.
+     * @param account the account (for the worker pool, hedger and context)
+     * @param blob the blob reference
+     * @param etag the expected ETag
+     * @param size the stored size of the blob
+     * @param offset the offset to start reading from
+     * @param length the number of bytes to read, or negative to read to the end
+     * @param readAhead the number of ranges to fetch concurrently
+     */
+    public BlobRangeInputStream(BlobStorageAccount account, CloudBlob blob, String etag, long size, long offset, long length, int readAhead) {
+        super(account.workers(), CHUNK_SIZE, size, offset, length, readAhead);
+        this.account = account;
+        this.blob = blob;
+        this.condition = AccessCondition.generateIfMatchCondition(etag);
+        this.size = size;
+    }
+
+    @Override
+    protected byte[] fetch(long n) throws Exception {
+        long start = n * CHUNK_SIZE;
+        return download(account, blob, condition, start, (int) Math.min(CHUNK_SIZE, size - start));
+    }
+
+    /**
+     * Downloads {@code length} bytes of a blob starting at {@code start} with a
+     * (possibly hedged) ranged GET.
+     * @param account the account (for the hedger and context)
+     * @param blob the blob
+     * @param condition the access condition
+     * @param start the starting offset
+     * @param length the number of bytes
+     * @return the bytes
+     * @throws Exception
+     */
+    public static byte[] download(BlobStorageAccount account, CloudBlob blob, AccessCondition condition,
+            long start, int length) throws Exception {
+        return account.hedger().call("range", () -> {
+            // each (possibly concurrent) attempt gets its own buffer
+            RangeBuffer buffer = new RangeBuffer(length);
+            blob.downloadRange(start, (long) length, account.bandwidth().throttle(buffer),
+                    condition, account.options(), account.context());
+            if (buffer.count < length) {
+                throw new StorageException("UnexpectedEndOfRange", "blob range ended early", 0, null, null);
+            }
+            return buffer.bytes;
+        });
+    }
+
+    /**
+     * A fixed size sink for a ranged GET.  The SDK resumes a retried range
+     * where it left off, so bytes are simply appended.
+     */
+    private static class RangeBuffer extends OutputStream {
+        private byte[] bytes;
+        private int count;
+
+        RangeBuffer(int length) {
+            this.bytes = new byte[length];
+            this.count = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > bytes.length - count) {
+                throw new IOException("blob range longer than requested");
+            }
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package com.cleo.labs.connector.blobstorage;
 
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.cleo.connector.api.property.ConnectorPropertyException;
 import com.google.common.base.Strings;
 import com.microsoft.azure.storage.CloudStorageAccount;
 import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RequestCompletedEvent;
+import com.microsoft.azure.storage.ResponseReceivedEvent;
+import com.microsoft.azure.storage.StorageEvent;
 import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
 import com.microsoft.azure.storage.blob.CloudBlobClient;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.ContainerListingDetails;
@@ -15,18 +27,185 @@ import com.microsoft.azure.storage.blob.ContainerListingDetails;
 public class BlobStorageAccount {
     private CloudStorageAccount account;
     private CloudBlobClient client;
-    private OperationContext context;
+    private ContextTemplate template;
+    private BlobRequestOptions options;
+    private BlobEnvelope envelope;
+    private int parallelism;
+    private Hedger hedger;
+    private ThrottleController throttle;
+    private Bandwidth bandwidth;
+    private BlobStorageMetrics metrics;
+    private ContentCache contentCache;
+    private ExecutorService async;
+    private volatile long skew = 0;
+
+    /**
+     * The size of the asynchronous pool of an account constructed without
+     * a configuration, if no host has created it yet.
+     */
+    public static final int DEFAULT_ASYNC_THREADS = 8;
+
+    /**
+     * The number of ranges a flat listing lists at once by default.
+     */
+    public static final int DEFAULT_LIST_THREADS = 4;
+
+    /**
+     * Shared pool for parallel block and range transfers, whose tasks count
+     * their requests against the command that submitted them.
+     */
+    private static final ExecutorService WORKERS = BlobStorageMetrics.bound(Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "blob-worker");
+        thread.setDaemon(true);
+        return thread;
+    }));
+
+    /**
+     * Bounded pools for the asynchronous facades, one per host.
+     */
+    private static final ConcurrentMap<String,ThreadPoolExecutor> ASYNC = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the pool of a host, resizing it to {@code threads}.
+     * @param alias the host alias
+     * @param threads the number of threads, or 0 to leave the size alone
+     * @return the pool
+     */
+    private static ThreadPoolExecutor async(String alias, int threads) {
+        ThreadPoolExecutor pool = ASYNC.computeIfAbsent(alias, k -> {
+            int size = threads > 0 ? threads : DEFAULT_ASYNC_THREADS;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "blob-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+        synchronized (pool) {
+            if (threads <= 0) {
+                // leave it
+            } else if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else if (threads < pool.getMaximumPoolSize()) {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+        return pool;
+    }
 
     public BlobStorageAccount(BlobStorageConnectorConfig config)
             throws ConnectorPropertyException, InvalidKeyException, URISyntaxException {
-        context = config.getOperationContext();
+        this(config.snapshot());
+    }
+
+    /**
+     * Constructs an account from a configuration snapshot.
+     * @param config the snapshot
+     * @throws InvalidKeyException
+     * @throws URISyntaxException
+     */
+    public BlobStorageAccount(ConfigSnapshot config) throws InvalidKeyException, URISyntaxException {
+        throttle = config.getThrottle();
+        metrics = BlobStorageMetrics.of(config.getHostAlias());
+        template = config.getContextTemplate()
+                .with(context -> context.getRequestCompletedEventHandler().addListener(measure))
+                .with(context -> context.getResponseReceivedEventHandler().addListener(clock));
+        bandwidth = Bandwidth.of(config.getHostAlias(), config.getBandwidthLimit(), config.getGlobalBandwidthLimit());
+        String key = config.getEncryptionKey();
+        envelope = Strings.isNullOrEmpty(key) ? null : new BlobEnvelope(key, config.getEncryptionChunkSize());
+        parallelism = config.getParallelism();
+        contentCache = Strings.isNullOrEmpty(config.getContentCache()) ? null
+                : ContentCache.of(config.getContentCache(), config.getContentCacheSize());
+        async = async(config.getHostAlias(), config.getAsyncThreads());
+        hedger = new Hedger(config.getStorageAccountName(), config.getHedgeReads(), config.getHedgeDelay(),
+                config.getHedgeMaxPercent(), WORKERS);
         account = CloudStorageAccount.parse(config.getConnectionString());
         client = account.createCloudBlobClient();
+        // requests made with null options fall back to these client defaults
+        options = config.getRequestOptions();
+        client.setDefaultRequestOptions(options);
         delimiter = client.getDirectoryDelimiter();
         not_ending_with_delimiter = "(?<=[^" + delimiter + "])$";
     }
 
+    /**
+     * Constructs an account from a connection string with the default settings
+     * and no connector configuration: no encryption, hedging, bandwidth or
+     * concurrency limits, and metrics collected under the empty host alias.
+     * Intended for tools and benchmarks.
+     * @param connectionString the storage connection string
+     * @throws InvalidKeyException
+     * @throws URISyntaxException
+     */
+    public BlobStorageAccount(String connectionString) throws InvalidKeyException, URISyntaxException {
+        this(new ConfigSnapshot(connectionString));
+    }
+
+    /**
+     * Counts completed requests in the metrics.
+     */
+    private final StorageEvent<RequestCompletedEvent> measure = new StorageEvent<RequestCompletedEvent>() {
+        @Override
+        public void eventOccurred(RequestCompletedEvent event) {
+            metrics.request(event.getRequestResult().getStatusCode());
+        }
+    };
+
+    /**
+     * Tracks the skew of the service clock from the Date of each response.
+     */
+    private final StorageEvent<ResponseReceivedEvent> clock = new StorageEvent<ResponseReceivedEvent>() {
+        @Override
+        public void eventOccurred(ResponseReceivedEvent event) {
+            if (event.getConnectionObject() instanceof HttpURLConnection) {
+                long date = ((HttpURLConnection) event.getConnectionObject()).getHeaderFieldDate("Date", 0L);
+                if (date > 0) {
+                    skew = date - System.currentTimeMillis();
+                }
+            }
+        }
+    };
+
+    /**
+     * Returns the service clock less the local clock, as of the latest
+     * response (to the second: the resolution of the Date header).
+     * @return the skew in milliseconds, or 0 before the first response
+     */
+    public long getClockSkew() {
+        return skew;
+    }
+
+    /**
+     * Returns a listener that counts completed requests against a sample.
+     * @param sample the sample
+     * @return the listener
+     */
+    private static StorageEvent<RequestCompletedEvent> counting(BlobStorageMetrics.Sample sample) {
+        return new StorageEvent<RequestCompletedEvent>() {
+            @Override
+            public void eventOccurred(RequestCompletedEvent event) {
+                sample.request();
+            }
+        };
+    }
+
+    /**
+     * Returns a fresh context for one operation (which may make several
+     * requests, and whose results are retained only as long as the context).
+     * The requests are counted against the command running on this thread,
+     * if any, so background requests are not.
+     * @return a new OperationContext
+     */
     public OperationContext context() {
+        OperationContext context = template.create();
+        BlobStorageMetrics.Sample current = BlobStorageMetrics.current();
+        if (current != null) {
+            context.getRequestCompletedEventHandler().addListener(counting(current));
+        }
         return context;
     }
 
@@ -34,13 +213,107 @@ public class BlobStorageAccount {
         return client;
     }
 
+    /**
+     * Returns a copy of the default request options (retry policy, timeouts
+     * and parallelism), suitable for further per-call customization.
+     * @return a new BlobRequestOptions
+     */
+    public BlobRequestOptions options() {
+        return new BlobRequestOptions(options);
+    }
+
+    /**
+     * Returns the envelope used to encrypt and decrypt blobs.
+     * @return the envelope, or {@code null} if no encryption key is configured
+     */
+    public BlobEnvelope envelope() {
+        return envelope;
+    }
+
+    /**
+     * Returns the on-disk cache of blob content.
+     * @return the cache, or {@code null} if no content cache is configured
+     */
+    public ContentCache contentCache() {
+        return contentCache;
+    }
+
+    /**
+     * Returns the number of blocks or ranges to transfer concurrently.
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the hedger for idempotent reads.
+     * @return the hedger
+     */
+    public Hedger hedger() {
+        return hedger;
+    }
+
+    /**
+     * Returns the concurrency controller shared by all connections to the account.
+     * @return the controller
+     */
+    public ThrottleController throttle() {
+        return throttle;
+    }
+
+    /**
+     * Returns the bandwidth limiter for the host.
+     * @return the limiter
+     */
+    public Bandwidth bandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Returns the metrics for the host.
+     * @return the metrics
+     */
+    public BlobStorageMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts measuring a command.  Azure requests made through contexts
+     * created on this thread, or on the workers it submits to, until the
+     * sample is closed are counted against the command (a nested sample, like
+     * the ATTR behind a PUT, takes over until it is closed).
+     * @param command the command name
+     * @return the sample, to be closed when the command completes
+     */
+    public BlobStorageMetrics.Sample sample(String command) {
+        return metrics.start(command);
+    }
+
+    /**
+     * Returns the shared pool for parallel block and range transfers.
+     * @return the worker pool
+     */
+    public ExecutorService workers() {
+        return WORKERS;
+    }
+
+    /**
+     * Returns the bounded pool of the host on which the asynchronous facades
+     * run their operations.
+     * @return the pool
+     */
+    public ExecutorService async() {
+        return async;
+    }
+
     public BlobStorageContainer getContainer(String name)
             throws URISyntaxException, StorageException {
         return new BlobStorageContainer(this, name);
     }
 
     public Iterable<CloudBlobContainer> dir() {
-        return client.listContainers(null, ContainerListingDetails.METADATA, null /* options */, context);
+        return client.listContainers(null, ContainerListingDetails.METADATA, options(), context());
     }
 
     /**
@@ -7,70 +7,159 @@ import java.nio.file.attribute.FileTime;
 
 import com.cleo.connector.api.helper.Logger;
 import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.BlobType;
+import com.microsoft.azure.storage.blob.CloudBlob;
 
 /**
- * Router file attribute views
+ * Blob file attribute views, snapshotted from the blob properties so that
+ * cached attributes hold no SDK objects.
  */
 public class BlobStorageBlobAttributes implements DosFileAttributes, DosFileAttributeView {
-    private BlobProperties properties;
-    private Logger logger;
+    private final long length;
+    private final long lastModified;
+    private final FileTime time;
+    private final BlobType type;
+    private final String etag;
+    private final String contentMD5;
+    private final boolean enveloped;
+    private final Logger logger;
 
     public BlobStorageBlobAttributes(BlobProperties properties, Logger logger) {
-        this.properties = properties;
+        this(properties, properties.getLength(), false, logger);
+    }
+
+    /**
+     * Constructs attributes reporting {@code length} instead of the stored
+     * length, e.g. the plaintext length of an encrypted blob.
+     * @param blob the blob, whose metadata tells if it is encrypted
+     * @param length the length to report
+     * @param logger the logger, or {@code null} to skip debug logging
+     */
+    public BlobStorageBlobAttributes(CloudBlob blob, long length, Logger logger) {
+        this(blob.getProperties(), length, BlobEnvelope.isEnveloped(blob), logger);
+    }
+
+    private BlobStorageBlobAttributes(BlobProperties properties, long length, boolean enveloped, Logger logger) {
+        this.length = length;
+        this.lastModified = properties.getLastModified() == null ? 0L : properties.getLastModified().getTime();
+        this.time = FileTime.fromMillis(lastModified);
+        this.type = properties.getBlobType();
+        this.etag = properties.getEtag();
+        this.contentMD5 = properties.getContentMD5();
+        this.enveloped = enveloped;
         this.logger = logger;
     }
 
+    /**
+     * Returns the last modified time in milliseconds.
+     * @return the last modified time
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the blob type.
+     * @return the blob type
+     */
+    public BlobType getBlobType() {
+        return type;
+    }
+
+    /**
+     * Returns the blob ETag.
+     * @return the ETag
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Returns the (base64) Content-MD5 of the stored blob, if set.
+     * @return the Content-MD5, or {@code null}
+     */
+    public String getContentMD5() {
+        return contentMD5;
+    }
+
+    /**
+     * Returns {@code true} if the blob is encrypted, in which case the
+     * reported length is the plaintext length, not the stored length.
+     * @return {@code true} for an encrypted blob
+     */
+    public boolean isEnveloped() {
+        return enveloped;
+    }
+
     @Override
     public FileTime lastModifiedTime() {
-        logger.debug(String.format("lastModifiderTime()=%s", properties.getLastModified().toString()));
-        return FileTime.fromMillis(properties.getLastModified().getTime());
+        if (logger != null) {
+            logger.debug(String.format("lastModifiedTime()=%s", time));
+        }
+        return time;
     }
 
     @Override
     public FileTime lastAccessTime() {
-        logger.debug(String.format("lastAccessTime()=%s", properties.getLastModified().toString()));
-        return FileTime.fromMillis(properties.getLastModified().getTime());
+        if (logger != null) {
+            logger.debug(String.format("lastAccessTime()=%s", time));
+        }
+        return time;
     }
 
     @Override
     public FileTime creationTime() {
-        logger.debug(String.format("creationTime()=%s", properties.getLastModified().toString()));
-        return FileTime.fromMillis(properties.getLastModified().getTime());
+        if (logger != null) {
+            logger.debug(String.format("creationTime()=%s", time));
+        }
+        return time;
     }
 
     @Override
     public boolean isRegularFile() {
-        logger.debug("isRegularFile()=true");
+        if (logger != null) {
+            logger.debug("isRegularFile()=true");
+        }
         return true; // blobs are regular files
     }
 
     @Override
     public boolean isDirectory() {
-        logger.debug("isDirectory()=false");
+        if (logger != null) {
+            logger.debug("isDirectory()=false");
+        }
         return false; // blobs are regular files
     }
 
     @Override
     public boolean isSymbolicLink() {
-        logger.debug("isSymbolicLink()=false");
+        if (logger != null) {
+            logger.debug("isSymbolicLink()=false");
+        }
         return false; // blobs are regular files
     }
 
     @Override
     public boolean isOther() {
-        logger.debug("isOther()=false");
+        if (logger != null) {
+            logger.debug("isOther()=false");
+        }
         return false; // blobs are regular files
     }
 
     @Override
     public long size() {
-        logger.debug(String.format("size()=%d", properties.getLength()));
-        return properties.getLength();
+        if (logger != null) {
+            logger.debug(String.format("size()=%d", length));
+        }
+        return length;
     }
 
     @Override
     public Object fileKey() {
-        logger.debug("fileKey()=null");
+        if (logger != null) {
+            logger.debug("fileKey()=null");
+        }
         return null;
     }
 
@@ -113,25 +202,33 @@ public class BlobStorageBlobAttributes implements DosFileAttributes, DosFileAttr
 
     @Override
     public boolean isReadOnly() {
-        logger.debug("isReadOnly()=false");
+        if (logger != null) {
+            logger.debug("isReadOnly()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isHidden() {
-        logger.debug("isHidden()=false");
+        if (logger != null) {
+            logger.debug("isHidden()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isArchive() {
-        logger.debug("isArchive()=false");
+        if (logger != null) {
+            logger.debug("isArchive()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isSystem() {
-        logger.debug("isSystem()=false");
+        if (logger != null) {
+            logger.debug("isSystem()=false");
+        }
         return false;
     }
 
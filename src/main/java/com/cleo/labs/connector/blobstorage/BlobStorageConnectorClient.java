@@ -12,10 +12,14 @@ import static com.cleo.connector.api.command.ConnectorCommandOption.Delete;
 import static com.cleo.connector.api.command.ConnectorCommandOption.Unique;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
@@ -33,13 +37,16 @@ import com.cleo.connector.api.command.PutCommand;
 import com.cleo.connector.api.directory.Directory.Type;
 import com.cleo.connector.api.directory.Entry;
 import com.cleo.connector.api.helper.Attributes;
+import com.cleo.connector.api.helper.Logger;
 import com.cleo.connector.api.interfaces.IConnectorIncoming;
 import com.cleo.connector.api.interfaces.IConnectorOutgoing;
 import com.cleo.connector.api.property.ConnectorPropertyException;
 import com.cleo.labs.connector.blobstorage.BlobStorageAccount.ContainerAndPath;
 import com.google.common.base.Strings;
+import com.google.common.io.CountingInputStream;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.BlobType;
 import com.microsoft.azure.storage.blob.CloudBlob;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.CloudBlobDirectory;
@@ -49,6 +56,11 @@ public class BlobStorageConnectorClient extends ConnectorClient {
     private BlobStorageConnectorConfig config;
     private BlobStorageAccount account;
     private BlobStorageContainer container;
+    private Logger attrLogger;
+    private ConfigSnapshot snapshot;
+    private ETagStore etags;
+    private WatermarkStore watermarks;
+    private UploadSpool spool;
 
     /**
      * Constructs a new {@code BlobStorageConnectorClient} for the schema using
@@ -62,7 +74,17 @@ public class BlobStorageConnectorClient extends ConnectorClient {
     }
 
     /**
-     * Establishes a live container reference from the configuration.
+     * Returns the client logger, for helpers outside the client.
+     * @return the logger
+     */
+    Logger logger() {
+        return logger;
+    }
+
+    /**
+     * Establishes a live account (and container) reference from the
+     * configuration, rebuilding it only when the configuration has changed
+     * since the last call.
      * 
      * @throws InvalidKeyException
      * @throws ConnectorPropertyException
@@ -70,13 +92,36 @@ public class BlobStorageConnectorClient extends ConnectorClient {
      * @throws StorageException
      */
     private synchronized void setup() throws InvalidKeyException, ConnectorPropertyException, URISyntaxException, StorageException {
-        if (container == null) {
-            //logger.debug("connecting as "+config.getConnectionString());
-            //logger.debug("proxy is "+config.getProxy());
-            account = new BlobStorageAccount(config);
-            if (!Strings.isNullOrEmpty(config.getContainer())) {
-                container = account.getContainer(config.getContainer());
+        ConfigSnapshot current = config.snapshot();
+        if (current != snapshot) {
+            //logger.debug("connecting as "+current.getConnectionString());
+            account = new BlobStorageAccount(current);
+            attrLogger = current.getEnableDebug() ? logger : null;
+            try {
+                etags = current.getSkipUnchanged() ? ETagStore.of(current.getETagStore()) : null;
+            } catch (IOException e) {
+                throw new ConnectorPropertyException("unable to read the ETag store "+current.getETagStore()+": "+e.getMessage());
+            }
+            try {
+                watermarks = current.getIncrementalDir() ? WatermarkStore.of(current.getWatermarkStore()) : null;
+            } catch (IOException e) {
+                throw new ConnectorPropertyException("unable to read the watermark store "+current.getWatermarkStore()+": "+e.getMessage());
+            }
+            try {
+                spool = current.getWriteBehind() ? UploadSpool.of(current.getSpoolDirectory()) : null;
+            } catch (IOException e) {
+                throw new ConnectorPropertyException("unable to recover the spool "+current.getSpoolDirectory()+": "+e.getMessage());
             }
+            if (spool != null) {
+                spool.start(account, getHost().getAlias());
+            }
+            account.metrics().spool(spool);
+            if (!Strings.isNullOrEmpty(current.getContainer())) {
+                container = account.getContainer(current.getContainer());
+            } else {
+                container = null;
+            }
+            snapshot = current;
         }
     }
 
@@ -87,46 +132,87 @@ public class BlobStorageConnectorClient extends ConnectorClient {
 
         logger.debug(String.format("DIR '%s'", source));
         setup();
-
-        ContainerAndPath cp = account.parse(container, source);
-        List<Entry> list = new ArrayList<>();
-        if (cp.container == null) {
-            for (CloudBlobContainer c : account.dir()) {
-                Entry entry = new Entry(Type.dir)
-                        .setPath(c.getName())
-                        .setDate(Attributes.toLocalDateTime(c.getProperties().getLastModified()))
-                        .setSize(-1L);
-                list.add(entry);
-                AttrCache.put(source, new Path(c.getName()), new BlobStorageContainerAttributes(c.getProperties(), logger));
-            }
-        } else {
-            for (ListBlobItem item : cp.container.dir(cp.path)) {
-                if (item instanceof CloudBlobDirectory) {
-                    CloudBlobDirectory directory = (CloudBlobDirectory) item;
-                    Path prefix = new Path(account.getDelimiter()).parse(directory.getPrefix());
-                    Path fullPath = cp.fullPath.child(prefix.name());
+        try (BlobStorageMetrics.Sample sample = account.sample("DIR")) {
+            ContainerAndPath cp = account.parse(container, source);
+            List<Entry> list = new ArrayList<>();
+            if (cp.container == null) {
+                for (CloudBlobContainer c : account.dir()) {
                     Entry entry = new Entry(Type.dir)
-                            .setPath(fullPath.chroot(cp.prefix).toString())
+                            .setPath(c.getName())
+                            .setDate(Attributes.toLocalDateTime(c.getProperties().getLastModified()))
                             .setSize(-1L);
                     list.add(entry);
-                } else if (item instanceof CloudBlob) {
-                    CloudBlob blob = (CloudBlob) item;
-                    if (!blob.getName().equals(cp.path.toString()+account.getDelimiter())) { // the directory placeholder
-                                                                                             // path/ is omitted
-                        Path name = new Path(account.getDelimiter()).parse(blob.getName());
-                        Path fullPath = cp.fullPath.child(name.name());
-                        BlobProperties properties = blob.getProperties();
-                        Entry entry = new Entry(Type.file)
-                                .setPath(fullPath.chroot(cp.prefix).toString())
-                                .setSize(properties.getLength())
-                                .setDate(Attributes.toLocalDateTime(properties.getLastModified()));
+                    AttrCache.put(getHost().getAlias(), cp.fullPath.child(c.getName()), new BlobStorageContainerAttributes(c.getProperties(), attrLogger));
+                }
+            } else {
+                boolean exists = cp.path.empty(); // the listing succeeded, so the container exists
+                String key = cp.fullPath.toString();
+                WatermarkStore.Scan scan = watermarks == null ? null
+                        : new WatermarkStore.Scan(watermarks.get(key), System.currentTimeMillis(), account::getClockSkew);
+                for (ListBlobItem item : cp.container.dir(cp.path)) {
+                    exists = true;
+                    if (scan != null && item instanceof CloudBlob) {
+                        CloudBlob blob = (CloudBlob) item;
+                        if (!scan.add(blob.getName(), blob.getProperties().getLastModified().getTime(),
+                                blob.getProperties().getEtag())) {
+                            continue; // unchanged since the last scan, or retrieved
+                        }
+                    }
+                    Entry entry = dirEntry(account, cp, item, getHost().getAlias(), attrLogger);
+                    if (entry != null) {
                         list.add(entry);
-                        AttrCache.put(getHost().getAlias(), fullPath, new BlobStorageBlobAttributes(properties, logger));
                     }
                 }
+                if (scan != null) {
+                    watermarks.put(key, scan);
+                }
+                if (exists) {
+                    // ATTR reports the container properties for a container or a non-empty virtual directory
+                    AttrCache.put(getHost().getAlias(), cp.fullPath,
+                            new BlobStorageContainerAttributes(cp.container.getProperties(), attrLogger));
+                }
+            }
+            return sample.success(new ConnectorCommandResult(Status.Success, Optional.empty(), list));
+        }
+    }
+
+    /**
+     * Converts a blob listing item into a directory entry, caching the
+     * attributes of a blob or virtual directory along the way.
+     *
+     * @param account the account
+     * @param cp the listed container and path
+     * @param item the listing item
+     * @param alias the host alias for the attribute cache
+     * @param logger the debug logger for the cached attributes, or {@code null}
+     * @return the entry, or {@code null} for the directory placeholder blob
+     */
+    static Entry dirEntry(BlobStorageAccount account, ContainerAndPath cp, ListBlobItem item, String alias, Logger logger) {
+        if (item instanceof CloudBlobDirectory) {
+            CloudBlobDirectory directory = (CloudBlobDirectory) item;
+            Path prefix = new Path(account.getDelimiter()).parse(directory.getPrefix());
+            Path fullPath = cp.fullPath.child(prefix.name());
+            AttrCache.put(alias, fullPath, new BlobStorageContainerAttributes(cp.container.getProperties(), logger));
+            return new Entry(Type.dir)
+                    .setPath(fullPath.chroot(cp.prefix).toString())
+                    .setSize(-1L);
+        } else if (item instanceof CloudBlob) {
+            CloudBlob blob = (CloudBlob) item;
+            if (!blob.getName().equals(cp.path.toString()+account.getDelimiter())) { // the directory placeholder
+                                                                                     // path/ is omitted
+                Path name = new Path(account.getDelimiter()).parse(blob.getName());
+                Path fullPath = cp.fullPath.child(name.name());
+                BlobProperties properties = blob.getProperties();
+                long length = BlobEnvelope.plainLength(blob);
+                Entry entry = new Entry(Type.file)
+                        .setPath(fullPath.chroot(cp.prefix).toString())
+                        .setSize(length)
+                        .setDate(Attributes.toLocalDateTime(properties.getLastModified()));
+                AttrCache.put(alias, fullPath, new BlobStorageBlobAttributes(blob, length, logger));
+                return entry;
             }
         }
-        return new ConnectorCommandResult(Status.Success, Optional.empty(), list);
+        return null;
     }
 
     @Command(name = GET, options = { Delete })
@@ -137,21 +223,56 @@ public class BlobStorageConnectorClient extends ConnectorClient {
 
         logger.debug(String.format("GET remote '%s' to local '%s'", source, destination.getPath()));
         setup();
-        ContainerAndPath cp = account.parse(container, source);
+        try (BlobStorageMetrics.Sample sample = account.sample("GET")) {
+            ContainerAndPath cp = account.parse(container, source);
 
-        if (cp.container == null) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
+            if (cp.container == null) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
+
+            if (etags != null) {
+                return getIfChanged(get, cp, sample);
+            }
+
+            try {
+                InputStream blob = null;
+                Optional<BasicFileAttributeView> cached = AttrCache.peek(getHost().getAlias(), cp.fullPath);
+                // with a content cache the HEAD is what validates the cached copy
+                if (account.contentCache() == null &&
+                        cached != null && cached.isPresent() && cached.get() instanceof BlobStorageBlobAttributes) {
+                    blob = cp.container.getInputStream(cp.path, (BlobStorageBlobAttributes) cached.get());
+                    if (blob == null) {
+                        logger.debug(String.format("cached attributes for '%s' are stale", source));
+                        AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
+                    }
+                }
+                if (blob == null) {
+                    blob = cp.container.getInputStream(cp.path);
+                }
+                CountingInputStream in = new CountingInputStream(blob);
+                transfer(in, destination.getStream(), true);
+                sample.bytes(in.getCount());
+                retrieved(cp);
+                return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+            } catch (StorageException e) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
         }
+    }
 
-        try {
-            transfer(cp.container.getInputStream(cp.path), destination.getStream(), true);
-            return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-        } catch (StorageException e) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
-        } catch (URISyntaxException e) {
-            throw new IOException(e);
+    /**
+     * Records a blob as retrieved in the incremental DIR watermark of its
+     * folder, so it is no longer returned unless it changes.
+     * @param cp the blob
+     * @throws IOException
+     */
+    private void retrieved(ContainerAndPath cp) throws IOException {
+        if (watermarks != null) {
+            watermarks.retrieved(cp.fullPath.parent().toString(), cp.path.toString());
         }
     }
 
@@ -186,46 +307,163 @@ public class BlobStorageConnectorClient extends ConnectorClient {
         return destination.toString();
     }
 
+    /**
+     * A GET for {@link ConfigSnapshot#getSkipUnchanged()}: the transfer is skipped
+     * if the blob ETag matches the one recorded by the last GET of the blob.
+     */
+    private ConnectorCommandResult getIfChanged(GetCommand get, ContainerAndPath cp, BlobStorageMetrics.Sample sample)
+            throws ConnectorException, IOException {
+        String source = get.getSource().getPath();
+        String key = cp.fullPath.toString();
+        try {
+            CloudBlob blob = cp.container.getBlobIfChanged(cp.path, etags.get(key));
+            if (blob == null) {
+                logger.debug(String.format("GET '%s' skipped: unchanged", source));
+                retrieved(cp);
+                return sample.success(new ConnectorCommandResult(Status.Success, Optional.of("unchanged"), null));
+            }
+            CountingInputStream in = new CountingInputStream(cp.container.getInputStream(blob, 0L, -1L));
+            transfer(in, get.getDestination().getStream(), true);
+            sample.bytes(in.getCount());
+            etags.put(key, blob.getProperties().getEtag());
+            retrieved(cp);
+            return sample.success(new ConnectorCommandResult(Status.Success));
+        } catch (StorageException e) {
+            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                    ConnectorException.Category.fileNonExistentOrNoAccess);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
     @Command(name = PUT, options = { Unique, Delete, Append })
     public ConnectorCommandResult put(PutCommand put) throws
             ConnectorException, IOException, InvalidKeyException, URISyntaxException, StorageException {
         setup();
-        String destination = put.getDestination().getPath();
-        IConnectorOutgoing source = put.getSource();
-        String filename = bestFilename(put);
+        try (BlobStorageMetrics.Sample sample = account.sample("PUT")) {
+            String destination = put.getDestination().getPath();
+            IConnectorOutgoing source = put.getSource();
+            String filename = bestFilename(put);
 
-        logger.debug(String.format("PUT local '%s' to remote '%s' (matching filename '%s')", source.getPath(), destination,
-                filename));
-        ContainerAndPath cp = account.parse(container, filename);
+            logger.debug(String.format("PUT local '%s' to remote '%s' (matching filename '%s')", source.getPath(), destination,
+                    filename));
+            ContainerAndPath cp = account.parse(container, filename);
 
-        if (cp.container == null) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", filename),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
+            if (cp.container == null) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", filename),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
+
+            boolean unique = ConnectorCommandUtil.isOptionOn(put.getOptions(), Unique);
+            boolean append = ConnectorCommandUtil.isOptionOn(put.getOptions(), Append);
+
+            if (snapshot.getSkipIdentical() && !unique && !append && identical(source, cp)) {
+                logger.debug(String.format("PUT '%s' skipped: identical", filename));
+                return sample.success(new ConnectorCommandResult(Status.Success, Optional.of("identical"), null));
+            }
+
+            if (spool != null && !append && account.envelope() == null) {
+                sample.bytes(spool.add(getHost().getAlias(), cp.container.getName(), cp.path.toString(), cp.fullPath.toString(), unique,
+                        put.getSource().getStream()));
+                AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
+                return sample.success(new ConnectorCommandResult(Status.Success, Optional.of("spooled"), null));
+            }
+
+            try {
+                CountingInputStream in = new CountingInputStream(put.getSource().getStream());
+                BlobStorageContainer.Upload out = cp.container.getOutputStream(cp.path, append, unique);
+                transfer(in, out, false);
+                sample.bytes(in.getCount());
+                cacheUpload(cp.fullPath.parent().child(out.getPath().name()), out.getBlob(), in.getCount());
+                return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+            } catch (StorageException e) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", filename),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
         }
+    }
 
-        boolean unique = ConnectorCommandUtil.isOptionOn(put.getOptions(), Unique);
-        boolean append = ConnectorCommandUtil.isOptionOn(put.getOptions(), Append);
+    /**
+     * Returns {@code true} if the blob at {@code cp} already has the content
+     * of a file source: the lengths match and the MD5 of the file matches the
+     * Content-MD5 of the blob (from the cached attributes or a HEAD).  Only
+     * file sources are hashed, as they can be read again for the upload.
+     * @param source the PUT source
+     * @param cp the destination
+     * @return {@code true} if the upload can be skipped
+     * @throws IOException
+     */
+    private boolean identical(IConnectorOutgoing source, ContainerAndPath cp) throws IOException {
+        if (!source.isFile() || cp.path.empty() || account.envelope() != null) {
+            return false;
+        }
+        Optional<BasicFileAttributeView> attr;
+        try {
+            attr = AttrCache.get(getHost().getAlias(), cp.fullPath, () -> objectAttrs(cp.container, cp.path));
+        } catch (Exception e) {
+            return false;
+        }
+        if (!attr.isPresent() || !(attr.get() instanceof BlobStorageBlobAttributes)) {
+            return false;
+        }
+        BlobStorageBlobAttributes blob = (BlobStorageBlobAttributes) attr.get();
+        if (blob.isEnveloped() || blob.getBlobType() != BlobType.BLOCK_BLOB || blob.getContentMD5() == null ||
+                (source.getLength() != null && source.getLength() != blob.size())) {
+            return false;
+        }
+        try (InputStream in = source.getStream()) {
+            return blob.getContentMD5().equals(md5(in));
+        }
+    }
 
+    /**
+     * Computes the base64 MD5 of a stream, the form of a blob Content-MD5.
+     * @param in the stream
+     * @return the base64 MD5
+     * @throws IOException
+     */
+    static String md5(InputStream in) throws IOException {
+        MessageDigest digest;
         try {
-            transfer(put.getSource().getStream(), cp.container.getOutputStream(cp.path, append, unique), false);
-            AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
-            return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-        } catch (StorageException e) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", filename),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
-        } catch (URISyntaxException e) {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
             throw new IOException(e);
         }
+        byte[] buffer = new byte[64 * 1024];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            digest.update(buffer, 0, n);
+        }
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Caches the attributes of a just committed blob from the upload
+     * response, so an ATTR following the PUT needs no HEAD.  Appends, and
+     * commits whose response did not carry an ETag, are just invalidated.
+     * @param fullPath the full path of the blob
+     * @param blob the committed blob reference, or {@code null}
+     * @param length the number of (plaintext) bytes written
+     */
+    private void cacheUpload(Path fullPath, CloudBlob blob, long length) {
+        BlobProperties properties = blob == null ? null : blob.getProperties();
+        if (properties != null && properties.getEtag() != null && properties.getLastModified() != null) {
+            AttrCache.put(getHost().getAlias(), fullPath, new BlobStorageBlobAttributes(blob, length, attrLogger));
+        } else {
+            AttrCache.invalidate(getHost().getAlias(), fullPath);
+        }
     }
 
     private Optional<BasicFileAttributeView> objectAttrs(BlobStorageContainer container, Path path) {
         try {
-            return Optional.of(new BlobStorageBlobAttributes(container.getBlob(path).getProperties(), logger));
+            CloudBlob blob = container.getBlob(path);
+            return Optional.of(new BlobStorageBlobAttributes(blob, BlobEnvelope.plainLength(blob), attrLogger));
         } catch (StorageException | URISyntaxException e) {
             if (container.dir(path).iterator().hasNext()) { // this is like isempty, but without skipping the placeholder
                 // use the container properties as the closest proxy for the
                 // virtual directory properties
-                return Optional.of(new BlobStorageContainerAttributes(container.getProperties(), logger));
+                return Optional.of(new BlobStorageContainerAttributes(container.getProperties(), attrLogger));
             } else {
                 return Optional.empty();
             }
@@ -248,34 +486,39 @@ public class BlobStorageConnectorClient extends ConnectorClient {
             throws ConnectorException, IOException, InvalidKeyException, URISyntaxException, StorageException {
         logger.debug(String.format("ATTR '%s'", source));
         setup();
-        ContainerAndPath cp = account.parse(container, source);
+        try (BlobStorageMetrics.Sample sample = account.sample("ATTR")) {
+            ContainerAndPath cp = account.parse(container, source);
 
-        Optional<BasicFileAttributeView> attr = Optional.empty();
-        try {
-            attr = AttrCache.get(getHost().getAlias(), cp.fullPath, new Callable<Optional<BasicFileAttributeView>>() {
-                @Override
-                public Optional<BasicFileAttributeView> call() {
-                    if (cp.container == null) {
-                        return Optional.of(new BlobStorageEmptyAttributes(logger));
-                    } else if (cp.path.empty()) {
-                        // return an Attr object representing the container
-                        return Optional.of(new BlobStorageContainerAttributes(cp.container.getProperties(), logger));
-                    } else {
-                        logger.debug(String.format("fetching attributes for '%s'", cp.fullPath.toString()));
-                        return objectAttrs(cp.container, cp.path);
+            Optional<BasicFileAttributeView> attr = Optional.empty();
+            boolean[] missed = { false };
+            try {
+                attr = AttrCache.get(getHost().getAlias(), cp.fullPath, new Callable<Optional<BasicFileAttributeView>>() {
+                    @Override
+                    public Optional<BasicFileAttributeView> call() {
+                        missed[0] = true;
+                        if (cp.container == null) {
+                            return Optional.of(new BlobStorageEmptyAttributes(attrLogger));
+                        } else if (cp.path.empty()) {
+                            // return an Attr object representing the container
+                            return Optional.of(new BlobStorageContainerAttributes(cp.container.getProperties(), attrLogger));
+                        } else {
+                            logger.debug(String.format("fetching attributes for '%s'", cp.fullPath.toString()));
+                            return objectAttrs(cp.container, cp.path);
+                        }
                     }
-                }
-            });
-        } catch (Exception e) {
-            throw new ConnectorException(String.format("error getting attributes for '%s'", source), e);
-        }
-        if (attr.isPresent()) {
-            return attr.get();
-        } else {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
+                });
+            } catch (Exception e) {
+                throw new ConnectorException(String.format("error getting attributes for '%s'", source), e);
+            }
+            account.metrics().attrCache(!missed[0]);
+            if (attr.isPresent()) {
+                return sample.success(attr.get());
+            } else {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
         }
-   }
+    }
 
     @Command(name = DELETE)
     public ConnectorCommandResult delete(OtherCommand delete) throws
@@ -283,21 +526,22 @@ public class BlobStorageConnectorClient extends ConnectorClient {
         String source = delete.getSource();
         logger.debug(String.format("DELETE '%s'", source));
         setup();
-        ContainerAndPath cp = account.parse(container, source);
+        try (BlobStorageMetrics.Sample sample = account.sample("DELETE")) {
+            ContainerAndPath cp = account.parse(container, source);
 
-        if (cp.container == null) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
-        }
+            if (cp.container == null) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
 
-        try {
-            CloudBlob blob = cp.container.getBlob(cp.path);
-            blob.delete();
-            AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
-            return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-        } catch (URISyntaxException | StorageException e) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
+            try {
+                cp.container.delete(cp.path);
+                AttrCache.putMissing(getHost().getAlias(), cp.fullPath);
+                return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+            } catch (URISyntaxException | StorageException e) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
         }
     }
 
@@ -307,34 +551,37 @@ public class BlobStorageConnectorClient extends ConnectorClient {
         String source = mkdir.getSource();
         logger.debug(String.format("MKDIR '%s'", source));
         setup();
-        ContainerAndPath cp = account.parse(container, source);
-
-        if (cp.container == null) {
-            throw new ConnectorException("MKDIR: directory name is required");
-        } else if (cp.path.empty()) {
-            if (container == null) {
-                // mkdir "container" attempt
-                try {
-                    cp.container.create();
-                    AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
-                    return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-                } catch (StorageException e) {
-                    throw new ConnectorException("MKDIR cannot create container "+source, e);
+        try (BlobStorageMetrics.Sample sample = account.sample("MKDIR")) {
+            ContainerAndPath cp = account.parse(container, source);
+
+            if (cp.container == null) {
+                throw new ConnectorException("MKDIR: directory name is required");
+            } else if (cp.path.empty()) {
+                if (container == null) {
+                    // mkdir "container" attempt
+                    try {
+                        cp.container.create();
+                        AttrCache.put(getHost().getAlias(), cp.fullPath, new BlobStorageContainerAttributes(cp.container.getProperties(), attrLogger));
+                        return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+                    } catch (StorageException e) {
+                        throw new ConnectorException("MKDIR cannot create container "+source, e);
+                    }
+                } else {
+                    // mkdir "/" attempt within a connection-defined container
+                    return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
                 }
-            } else {
-                // mkdir "/" attempt within a connection-defined container
-                return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
             }
-        }
 
-        // regular mkdir request
-        try {
-            cp.container.mkdir(cp.path);
-            AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
-            return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-        } catch (URISyntaxException | StorageException e) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
+            // regular mkdir request
+            try {
+                cp.container.mkdir(cp.path);
+                // a folder is reported with the container properties, see objectAttrs
+                AttrCache.put(getHost().getAlias(), cp.fullPath, new BlobStorageContainerAttributes(cp.container.getProperties(), attrLogger));
+                return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+            } catch (URISyntaxException | StorageException e) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", source),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
         }
     }
 
@@ -344,40 +591,42 @@ public class BlobStorageConnectorClient extends ConnectorClient {
         String path = mkdir.getSource();
         logger.debug(String.format("RMDIR '%s'", path));
         setup();
-        ContainerAndPath cp = account.parse(container, path);
-
-        if (cp.container == null) {
-            throw new ConnectorException("RMDIR: directory name is required");
-        } else if (cp.path.empty()) {
-            if (container == null) {
-                // rmdir "container" attempt
-                try {
-                    cp.container.delete();
-                    AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
-                    return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-                } catch (StorageException e) {
-                    throw new ConnectorException(String.format("'%s' does not exist or is not accessible", path),
-                            e,
-                            ConnectorException.Category.fileNonExistentOrNoAccess);
+        try (BlobStorageMetrics.Sample sample = account.sample("RMDIR")) {
+            ContainerAndPath cp = account.parse(container, path);
+
+            if (cp.container == null) {
+                throw new ConnectorException("RMDIR: directory name is required");
+            } else if (cp.path.empty()) {
+                if (container == null) {
+                    // rmdir "container" attempt
+                    try {
+                        cp.container.delete();
+                        AttrCache.putMissing(getHost().getAlias(), cp.fullPath);
+                        return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+                    } catch (StorageException e) {
+                        throw new ConnectorException(String.format("'%s' does not exist or is not accessible", path),
+                                e,
+                                ConnectorException.Category.fileNonExistentOrNoAccess);
+                    }
+                } else {
+                    // rmdir "/" attempt within a connection-defined container
+                    throw new ConnectorException("RMDIR: cannot remove /");
                 }
-            } else {
-                // rmdir "/" attempt within a connection-defined container
-                throw new ConnectorException("RMDIR: cannot remove /");
             }
-        }
 
-        // regular rmdir request
-        try {
-            cp.container.rmdir(cp.path);
-            AttrCache.invalidate(getHost().getAlias(), cp.fullPath);
-            return new ConnectorCommandResult(ConnectorCommandResult.Status.Success);
-        } catch (IOException e) {
-            // TODO: not sure what error to return in this situation (non-empty dir)
-            throw new ConnectorException(String.format("'%s' is not empty", path),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
-        } catch (URISyntaxException | StorageException e) {
-            throw new ConnectorException(String.format("'%s' does not exist or is not accessible", path),
-                    ConnectorException.Category.fileNonExistentOrNoAccess);
+            // regular rmdir request
+            try {
+                cp.container.rmdir(cp.path);
+                AttrCache.putMissing(getHost().getAlias(), cp.fullPath);
+                return sample.success(new ConnectorCommandResult(ConnectorCommandResult.Status.Success));
+            } catch (IOException e) {
+                // TODO: not sure what error to return in this situation (non-empty dir)
+                throw new ConnectorException(String.format("'%s' is not empty", path),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            } catch (URISyntaxException | StorageException e) {
+                throw new ConnectorException(String.format("'%s' does not exist or is not accessible", path),
+                        ConnectorException.Category.fileNonExistentOrNoAccess);
+            }
         }
     }
 }
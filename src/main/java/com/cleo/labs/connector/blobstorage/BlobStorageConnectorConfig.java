@@ -1,12 +1,21 @@
 package com.cleo.labs.connector.blobstorage;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
+import com.cleo.connector.api.helper.Logger;
 import com.cleo.connector.api.property.ConnectorPropertyException;
 import com.google.common.base.Strings;
 import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RetryExponentialRetry;
+import com.microsoft.azure.storage.RetryLinearRetry;
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.RetryPolicyFactory;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
 
 /**
  * A configuration wrapper around a {@link BlobStorageConnectorClient}
@@ -17,8 +26,39 @@ import com.microsoft.azure.storage.OperationContext;
  *   <tr><td>Storage Account Name</td><td>String</td><td>String</td></tr>
  *   <tr><td>Access Key</td><td>String</td><td>String</td></tr>
  *   <tr><td>Endpoint Suffix</td><td>String (core.windows.net by default)</td><td>String</td>
+ *   <tr><td>Blob Endpoint</td><td>String (empty for the Endpoint Suffix)</td><td>String</td>
  *   <tr><td>Connection String</td><td>computed</td><td>String</td></tr>
  *   <tr><td>Container</td><td>String</td><td>String</td></tr>
+ *   <tr><td>Encryption Key</td><td>String (base64)</td><td>String</td></tr>
+ *   <tr><td>Encryption Chunk Size</td><td>Integer (KB)</td><td>int (bytes)</td></tr>
+ *   <tr><td>Parallelism</td><td>Integer</td><td>int</td></tr>
+ *   <tr><td>Retry Policy</td><td>String, Retry Attempts and Retry Backoff</td><td>RetryPolicyFactory</td></tr>
+ *   <tr><td>Request Timeout</td><td>Integer (ms, 0 for default)</td><td>Integer (or null)</td></tr>
+ *   <tr><td>Maximum Execution Time</td><td>Integer (ms, 0 for no limit)</td><td>Integer (or null)</td></tr>
+ *   <tr><td>Max Concurrent Requests</td><td>Integer (0 for no limit)</td><td>int</td></tr>
+ *   <tr><td>Bandwidth Limit</td><td>Integer (KB/s, 0 for no limit)</td><td>long (bytes/s)</td></tr>
+ *   <tr><td>Global Bandwidth Limit</td><td>Integer (KB/s, 0 if not set)</td><td>long (bytes/s)</td></tr>
+ *   <tr><td>Hedge Reads</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>Hedge Delay</td><td>Integer (ms, 0 for adaptive)</td><td>long</td></tr>
+ *   <tr><td>Hedge Max Percent</td><td>Integer</td><td>int</td></tr>
+ *   <tr><td>Skip Unchanged</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>ETag Store</td><td>String (empty for a file per host)</td><td>String</td></tr>
+ *   <tr><td>Skip Identical</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>Content Cache</td><td>String (empty for no cache)</td><td>String</td></tr>
+ *   <tr><td>Content Cache Size</td><td>Integer (MB)</td><td>long (bytes)</td></tr>
+ *   <tr><td>Async Threads</td><td>Integer</td><td>int</td></tr>
+ *   <tr><td>Write Behind</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>Spool Directory</td><td>String (empty for a directory per host)</td><td>String</td></tr>
+ *   <tr><td>List Threads</td><td>Integer</td><td>int</td></tr>
+ *   <tr><td>List Alphabet</td><td>String (empty to seed from directories)</td><td>String</td></tr>
+ *   <tr><td>Incremental Dir</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>Watermark Store</td><td>String (empty for a file per host)</td><td>String</td></tr>
+ *   <tr><td>Trace Requests</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>Enable Debug</td><td>Boolean</td><td>boolean</td></tr>
+ *   <tr><td>Request Options</td><td>computed</td><td>BlobRequestOptions</td></tr>
+ *   <tr><td>Host Alias</td><td>computed</td><td>String</td></tr>
+ *   <tr><td>Context Template</td><td>computed</td><td>ContextTemplate</td></tr>
+ *   <tr><td>Snapshot</td><td>computed from all of the above</td><td>ConfigSnapshot</td></tr>
  * </table>
  */
 public class BlobStorageConnectorConfig {
@@ -70,12 +110,28 @@ public class BlobStorageConnectorConfig {
      * @throws ConnectorPropertyException
      */
     public String getConnectionString() throws ConnectorPropertyException {
+        String endpoint = getBlobEndpoint();
+        if (!Strings.isNullOrEmpty(endpoint)) {
+            return "DefaultEndpointsProtocol="+(endpoint.startsWith("http:") ? "http" : "https")+";"+
+                    "AccountName="+getStorageAccountName()+";"+
+                    "AccountKey="+getAccessKey()+";"+
+                    "BlobEndpoint="+endpoint+";";
+        }
         return "DefaultEndpointsProtocol=https;"+
                 "AccountName="+getStorageAccountName()+";"+
                 "AccountKey="+getAccessKey()+";"+
                 "EndpointSuffix="+getEndpointSuffix()+";";
     }
 
+    /**
+     * Gets the Blob Endpoint property.
+     * @return the Blob Endpoint, or an empty string to use the Endpoint Suffix
+     * @throws ConnectorPropertyException
+     */
+    public String getBlobEndpoint() throws ConnectorPropertyException {
+        return Strings.nullToEmpty(schema.blobEndpoint.getValue(client)).trim();
+    }
+
     /**
      * Gets the Container name.
      * @return the Container name
@@ -85,6 +141,273 @@ public class BlobStorageConnectorConfig {
         return schema.container.getValue(client);
     }
 
+    /**
+     * Gets the Encryption Key property.
+     * @return the (base64 encoded) Encryption Key, or empty if encryption is not enabled
+     * @throws ConnectorPropertyException
+     */
+    public String getEncryptionKey() throws ConnectorPropertyException {
+        return schema.encryptionKey.getValue(client);
+    }
+
+    /**
+     * Gets the Encryption Chunk Size property, converted from KB to bytes.
+     * @return the Encryption Chunk Size in bytes
+     * @throws ConnectorPropertyException
+     */
+    public int getEncryptionChunkSize() throws ConnectorPropertyException {
+        return schema.encryptionChunkSize.getValue(client) * 1024;
+    }
+
+    /**
+     * Gets the Parallelism property.
+     * @return the number of blocks or ranges to transfer concurrently
+     * @throws ConnectorPropertyException
+     */
+    public int getParallelism() throws ConnectorPropertyException {
+        return schema.parallelism.getValue(client);
+    }
+
+    /**
+     * Gets the Retry Policy, built from the Retry Policy, Retry Attempts
+     * and Retry Backoff properties.  An unrecognized policy name is treated
+     * as Exponential.
+     * @return the RetryPolicyFactory
+     * @throws ConnectorPropertyException
+     */
+    public RetryPolicyFactory getRetryPolicyFactory() throws ConnectorPropertyException {
+        String policy = Strings.nullToEmpty(schema.retryPolicy.getValue(client)).trim();
+        int attempts = schema.retryAttempts.getValue(client);
+        int backoff = schema.retryBackoff.getValue(client);
+        if (policy.equalsIgnoreCase("None") || attempts == 0) {
+            return new RetryNoRetry();
+        } else if (policy.equalsIgnoreCase("Linear")) {
+            return new RetryLinearRetry(backoff, attempts);
+        } else {
+            return new RetryExponentialRetry(backoff, attempts);
+        }
+    }
+
+    /**
+     * Gets the Request Timeout property.
+     * @return the per-attempt timeout in milliseconds, or {@code null} for the Azure default
+     * @throws ConnectorPropertyException
+     */
+    public Integer getRequestTimeout() throws ConnectorPropertyException {
+        int timeout = schema.requestTimeout.getValue(client);
+        return timeout > 0 ? timeout : null;
+    }
+
+    /**
+     * Gets the Maximum Execution Time property.
+     * @return the maximum time across all attempts in milliseconds, or {@code null} for no limit
+     * @throws ConnectorPropertyException
+     */
+    public Integer getMaximumExecutionTime() throws ConnectorPropertyException {
+        int time = schema.maximumExecutionTime.getValue(client);
+        return time > 0 ? time : null;
+    }
+
+    /**
+     * Gets the Max Concurrent Requests property.
+     * @return the maximum number of concurrent requests to the account, or 0 for no limit
+     * @throws ConnectorPropertyException
+     */
+    public int getMaxConcurrentRequests() throws ConnectorPropertyException {
+        return schema.maxConcurrentRequests.getValue(client);
+    }
+
+    /**
+     * Gets the Bandwidth Limit property.
+     * @return the transfer rate limit for the host in bytes/s, or 0 for no limit
+     * @throws ConnectorPropertyException
+     */
+    public long getBandwidthLimit() throws ConnectorPropertyException {
+        return schema.bandwidthLimit.getValue(client) * 1024L;
+    }
+
+    /**
+     * Gets the Global Bandwidth Limit property.
+     * @return the transfer rate limit for all hosts in bytes/s, or 0 if not set
+     * @throws ConnectorPropertyException
+     */
+    public long getGlobalBandwidthLimit() throws ConnectorPropertyException {
+        return schema.globalBandwidthLimit.getValue(client) * 1024L;
+    }
+
+    /**
+     * Gets the Skip Unchanged property.
+     * @return {@code true} to skip a GET of a blob whose ETag has not changed
+     * @throws ConnectorPropertyException
+     */
+    public boolean getSkipUnchanged() throws ConnectorPropertyException {
+        return schema.skipUnchanged.getValue(client);
+    }
+
+    /**
+     * Gets the ETag Store property, defaulting to a file per host alias
+     * under {@code blobstorage}.
+     * @return the ETag store file name
+     * @throws ConnectorPropertyException
+     */
+    public String getETagStore() throws ConnectorPropertyException {
+        String file = schema.etagStore.getValue(client);
+        if (Strings.isNullOrEmpty(file)) {
+            file = "blobstorage"+File.separator+"etags-"+getHostAlias().replaceAll("[^\\w.-]", "_")+".properties";
+        }
+        return file;
+    }
+
+    /**
+     * Gets the Skip Identical property.
+     * @return {@code true} to skip a PUT of a file identical to the existing blob
+     * @throws ConnectorPropertyException
+     */
+    public boolean getSkipIdentical() throws ConnectorPropertyException {
+        return schema.skipIdentical.getValue(client);
+    }
+
+    /**
+     * Gets the Content Cache property.
+     * @return the content cache directory, or empty for no cache
+     * @throws ConnectorPropertyException
+     */
+    public String getContentCache() throws ConnectorPropertyException {
+        return schema.contentCache.getValue(client);
+    }
+
+    /**
+     * Gets the Content Cache Size property.
+     * @return the content cache limit in bytes
+     * @throws ConnectorPropertyException
+     */
+    public long getContentCacheSize() throws ConnectorPropertyException {
+        return schema.contentCacheSize.getValue(client) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets the Async Threads property.
+     * @return the size of the asynchronous pool of the host
+     * @throws ConnectorPropertyException
+     */
+    public int getAsyncThreads() throws ConnectorPropertyException {
+        return schema.asyncThreads.getValue(client);
+    }
+
+    /**
+     * Gets the Write Behind property.
+     * @return {@code true} to spool PUTs and upload them in the background
+     * @throws ConnectorPropertyException
+     */
+    public boolean getWriteBehind() throws ConnectorPropertyException {
+        return schema.writeBehind.getValue(client);
+    }
+
+    /**
+     * Gets the Spool Directory property, defaulting to a directory per host
+     * alias under {@code blobstorage}.
+     * @return the spool directory
+     * @throws ConnectorPropertyException
+     */
+    public String getSpoolDirectory() throws ConnectorPropertyException {
+        String directory = schema.spoolDirectory.getValue(client);
+        if (Strings.isNullOrEmpty(directory)) {
+            directory = "blobstorage"+File.separator+"spool-"+getHostAlias().replaceAll("[^\\w.-]", "_");
+        }
+        return directory;
+    }
+
+    /**
+     * Gets the Incremental Dir property.
+     * @return {@code true} to list only the blobs new or changed since they were last retrieved
+     * @throws ConnectorPropertyException
+     */
+    public boolean getIncrementalDir() throws ConnectorPropertyException {
+        return schema.incrementalDir.getValue(client);
+    }
+
+    /**
+     * Gets the Watermark Store property, defaulting to a file per host alias
+     * under {@code blobstorage}.
+     * @return the watermark store file name
+     * @throws ConnectorPropertyException
+     */
+    public String getWatermarkStore() throws ConnectorPropertyException {
+        String file = schema.watermarkStore.getValue(client);
+        if (Strings.isNullOrEmpty(file)) {
+            file = "blobstorage"+File.separator+"watermarks-"+getHostAlias().replaceAll("[^\\w.-]", "_")+".properties";
+        }
+        return file;
+    }
+
+    /**
+     * Gets the Trace Requests property.
+     * @return {@code true} to log a debug line for every Azure request
+     * @throws ConnectorPropertyException
+     */
+    public boolean getTraceRequests() throws ConnectorPropertyException {
+        return schema.traceRequests.getValue(client);
+    }
+
+    /**
+     * Gets the Enable Debug property.
+     * @return {@code true} if debug logging is enabled
+     * @throws ConnectorPropertyException
+     */
+    public boolean getEnableDebug() throws ConnectorPropertyException {
+        return schema.enableDebug.getValue(client);
+    }
+
+    /**
+     * Gets the Hedge Reads property.
+     * @return {@code true} if slow reads should be hedged
+     * @throws ConnectorPropertyException
+     */
+    public boolean getHedgeReads() throws ConnectorPropertyException {
+        return schema.hedgeReads.getValue(client);
+    }
+
+    /**
+     * Gets the Hedge Delay property.
+     * @return the hedging delay in milliseconds, or 0 for adaptive
+     * @throws ConnectorPropertyException
+     */
+    public long getHedgeDelay() throws ConnectorPropertyException {
+        return schema.hedgeDelay.getValue(client);
+    }
+
+    /**
+     * Gets the Hedge Max Percent property.
+     * @return the maximum percentage of reads that may be hedged
+     * @throws ConnectorPropertyException
+     */
+    public int getHedgeMaxPercent() throws ConnectorPropertyException {
+        return schema.hedgeMaxPercent.getValue(client);
+    }
+
+    /**
+     * Gets the default request options computed from the retry, timeout and
+     * parallelism properties.
+     * @return a new BlobRequestOptions
+     * @throws ConnectorPropertyException
+     */
+    public BlobRequestOptions getRequestOptions() throws ConnectorPropertyException {
+        BlobRequestOptions options = new BlobRequestOptions();
+        options.setRetryPolicyFactory(getRetryPolicyFactory());
+        options.setTimeoutIntervalInMs(getRequestTimeout());
+        options.setMaximumExecutionTimeInMs(getMaximumExecutionTime());
+        options.setConcurrentRequestCount(getParallelism());
+        return options;
+    }
+
+    /**
+     * Gets the alias of the host this client belongs to.
+     * @return the host alias
+     */
+    public String getHostAlias() {
+        return Strings.nullToEmpty(client.getHost().getAlias());
+    }
+
     public Proxy getProxy() throws ConnectorPropertyException {
         String address = schema.proxyAddress.getValue(client);
         if (Strings.isNullOrEmpty(address)) {
@@ -99,10 +422,109 @@ public class BlobStorageConnectorConfig {
         return HeadersTableProperty.toHeaders(schema.headersTable.getValue(client));
     }
 
+    /**
+     * Returns the throttle shared by the connections to the storage account,
+     * registering the Max Concurrent Requests of this host.
+     * @return the throttle
+     * @throws ConnectorPropertyException
+     */
+    public ThrottleController getThrottle() throws ConnectorPropertyException {
+        return ThrottleController.of(getStorageAccountName(), getHostAlias(), getMaxConcurrentRequests());
+    }
+
+    /**
+     * Returns the template for per-operation contexts: the proxy, the user
+     * headers, the account throttle and request tracing.  The throttle is
+     * attached first, so that a request waiting for a slot is not traced as
+     * sent until it gets one.
+     * @return the template
+     * @throws ConnectorPropertyException
+     */
+    public ContextTemplate getContextTemplate() throws ConnectorPropertyException {
+        return getContextTemplate(getThrottle());
+    }
+
+    /**
+     * Returns the template for per-operation contexts attaching {@code throttle}.
+     * @param throttle the account throttle
+     * @return the template
+     * @throws ConnectorPropertyException
+     */
+    public ContextTemplate getContextTemplate(ThrottleController throttle) throws ConnectorPropertyException {
+        RequestTracer tracer = RequestTracer.of(getHostAlias());
+        Logger logger = getTraceRequests() ? client.logger() : null;
+        return new ContextTemplate(getProxy(), getHeaders())
+                .with(throttle::attach)
+                .with(context -> tracer.attach(context, logger));
+    }
+
     public OperationContext getOperationContext() throws ConnectorPropertyException {
-        OperationContext context = new OperationContext();
-        context.setProxy(getProxy());
-        context.setUserHeaders(getHeaders());
-        return context;
+        return getContextTemplate().create();
+    }
+
+    /**
+     * The most recent snapshot.
+     */
+    private volatile ConfigSnapshot snapshot = null;
+
+    /**
+     * Returns the computed configuration, reusing the previous snapshot unless
+     * a property has changed since it was taken.  The staleness check only
+     * reads the raw property values.
+     * @return the (possibly cached) snapshot
+     * @throws ConnectorPropertyException
+     */
+    public ConfigSnapshot snapshot() throws ConnectorPropertyException {
+        List<Object> values = values();
+        ConfigSnapshot current = snapshot;
+        if (current == null || !current.matches(values)) {
+            current = new ConfigSnapshot(this, values);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the raw values of the properties the snapshot is computed from.
+     * @return the values
+     * @throws ConnectorPropertyException
+     */
+    private List<Object> values() throws ConnectorPropertyException {
+        return Arrays.asList(
+                schema.storageAccountName.getValue(client),
+                schema.accessKey.getValue(client),
+                schema.endpointSuffix.getValue(client),
+                schema.blobEndpoint.getValue(client),
+                schema.container.getValue(client),
+                schema.proxyAddress.getValue(client),
+                schema.proxyPort.getValue(client),
+                schema.headersTable.getValue(client),
+                schema.encryptionKey.getValue(client),
+                schema.encryptionChunkSize.getValue(client),
+                schema.parallelism.getValue(client),
+                schema.retryPolicy.getValue(client),
+                schema.retryAttempts.getValue(client),
+                schema.retryBackoff.getValue(client),
+                schema.requestTimeout.getValue(client),
+                schema.maximumExecutionTime.getValue(client),
+                schema.maxConcurrentRequests.getValue(client),
+                schema.bandwidthLimit.getValue(client),
+                schema.globalBandwidthLimit.getValue(client),
+                schema.traceRequests.getValue(client),
+                schema.enableDebug.getValue(client),
+                schema.hedgeReads.getValue(client),
+                schema.hedgeDelay.getValue(client),
+                schema.hedgeMaxPercent.getValue(client),
+                schema.skipUnchanged.getValue(client),
+                schema.etagStore.getValue(client),
+                schema.skipIdentical.getValue(client),
+                schema.contentCache.getValue(client),
+                schema.contentCacheSize.getValue(client),
+                schema.asyncThreads.getValue(client),
+                schema.writeBehind.getValue(client),
+                schema.spoolDirectory.getValue(client),
+                schema.incrementalDir.getValue(client),
+                schema.watermarkStore.getValue(client),
+                getHostAlias());
     }
 }
@@ -45,6 +45,14 @@ public class BlobStorageConnectorSchema extends ConnectorConfig {
             .setRequired(true)
             .build();
 
+    @Property
+    final IConnectorProperty<String> blobEndpoint = new PropertyBuilder<>("BlobEndpoint", "")
+            .setDescription("The Blob service endpoint, overriding the Endpoint Suffix"+
+                    " (e.g. http://127.0.0.1:10000/account for a local emulator).")
+            .setGroup(Connect)
+            .setRequired(false)
+            .build();
+
     @Property
     final IConnectorProperty<String> container = new PropertyBuilder<>("Container", "")
             .setDescription("The Azure Storage Container name.")
@@ -75,6 +83,173 @@ public class BlobStorageConnectorSchema extends ConnectorConfig {
             .setExtendedClass(HeadersTableProperty.class)
             .build();
 
+    @Property
+    final IConnectorProperty<String> encryptionKey = new PropertyBuilder<>("EncryptionKey", "")
+            .setDescription("An optional base64 encoded AES key (128, 192 or 256 bits) used to encrypt blobs before upload.")
+            .setGroup(ConnectSecurity)
+            .setRequired(false)
+            .addAttribute(Attribute.Password)
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> encryptionChunkSize = new PropertyBuilder<>("EncryptionChunkSize", 4096)
+            .setDescription("The size in KB of each independently encrypted chunk (and block) of a new encrypted blob.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(64, 102400))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> parallelism = new PropertyBuilder<>("Parallelism", 4)
+            .setDescription("The number of blocks or ranges transferred concurrently.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(1, 64))
+            .build();
+
+    @Property
+    final IConnectorProperty<String> retryPolicy = new PropertyBuilder<>("RetryPolicy", "Exponential")
+            .setDescription("The policy for retrying individual Azure requests: Exponential, Linear or None.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> retryAttempts = new PropertyBuilder<>("RetryAttempts", 3)
+            .setDescription("The maximum number of times an individual Azure request is retried.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, 100))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> retryBackoff = new PropertyBuilder<>("RetryBackoff", 3000)
+            .setDescription("The delay in milliseconds between retries of an Azure request (the base delay for Exponential).")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, 600000))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> requestTimeout = new PropertyBuilder<>("RequestTimeout", 0)
+            .setDescription("The timeout in milliseconds for each attempt of an Azure request (0 for the Azure default).")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, Integer.MAX_VALUE))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> maximumExecutionTime = new PropertyBuilder<>("MaximumExecutionTime", 0)
+            .setDescription("The maximum time in milliseconds for an Azure request including all retries (0 for no limit).")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, Integer.MAX_VALUE))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> maxConcurrentRequests = new PropertyBuilder<>("MaxConcurrentRequests", 64)
+            .setDescription("The maximum number of concurrent requests to the storage account, reduced adaptively"+
+                    " when Azure reports throttling (0 for no limit).")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, 10000))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> bandwidthLimit = new PropertyBuilder<>("BandwidthLimit", 0)
+            .setDescription("The maximum transfer rate for all connections of this host in KB/s (0 for no limit).")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, Integer.MAX_VALUE))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> globalBandwidthLimit = new PropertyBuilder<>("GlobalBandwidthLimit", 0)
+            .setDescription("The maximum transfer rate for all Azure Blob hosts combined in KB/s (0 for not set)."+
+                    " The value from the most recently connected host that sets it applies.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, Integer.MAX_VALUE))
+            .build();
+
+    @Property
+    final IConnectorProperty<Boolean> traceRequests = new PropertyBuilder<>("TraceRequests", false)
+            .setDescription("Log a debug line with the request ID, status, bytes and timings of every Azure request.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<Boolean> hedgeReads = new PropertyBuilder<>("HedgeReads", false)
+            .setDescription("Issue a duplicate of a slow read (GET range, ATTR or DIR page) and use the first response.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> hedgeDelay = new PropertyBuilder<>("HedgeDelay", 0)
+            .setDescription("The delay in milliseconds before a read is hedged (0 to adapt to the observed 95th percentile).")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, 600000))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> hedgeMaxPercent = new PropertyBuilder<>("HedgeMaxPercent", 5)
+            .setDescription("The maximum percentage of reads that may be hedged.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(0, 100))
+            .build();
+
+    @Property
+    final IConnectorProperty<Boolean> skipUnchanged = new PropertyBuilder<>("SkipUnchanged", false)
+            .setDescription("Remember the ETag of each blob retrieved by GET and skip the transfer when the blob has not changed.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<String> etagStore = new PropertyBuilder<>("ETagStore", "")
+            .setDescription("The file in which SkipUnchanged keeps the ETags (blobstorage/etags-<alias>.properties by default).")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<Boolean> skipIdentical = new PropertyBuilder<>("SkipIdentical", false)
+            .setDescription("Skip a PUT of a file whose MD5 matches the Content-MD5 of the existing blob.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<String> contentCache = new PropertyBuilder<>("ContentCache", "")
+            .setDescription("A directory in which to cache the content of retrieved blobs by ETag (empty for no cache).")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> contentCacheSize = new PropertyBuilder<>("ContentCacheSize", 1024)
+            .setDescription("The limit on the total size of the ContentCache in MB.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(1, Integer.MAX_VALUE))
+            .build();
+
+    @Property
+    final IConnectorProperty<Integer> asyncThreads = new PropertyBuilder<>("AsyncThreads", 8)
+            .setDescription("The number of threads of the pool shared by the asynchronous operations of a host.")
+            .setRequired(false)
+            .setPossibleRanges(new PropertyRange<>(1, 1024))
+            .build();
+
+    @Property
+    final IConnectorProperty<Boolean> writeBehind = new PropertyBuilder<>("WriteBehind", false)
+            .setDescription("Complete a PUT once the content is spooled to local disk, uploading it in the background.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<String> spoolDirectory = new PropertyBuilder<>("SpoolDirectory", "")
+            .setDescription("The WriteBehind spool directory (blobstorage/spool-<alias> by default).")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<Boolean> incrementalDir = new PropertyBuilder<>("IncrementalDir", false)
+            .setDescription("Keep a last-modified watermark for each folder and list only the blobs new or changed since they were last retrieved.")
+            .setRequired(false)
+            .build();
+
+    @Property
+    final IConnectorProperty<String> watermarkStore = new PropertyBuilder<>("WatermarkStore", "")
+            .setDescription("The file in which IncrementalDir keeps the watermarks (blobstorage/watermarks-<alias>.properties by default).")
+            .setRequired(false)
+            .build();
+
     @Property
     final IConnectorProperty<Integer> commandRetries = CommonProperties.of(CommonProperty.CommandRetries);
 
@@ -1,13 +1,19 @@
 package com.cleo.labs.connector.blobstorage;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
 import java.util.EnumSet;
 
 import org.apache.commons.io.FilenameUtils;
 
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.AccessCondition;
 import com.microsoft.azure.storage.StorageErrorCodeStrings;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.BlobContainerProperties;
@@ -19,10 +25,16 @@ import com.microsoft.azure.storage.blob.BlobType;
 import com.microsoft.azure.storage.blob.CloudBlob;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.CopyStatus;
 import com.microsoft.azure.storage.blob.DeleteSnapshotsOption;
 import com.microsoft.azure.storage.blob.ListBlobItem;
 
 public class BlobStorageContainer {
+    /**
+     * The interval in milliseconds between checks of a pending copy.
+     */
+    private static final long COPY_POLL = 500;
+
     private BlobStorageAccount account;
     private CloudBlobContainer container;
     private String name;
@@ -34,6 +46,45 @@ public class BlobStorageContainer {
         this.name = name;
     }
 
+    /**
+     * An output stream to a blob that remembers the path actually written
+     * (which differs from the requested path for a unique upload) and the
+     * blob reference, whose properties carry the committed ETag and last
+     * modified time once the stream is closed.
+     */
+    public static class Upload extends FilterOutputStream {
+        private final Path path;
+        private final CloudBlob blob;
+
+        private Upload(OutputStream out, Path path, CloudBlob blob) {
+            super(out);
+            this.path = path;
+            this.blob = blob;
+        }
+
+        /**
+         * Returns the path of the blob being written.
+         * @return the path
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the blob reference, or {@code null} for an append, whose
+         * committed length is not known locally.
+         * @return the blob reference, or {@code null}
+         */
+        public CloudBlob getBlob() {
+            return blob;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+
     /**
      * Gets the container name
      * @return the container name
@@ -60,8 +111,9 @@ public class BlobStorageContainer {
      * @throws StorageException
      */
     public CloudBlob getBlob(Path path) throws URISyntaxException, StorageException {
-        return container.getBlobReferenceFromServer(path.toString(), null /* snapshotID */, null /* accessCondition */,
-                null /* options */, account.context());
+        String name = path.toString();
+        return account.hedger().call("head", () -> container.getBlobReferenceFromServer(name,
+                null /* snapshotID */, null /* accessCondition */, account.options(), account.context()));
     }
 
     /**
@@ -71,9 +123,161 @@ public class BlobStorageContainer {
      * @return
      * @throws URISyntaxException
      * @throws StorageException
+     * @throws IOException
+     */
+    public InputStream getInputStream(Path path) throws URISyntaxException, StorageException, IOException {
+        return getInputStream(path, 0L, -1L);
+    }
+
+    /**
+     * Opens a range of a blob for reading.  For an encrypted blob the offset
+     * and length refer to the plaintext, and only the chunks covering the
+     * range are fetched and decrypted.
+     *
+     * @param path
+     * @param offset the offset to start reading from
+     * @param length the number of bytes to read, or negative to read to the end
+     * @return
+     * @throws URISyntaxException
+     * @throws StorageException
+     * @throws IOException
+     */
+    public InputStream getInputStream(Path path, long offset, long length) throws URISyntaxException, StorageException, IOException {
+        return getInputStream(getBlob(path), offset, length);
+    }
+
+    /**
+     * Returns a reference to a blob unless its ETag still matches {@code etag},
+     * using a HEAD with an {@code If-None-Match} condition.
+     *
+     * @param path
+     * @param etag the last seen ETag, or {@code null} to always return the blob
+     * @return the blob, or {@code null} if it has not changed
+     * @throws URISyntaxException
+     * @throws StorageException
+     */
+    public CloudBlob getBlobIfChanged(Path path, String etag) throws URISyntaxException, StorageException {
+        if (etag == null) {
+            return getBlob(path);
+        }
+        String name = path.toString();
+        try {
+            return account.hedger().call("head", () -> container.getBlobReferenceFromServer(name,
+                    null /* snapshotID */, AccessCondition.generateIfNoneMatchCondition(etag),
+                    account.options(), account.context()));
+        } catch (StorageException e) {
+            if (e.getHttpStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a range of a blob whose attributes have already been fetched.
+     *
+     * @param blob the blob
+     * @param offset the offset to start reading from
+     * @param length the number of bytes to read, or negative to read to the end
+     * @return
+     * @throws IOException
+     */
+    public InputStream getInputStream(CloudBlob blob, long offset, long length) throws IOException {
+        if (BlobEnvelope.isEnveloped(blob)) {
+            if (account.envelope() == null) {
+                throw new IOException("blob is encrypted but no encryption key is configured");
+            }
+            try {
+                return new EnvelopeInputStream(account, blob, account.envelope().open(blob), offset, length,
+                        account.getParallelism());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("unable to recover the blob data key", e);
+            }
+        }
+        if (account.contentCache() != null) {
+            // never cache decrypted content, so this follows the envelope check
+            return account.contentCache().open(blob.getUri().toString(), blob.getProperties().getEtag(),
+                    blob.getProperties().getLength(), offset, length,
+                    () -> openInputStream(blob, 0L, -1L));
+        }
+        return openInputStream(blob, offset, length);
+    }
+
+    /**
+     * Opens a range of a plain blob: with hedging, as ETag-conditional ranged
+     * GETs that can each be hedged, and otherwise with the SDK stream, which
+     * also validates the Content-MD5 of a blob read in full.
+     */
+    private InputStream openInputStream(CloudBlob blob, long offset, long length) throws IOException {
+        if (account.hedger().isEnabled()) {
+            return new BlobRangeInputStream(account, blob, offset, length, account.getParallelism());
+        }
+        InputStream in;
+        try {
+            in = blob.openInputStream(AccessCondition.generateIfMatchCondition(blob.getProperties().getEtag()),
+                    account.options(), account.context());
+        } catch (StorageException e) {
+            throw new IOException(e);
+        }
+        ByteStreams.skipFully(in, offset);
+        if (length >= 0) {
+            in = ByteStreams.limit(in, length);
+        }
+        return account.bandwidth().throttle(in);
+    }
+
+    /**
+     * Opens a blob for reading using cached attributes instead of a HEAD:
+     * the reference is built locally and the first range is fetched on the
+     * condition that the ETag still matches.  Returns {@code null} if the
+     * attributes can't be used (an encrypted or empty blob) or are stale
+     * (the blob was replaced or deleted), in which case the caller should
+     * fall back to {@link #getInputStream(Path)}.
+     * <p/>
+     * The blob is always read with conditional ranged GETs, even when
+     * hedging is off: the SDK stream would fetch the attributes itself,
+     * which is the HEAD this saves.  So the Content-MD5 of the blob is not
+     * validated on this path, as it is by the SDK stream.
+     *
+     * @param path
+     * @param cached the cached blob attributes
+     * @return the stream, or {@code null}
+     * @throws URISyntaxException
+     * @throws StorageException
+     * @throws IOException
      */
-    public InputStream getInputStream(Path path) throws URISyntaxException, StorageException {
-        return getBlob(path).openInputStream();
+    public InputStream getInputStream(Path path, BlobStorageBlobAttributes cached) throws URISyntaxException, StorageException, IOException {
+        if (cached.isEnveloped() || cached.size() == 0 || cached.getEtag() == null || cached.getBlobType() == null) {
+            return null;
+        }
+        CloudBlob blob;
+        switch (cached.getBlobType()) {
+        case BLOCK_BLOB:
+            blob = container.getBlockBlobReference(path.toString());
+            break;
+        case APPEND_BLOB:
+            blob = container.getAppendBlobReference(path.toString());
+            break;
+        case PAGE_BLOB:
+            blob = container.getPageBlobReference(path.toString());
+            break;
+        default:
+            return null;
+        }
+        BlobRangeInputStream in = new BlobRangeInputStream(account, blob, cached.getEtag(), cached.size(),
+                0L, -1L, account.getParallelism());
+        try {
+            in.prefetch();
+        } catch (IOException e) {
+            if (e.getCause() instanceof StorageException) {
+                int status = ((StorageException) e.getCause()).getHttpStatusCode();
+                if (status == HttpURLConnection.HTTP_PRECON_FAILED || status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return null;
+                }
+            }
+            throw e;
+        }
+        return in;
     }
 
     /**
@@ -81,16 +285,19 @@ public class BlobStorageContainer {
      * 
      * @param path
      * @param unique
-     * @return
+     * @return an {@link Upload} stream
      * @throws URISyntaxException
      * @throws StorageException
      */
-    public OutputStream getOutputStream(Path path, boolean append, boolean unique) throws URISyntaxException, StorageException, IOException {
+    public Upload getOutputStream(Path path, boolean append, boolean unique) throws URISyntaxException, StorageException, IOException {
+        if (append && account.envelope() != null) {
+            throw new IOException("append is not supported for encrypted blobs");
+        }
         // first assess the existence and type of the blob
         // throws IOException if the type is not BLOCK for overwrite (!append) or APPEND for append
         CloudBlob test = null;
         try {
-            test = container.getBlobReferenceFromServer(path.toString(), null, null, null, account.context());
+            test = container.getBlobReferenceFromServer(path.toString(), null, null, account.options(), account.context());
             BlobType type = test.getProperties().getBlobType();
             if (append && type != BlobType.APPEND_BLOB) {
                 throw new IOException("unsupported Blob type for operation: "+BlobType.APPEND_BLOB+" required.");
@@ -115,7 +322,7 @@ public class BlobStorageContainer {
                 counter++;
                 candidate = base+"."+counter+ext;
                 try {
-                    test = container.getBlobReferenceFromServer(candidate, null /* snapshotID */, null /* accessCondition */, null /* options */, account.context());
+                    test = container.getBlobReferenceFromServer(candidate, null /* snapshotID */, null /* accessCondition */, account.options(), account.context());
                 } catch (StorageException e) {
                     if (!e.getErrorCode().equals(StorageErrorCodeStrings.BLOB_NOT_FOUND)) {
                         throw e;
@@ -128,18 +335,75 @@ public class BlobStorageContainer {
         // test and path are now updated for uniqueness
         // test will be non-null if !unique
         if (append) {
-            BlobRequestOptions options = new BlobRequestOptions();
+            BlobRequestOptions options = account.options();
             options.setAbsorbConditionalErrorsOnRetry(true); // advised for single writer scenarios
             if (test == null) {
-                return container.getAppendBlobReference(path.toString()).openWriteNew(null /* accessCondition */, options, account.context());
+                return new Upload(account.bandwidth().throttle(container.getAppendBlobReference(path.toString()).openWriteNew(null /* accessCondition */, options, account.context())), path, null);
             } else {
-                return container.getAppendBlobReference(path.toString()).openWriteExisting(null /* accessCondition */, options, account.context());
+                return new Upload(account.bandwidth().throttle(container.getAppendBlobReference(path.toString()).openWriteExisting(null /* accessCondition */, options, account.context())), path, null);
             }
+        }
+        CloudBlockBlob blob = container.getBlockBlobReference(path.toString());
+        if (account.envelope() != null) {
+            // blocks are throttled as they are uploaded by the workers
+            return new Upload(EnvelopeOutputStream.of(account, blob, account.getParallelism()), path, blob);
         } else {
-            return container.getBlockBlobReference(path.toString()).openOutputStream(null /* accessCondition */, null /* options */, account.context());
+            return new Upload(account.bandwidth().throttle(blob.openOutputStream(null /* accessCondition */, account.options(), account.context())), path, blob);
         }
     }
 
+    /**
+     * Deletes a blob.
+     *
+     * @param path
+     * @throws URISyntaxException
+     * @throws StorageException
+     */
+    public void delete(Path path) throws URISyntaxException, StorageException {
+        getBlob(path).delete(DeleteSnapshotsOption.NONE, null /* accessCondition */, account.options(), account.context());
+    }
+
+    /**
+     * Copies a block blob within the container, server side, waiting for
+     * the copy to complete.  The copy is conditional on the ETag of the
+     * source observed when it started.
+     *
+     * @param source
+     * @param destination
+     * @throws URISyntaxException
+     * @throws StorageException
+     * @throws IOException if the source is not a block blob or the copy fails
+     */
+    public void copy(Path source, Path destination) throws URISyntaxException, StorageException, IOException {
+        CloudBlob from = getBlob(source);
+        if (!(from instanceof CloudBlockBlob)) {
+            throw new IOException("unsupported Blob type for operation: "+BlobType.BLOCK_BLOB+" required.");
+        }
+        CloudBlockBlob to = container.getBlockBlobReference(destination.toString());
+        to.startCopy((CloudBlockBlob) from, AccessCondition.generateIfMatchCondition(from.getProperties().getEtag()),
+                null /* destinationAccessCondition */, account.options(), account.context());
+        while (to.getCopyState() != null && to.getCopyState().getStatus() == CopyStatus.PENDING) {
+            try {
+                Thread.sleep(COPY_POLL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for copy");
+            }
+            to.downloadAttributes(null /* accessCondition */, account.options(), account.context());
+        }
+        if (to.getCopyState() != null && to.getCopyState().getStatus() != CopyStatus.SUCCESS) {
+            throw new IOException("copy failed: "+to.getCopyState().getStatusDescription());
+        }
+    }
+
+    /**
+     * Returns a non-blocking facade for this container on the account pool.
+     * @return the facade
+     */
+    public AsyncBlobStorageContainer async() {
+        return new AsyncBlobStorageContainer(this, account.async());
+    }
+
     /**
      * Makes a "folder" by creating an empty Blob with "folder/" as the name.
      * 
@@ -153,7 +417,7 @@ public class BlobStorageContainer {
         if (!folder.empty()) {
             String name = folder.toString()+account.getDelimiter();
             CloudBlockBlob blob = container.getBlockBlobReference(name);
-            BlobOutputStream bos = blob.openOutputStream(null /* accessCondition */, null /* options */, account.context());
+            BlobOutputStream bos = blob.openOutputStream(null /* accessCondition */, account.options(), account.context());
             bos.close();
         }
     }
@@ -169,8 +433,41 @@ public class BlobStorageContainer {
         if (!name.isEmpty()) {
             name += account.getDelimiter();
         }
-        return container.listBlobs(name, false /* useFlatBlobListing */, EnumSet.noneOf(BlobListingDetails.class),
-                null /* options */, account.context());
+        String prefix = name;
+        return new Listing<ListBlobItem>(token -> account.hedger().call("list",
+                () -> container.listBlobsSegmented(prefix, false /* useFlatBlobListing */,
+                        EnumSet.of(BlobListingDetails.METADATA), null /* maxResults */, token,
+                        account.options(), account.context())));
+    }
+
+    /**
+     * Lists all the blobs under the folder, in name order, listing up to
+     * {@link BlobStorageAccount#DEFAULT_LIST_THREADS} prefix ranges at once.
+     *
+     * @param folder
+     * @return
+     */
+    public Iterable<CloudBlob> list(Path folder) {
+        return list(folder, BlobStorageAccount.DEFAULT_LIST_THREADS);
+    }
+
+    /**
+     * Lists all the blobs under the folder, in name order, listing up to
+     * {@code threads} prefix ranges at once on the worker pool (see
+     * {@link ParallelListing}).  The asynchronous pool is not used: a listing
+     * run from the asynchronous facade would wait on fetches queued behind
+     * it.  The ranges are the virtual directories at the top of the folder.
+     *
+     * @param folder
+     * @param threads the number of ranges listed at once
+     * @return
+     */
+    public Iterable<CloudBlob> list(Path folder, int threads) {
+        ParallelListing.Fetcher fetcher = (prefix, token) -> account.hedger().call("list",
+                () -> container.listBlobsSegmented(prefix, true /* useFlatBlobListing */,
+                        EnumSet.of(BlobListingDetails.METADATA), null /* maxResults */, token,
+                        account.options(), account.context()));
+        return ParallelListing.sampled(dir(folder), fetcher, account.workers(), threads);
     }
 
     /**
@@ -205,8 +502,8 @@ public class BlobStorageContainer {
             }
             String name = folder.toString()+account.getDelimiter();
             CloudBlob blob = container.getBlobReferenceFromServer(name, null /* snapshotID */, null /* accessCondition */,
-                    null /* options */, account.context());
-            blob.delete(DeleteSnapshotsOption.NONE, null /* accessCondition */, null /* options */, account.context());
+                    account.options(), account.context());
+            blob.delete(DeleteSnapshotsOption.NONE, null /* accessCondition */, account.options(), account.context());
         }
     }
 
@@ -216,7 +513,7 @@ public class BlobStorageContainer {
      * @throws StorageException in case of error
      */
     public void create() throws StorageException {
-        container.createIfNotExists(BlobContainerPublicAccessType.OFF, null /* options */, account.context());
+        container.createIfNotExists(BlobContainerPublicAccessType.OFF, account.options(), account.context());
     }
 
     /**
@@ -225,6 +522,6 @@ public class BlobStorageContainer {
      * @throws StorageException in case of error
      */
     public void delete() throws StorageException {
-        container.deleteIfExists(null /* accessCondition */, null /* options */, account.context());
+        container.deleteIfExists(null /* accessCondition */, account.options(), account.context());
     }
 }
\ No newline at end of file
@@ -10,80 +10,104 @@ import com.cleo.connector.api.helper.Logger;
 import com.microsoft.azure.storage.blob.BlobContainerProperties;
 
 /**
- * Azure Blob Container file attribute views
+ * Azure Blob Container file attribute views, snapshotted from the container
+ * properties.
  */
 public class BlobStorageContainerAttributes implements DosFileAttributes, DosFileAttributeView {
-    private BlobContainerProperties properties;
-    private Logger logger;
-
+    private final FileTime time;
+    private final String etag;
+    private final Logger logger;
+
+    /**
+     * Snapshots the container properties.  A missing last modified time is
+     * reported as the time of the snapshot.
+     * @param properties the container properties
+     * @param logger the logger, or {@code null} to skip debug logging
+     */
     public BlobStorageContainerAttributes(BlobContainerProperties properties, Logger logger) {
-        this.properties = properties;
+        Date modified = properties.getLastModified();
+        this.time = FileTime.fromMillis(modified == null ? System.currentTimeMillis() : modified.getTime());
+        this.etag = properties.getEtag();
         this.logger = logger;
     }
 
+    /**
+     * Returns the container ETag.
+     * @return the ETag
+     */
+    public String getEtag() {
+        return etag;
+    }
+
     @Override
     public FileTime lastModifiedTime() {
-        Date time = properties.getLastModified();
-        logger.debug(String.format("lastModifidedTime()=%s", time));
-        if (time==null) {
-            time = new Date();
+        if (logger != null) {
+            logger.debug(String.format("lastModifiedTime()=%s", time));
         }
-        return FileTime.fromMillis(time.getTime());
+        return time;
     }
 
     @Override
     public FileTime lastAccessTime() {
-        Date time = properties.getLastModified();
-        logger.debug(String.format("lastAccessTime()=%s", time));
-        if (time==null) {
-            time = new Date();
+        if (logger != null) {
+            logger.debug(String.format("lastAccessTime()=%s", time));
         }
-        return FileTime.fromMillis(time.getTime());
+        return time;
     }
 
     @Override
     public FileTime creationTime() {
-        Date time = properties.getLastModified();
-        logger.debug(String.format("creationTime()=%s", time));
-        if (time==null) {
-            time = new Date();
+        if (logger != null) {
+            logger.debug(String.format("creationTime()=%s", time));
         }
-        return FileTime.fromMillis(time.getTime());
+        return time;
     }
 
     @Override
     public boolean isRegularFile() {
-        logger.debug("isRegularFile()=false");
+        if (logger != null) {
+            logger.debug("isRegularFile()=false");
+        }
         return false; // containers are directories
     }
 
     @Override
     public boolean isDirectory() {
-        logger.debug("isDirectory()=true");
+        if (logger != null) {
+            logger.debug("isDirectory()=true");
+        }
         return true; // containers are directories
     }
 
     @Override
     public boolean isSymbolicLink() {
-        logger.debug("isSymbolicLink()=false");
+        if (logger != null) {
+            logger.debug("isSymbolicLink()=false");
+        }
         return false; // containers are directories
     }
 
     @Override
     public boolean isOther() {
-        logger.debug("isOther()=false");
+        if (logger != null) {
+            logger.debug("isOther()=false");
+        }
         return false; // containers are directories
     }
 
     @Override
     public long size() {
-        logger.debug("size()=0L");
+        if (logger != null) {
+            logger.debug("size()=0L");
+        }
         return 0L;
     }
 
     @Override
     public Object fileKey() {
-        logger.debug("fileKey()=null");
+        if (logger != null) {
+            logger.debug("fileKey()=null");
+        }
         return null;
     }
 
@@ -126,25 +150,33 @@ public class BlobStorageContainerAttributes implements DosFileAttributes, DosFil
 
     @Override
     public boolean isReadOnly() {
-        logger.debug("isReadOnly()=false");
+        if (logger != null) {
+            logger.debug("isReadOnly()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isHidden() {
-        logger.debug("isHidden()=false");
+        if (logger != null) {
+            logger.debug("isHidden()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isArchive() {
-        logger.debug("isArchive()=false");
+        if (logger != null) {
+            logger.debug("isArchive()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isSystem() {
-        logger.debug("isSystem()=false");
+        if (logger != null) {
+            logger.debug("isSystem()=false");
+        }
         return false;
     }
 
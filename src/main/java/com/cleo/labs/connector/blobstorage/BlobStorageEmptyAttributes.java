@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.nio.file.attribute.DosFileAttributeView;
 import java.nio.file.attribute.DosFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.util.Date;
 
 import com.cleo.connector.api.helper.Logger;
 
@@ -12,65 +11,87 @@ import com.cleo.connector.api.helper.Logger;
  * Azure Blob empty file attribute views
  */
 public class BlobStorageEmptyAttributes implements DosFileAttributes, DosFileAttributeView {
-    private Logger logger;
-    private Date time;
+    private final Logger logger;
+    private final FileTime time;
 
+    /**
+     * Constructs empty attributes dated now.
+     * @param logger the logger, or {@code null} to skip debug logging
+     */
     public BlobStorageEmptyAttributes(Logger logger) {
         this.logger = logger;
-        this.time = new Date();
+        this.time = FileTime.fromMillis(System.currentTimeMillis());
     }
 
     @Override
     public FileTime lastModifiedTime() {
-        logger.debug(String.format("lastModifidedTime()=%s", time));
-        return FileTime.fromMillis(time.getTime());
+        if (logger != null) {
+            logger.debug(String.format("lastModifiedTime()=%s", time));
+        }
+        return time;
     }
 
     @Override
     public FileTime lastAccessTime() {
-        logger.debug(String.format("lastAccessTime()=%s", time));
-        return FileTime.fromMillis(time.getTime());
+        if (logger != null) {
+            logger.debug(String.format("lastAccessTime()=%s", time));
+        }
+        return time;
     }
 
     @Override
     public FileTime creationTime() {
-        logger.debug(String.format("creationTime()=%s", time));
-        return FileTime.fromMillis(time.getTime());
+        if (logger != null) {
+            logger.debug(String.format("creationTime()=%s", time));
+        }
+        return time;
     }
 
     @Override
     public boolean isRegularFile() {
-        logger.debug("isRegularFile()=false");
+        if (logger != null) {
+            logger.debug("isRegularFile()=false");
+        }
         return false; // containers are directories
     }
 
     @Override
     public boolean isDirectory() {
-        logger.debug("isDirectory()=true");
+        if (logger != null) {
+            logger.debug("isDirectory()=true");
+        }
         return true; // containers are directories
     }
 
     @Override
     public boolean isSymbolicLink() {
-        logger.debug("isSymbolicLink()=false");
+        if (logger != null) {
+            logger.debug("isSymbolicLink()=false");
+        }
         return false; // containers are directories
     }
 
     @Override
     public boolean isOther() {
-        logger.debug("isOther()=false");
+        if (logger != null) {
+            logger.debug("isOther()=false");
+        }
         return false; // containers are directories
     }
 
     @Override
     public long size() {
-        logger.debug("size()=0L");
+        if (logger != null) {
+            logger.debug("size()=0L");
+        }
         return 0L;
     }
 
     @Override
     public Object fileKey() {
-        logger.debug("fileKey()=null");
+        if (logger != null) {
+            logger.debug("fileKey()=null");
+        }
         return null;
     }
 
@@ -113,25 +134,33 @@ public class BlobStorageEmptyAttributes implements DosFileAttributes, DosFileAtt
 
     @Override
     public boolean isReadOnly() {
-        logger.debug("isReadOnly()=false");
+        if (logger != null) {
+            logger.debug("isReadOnly()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isHidden() {
-        logger.debug("isHidden()=false");
+        if (logger != null) {
+            logger.debug("isHidden()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isArchive() {
-        logger.debug("isArchive()=false");
+        if (logger != null) {
+            logger.debug("isArchive()=false");
+        }
         return false;
     }
 
     @Override
     public boolean isSystem() {
-        logger.debug("isSystem()=false");
+        if (logger != null) {
+            logger.debug("isSystem()=false");
+        }
         return false;
     }
 
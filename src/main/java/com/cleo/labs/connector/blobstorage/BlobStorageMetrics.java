@@ -0,0 +1,368 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per host alias metrics for connector commands and the Azure requests they
+ * make, registered as a platform MXBean (see {@link BlobStorageMetricsMXBean}).
+ */
+public class BlobStorageMetrics implements BlobStorageMetricsMXBean {
+    public static final String DOMAIN = "com.cleo.labs.connector.blobstorage";
+
+    private static final ConcurrentMap<String,BlobStorageMetrics> HOSTS = new ConcurrentHashMap<>();
+
+    /**
+     * The sample of the command running on each thread, or carried to a
+     * worker thread by {@link #bind(Runnable)}.
+     */
+    private static final ThreadLocal<Sample> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Returns the metrics for a host alias, registering them with the
+     * platform MBean server when first used.
+     * @param alias the host alias
+     * @return the metrics
+     */
+    public static BlobStorageMetrics of(String alias) {
+        return HOSTS.computeIfAbsent(alias, k -> register(new BlobStorageMetrics(k), k));
+    }
+
+    private static BlobStorageMetrics register(BlobStorageMetrics metrics, String alias) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=BlobStorageMetrics,host=" + ObjectName.quote(alias));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name); // left behind by a previous copy of the connector
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException | SecurityException e) {
+            // metrics are still collected, just not visible
+        }
+        return metrics;
+    }
+
+    private static class Command {
+        private LatencyWindow latency = new LatencyWindow();
+        private AtomicLong count = new AtomicLong();
+        private AtomicLong errors = new AtomicLong();
+        private AtomicLong requests = new AtomicLong();
+        private AtomicLong bytes = new AtomicLong();
+        private AtomicLong millis = new AtomicLong();
+    }
+
+    private String alias;
+    private ConcurrentMap<String,Command> commands = new ConcurrentHashMap<>();
+    private AtomicLong[] statuses = new AtomicLong[6]; // [0] for no response, [n] for nxx
+    private AtomicLong attrHits = new AtomicLong();
+    private AtomicLong attrMisses = new AtomicLong();
+    private volatile UploadSpool spool = null;
+
+    private BlobStorageMetrics(String alias) {
+        this.alias = alias;
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * The measurement of a single command, recorded when closed.  While open
+     * it is the current sample of the thread that started it (a nested
+     * sample, like the ATTR behind a PUT, takes over until it is closed).
+     */
+    public class Sample implements AutoCloseable {
+        private String command;
+        private long start;
+        private AtomicLong requests;
+        private AtomicLong bytes;
+        private boolean success;
+        private Sample previous;
+        private volatile boolean closed;
+
+        private Sample(String command) {
+            this.command = command;
+            this.start = System.nanoTime();
+            this.requests = new AtomicLong();
+            this.bytes = new AtomicLong();
+            this.success = false;
+            this.previous = CURRENT.get();
+            this.closed = false;
+            CURRENT.set(this);
+        }
+
+        /**
+         * Counts one Azure request made on behalf of the command, unless the
+         * command has already completed.
+         */
+        public void request() {
+            if (!closed) {
+                requests.incrementAndGet();
+            }
+        }
+
+        /**
+         * Adds to the number of content bytes moved by the command.
+         * @param n the number of bytes
+         */
+        public void bytes(long n) {
+            bytes.addAndGet(n);
+        }
+
+        /**
+         * Marks the command as successful.
+         * @param result the command result
+         * @return {@code result}
+         */
+        public <T> T success(T result) {
+            success = true;
+            return result;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Command c = commands.computeIfAbsent(command, k -> new Command());
+            c.latency.add(elapsed);
+            c.count.incrementAndGet();
+            if (!success) {
+                c.errors.incrementAndGet();
+            }
+            c.requests.addAndGet(requests.get());
+            c.bytes.addAndGet(bytes.get());
+            c.millis.addAndGet(elapsed);
+            if (CURRENT.get() == this) {
+                Sample restore = previous;
+                while (restore != null && restore.closed) {
+                    restore = restore.previous;
+                }
+                set(restore);
+            }
+        }
+    }
+
+    /**
+     * Starts measuring a command, making it the current sample of this thread.
+     * @param command the command name
+     * @return the sample, to be closed when the command completes
+     */
+    public Sample start(String command) {
+        return new Sample(command);
+    }
+
+    /**
+     * Returns the sample of the command running on this thread.
+     * @return the open sample, or {@code null}
+     */
+    public static Sample current() {
+        Sample sample = CURRENT.get();
+        return sample == null || sample.closed ? null : sample;
+    }
+
+    private static void set(Sample sample) {
+        if (sample == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(sample);
+        }
+    }
+
+    /**
+     * Returns a task that runs {@code task} with the current sample of this
+     * thread, so the requests it makes on a worker thread are counted
+     * against the same command.
+     * @param task the task
+     * @return the bound task
+     */
+    public static Runnable bind(Runnable task) {
+        Sample sample = current();
+        if (sample == null) {
+            return task;
+        }
+        return () -> {
+            Sample outer = CURRENT.get();
+            CURRENT.set(sample);
+            try {
+                task.run();
+            } finally {
+                set(outer);
+            }
+        };
+    }
+
+    /**
+     * Returns an executor that runs each task with the current sample of the
+     * thread that submitted it (see {@link #bind(Runnable)}).
+     * @param executor the executor that runs the tasks
+     * @return the binding executor
+     */
+    public static ExecutorService bound(ExecutorService executor) {
+        return new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(bind(command));
+            }
+
+            @Override
+            public void shutdown() {
+                executor.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return executor.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return executor.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return executor.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return executor.awaitTermination(timeout, unit);
+            }
+        };
+    }
+
+    /**
+     * Counts a completed Azure request.
+     * @param status the HTTP status, or 0 if there was no response
+     */
+    public void request(int status) {
+        int bucket = status / 100;
+        statuses[bucket > 0 && bucket < statuses.length ? bucket : 0].incrementAndGet();
+    }
+
+    /**
+     * Counts an attribute lookup.
+     * @param hit {@code true} if answered from the cache
+     */
+    public void attrCache(boolean hit) {
+        (hit ? attrHits : attrMisses).incrementAndGet();
+    }
+
+    /**
+     * Sets the write-behind spool whose depth is reported.
+     * @param spool the spool, or {@code null}
+     */
+    public void spool(UploadSpool spool) {
+        this.spool = spool;
+    }
+
+    @Override
+    public Map<String,CommandMetrics> getCommands() {
+        Map<String,CommandMetrics> result = new TreeMap<>();
+        for (Map.Entry<String,Command> e : commands.entrySet()) {
+            Command c = e.getValue();
+            long[] p = c.latency.percentiles(50, 95, 99);
+            result.put(e.getKey(), new CommandMetrics(c.count.get(), c.errors.get(), p[0], p[1], p[2],
+                    c.requests.get(), c.bytes.get(), c.millis.get()));
+        }
+        return result;
+    }
+
+    @Override
+    public long getRequests() {
+        long total = 0;
+        for (AtomicLong status : statuses) {
+            total += status.get();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRequests2xx() {
+        return statuses[2].get();
+    }
+
+    @Override
+    public long getRequests3xx() {
+        return statuses[3].get();
+    }
+
+    @Override
+    public long getRequests4xx() {
+        return statuses[4].get();
+    }
+
+    @Override
+    public long getRequests5xx() {
+        return statuses[5].get();
+    }
+
+    @Override
+    public long getRequestsFailed() {
+        return statuses[0].get() + statuses[1].get();
+    }
+
+    @Override
+    public long getAttrCacheHits() {
+        return attrHits.get();
+    }
+
+    @Override
+    public long getAttrCacheMisses() {
+        return attrMisses.get();
+    }
+
+    @Override
+    public double getAttrCacheHitRate() {
+        long hits = attrHits.get();
+        long total = hits + attrMisses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public int getSpoolDepth() {
+        UploadSpool current = spool;
+        return current == null ? 0 : current.getDepth();
+    }
+
+    @Override
+    public int getSpoolFailed() {
+        UploadSpool current = spool;
+        return current == null ? 0 : current.getFailed();
+    }
+
+    @Override
+    public String getSpoolLastError() {
+        UploadSpool current = spool;
+        return current == null ? null : current.getLastError();
+    }
+
+    @Override
+    public void reset() {
+        commands.clear();
+        for (AtomicLong status : statuses) {
+            status.set(0);
+        }
+        attrHits.set(0);
+        attrMisses.set(0);
+    }
+
+    @Override
+    public String[] dumpTrace() {
+        return RequestTracer.of(alias).dump();
+    }
+}
@@ -0,0 +1,87 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link BlobStorageMetrics}, registered once per host alias as
+ * {@code com.cleo.labs.connector.blobstorage:type=BlobStorageMetrics,host=<alias>}.
+ */
+public interface BlobStorageMetricsMXBean {
+    /**
+     * @return the metrics for each command (DIR, GET, PUT, ATTR, ...) seen so far
+     */
+    public Map<String,CommandMetrics> getCommands();
+
+    /**
+     * @return the number of Azure requests completed
+     */
+    public long getRequests();
+
+    /**
+     * @return the number of Azure requests completed with a 2xx status
+     */
+    public long getRequests2xx();
+
+    /**
+     * @return the number of Azure requests completed with a 3xx status
+     */
+    public long getRequests3xx();
+
+    /**
+     * @return the number of Azure requests completed with a 4xx status
+     */
+    public long getRequests4xx();
+
+    /**
+     * @return the number of Azure requests completed with a 5xx status
+     */
+    public long getRequests5xx();
+
+    /**
+     * @return the number of Azure requests that failed without a response
+     */
+    public long getRequestsFailed();
+
+    /**
+     * @return the number of attribute lookups answered from the cache
+     */
+    public long getAttrCacheHits();
+
+    /**
+     * @return the number of attribute lookups that went to Azure
+     */
+    public long getAttrCacheMisses();
+
+    /**
+     * @return the fraction of attribute lookups answered from the cache
+     */
+    public double getAttrCacheHitRate();
+
+    /**
+     * @return the number of write-behind uploads waiting or in progress
+     */
+    public int getSpoolDepth();
+
+    /**
+     * @return the number of write-behind uploads set aside after failing
+     * repeatedly
+     */
+    public int getSpoolFailed();
+
+    /**
+     * @return the most recent write-behind upload failure, or {@code null}
+     */
+    public String getSpoolLastError();
+
+    /**
+     * Clears all counters and latency windows.
+     */
+    public void reset();
+
+    /**
+     * Returns the most recent Azure requests, oldest first, one line each with
+     * the service request ID, status, bytes, time to first byte and total latency.
+     * @return the trace lines
+     */
+    public String[] dumpTrace();
+}
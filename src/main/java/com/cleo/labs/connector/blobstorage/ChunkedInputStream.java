@@ -0,0 +1,142 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An {@link InputStream} over a range of content that is fetched in fixed
+ * size chunks, with up to {@code readAhead} chunks fetched concurrently ahead
+ * of the reader.  Subclasses supply {@link #fetch(long)}.
+ */
+public abstract class ChunkedInputStream extends InputStream {
+    private ExecutorService executor;
+    private long nextChunk;
+    private long endChunk;
+    private int readAhead;
+    private Deque<Future<byte[]>> ahead;
+    private byte[] current;
+    private int position;
+    private int skip;
+    private long remaining;
+
+    /**
+     * Sets up the stream over {@code [offset,offset+length)} of content of
+     * {@code size} bytes, fetched in chunks of {@code chunkSize}.
+     * @param executor the pool on which chunks are fetched
+     * @param chunkSize the size of each chunk (except possibly the last)
+     * @param size the total size of the content
+     * @param offset the offset to start reading from
+     * @param length the number of bytes to read, or negative to read to the end
+     * @param readAhead the number of chunks to fetch concurrently
+     */
+    protected ChunkedInputStream(ExecutorService executor, int chunkSize, long size, long offset, long length, int readAhead) {
+        this.executor = executor;
+        offset = Math.max(0, Math.min(offset, size));
+        long end = length < 0 ? size : Math.min(size, offset + length);
+        this.remaining = end - offset;
+        this.nextChunk = offset / chunkSize;
+        this.endChunk = remaining == 0 ? nextChunk : (end - 1) / chunkSize + 1;
+        this.readAhead = Math.max(1, readAhead);
+        this.ahead = new ArrayDeque<>();
+        this.current = null;
+        this.position = 0;
+        this.skip = (int) (offset % chunkSize);
+    }
+
+    /**
+     * Fetches chunk {@code n}.  Called concurrently from the pool.
+     * @param n the chunk index
+     * @return the chunk content
+     * @throws Exception
+     */
+    protected abstract byte[] fetch(long n) throws Exception;
+
+    private void schedule() {
+        while (ahead.size() < readAhead && nextChunk < endChunk) {
+            final long n = nextChunk++;
+            ahead.add(executor.submit(() -> fetch(n)));
+        }
+    }
+
+    /**
+     * Makes sure {@code current} has unread bytes, fetching the next chunk if needed.
+     * @return {@code false} at the end of the range
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        while (remaining > 0 && (current == null || position >= current.length)) {
+            schedule();
+            Future<byte[]> future = ahead.poll();
+            if (future == null) {
+                return false;
+            }
+            try {
+                current = future.get();
+                position = skip; // the offset into the first chunk, then 0
+                skip = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for chunk");
+            } catch (ExecutionException e) {
+                close();
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("failed to read chunk", cause);
+            }
+        }
+        return remaining > 0;
+    }
+
+    /**
+     * Waits for the first chunk, so that a failure to fetch it is reported
+     * before any content is read.
+     * @throws IOException
+     */
+    public void prefetch() throws IOException {
+        fill();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = (int) Math.min(Math.min(len, current.length - position), remaining);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : (int) Math.min(current.length - position, remaining);
+    }
+
+    @Override
+    public void close() {
+        for (Future<byte[]> future : ahead) {
+            future.cancel(true);
+        }
+        ahead.clear();
+        remaining = 0;
+    }
+}
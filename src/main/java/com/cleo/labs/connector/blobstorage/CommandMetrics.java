@@ -0,0 +1,101 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the metrics for one connector command, as exposed through
+ * {@link BlobStorageMetricsMXBean#getCommands()}.  Latencies are in
+ * milliseconds and are estimated from a window of recent commands.
+ */
+public class CommandMetrics {
+    private final long count;
+    private final long errors;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+    private final long requests;
+    private final long bytes;
+    private final long millis;
+
+    @ConstructorProperties({"count", "errors", "p50", "p95", "p99", "requests", "bytes", "millis"})
+    public CommandMetrics(long count, long errors, long p50, long p95, long p99, long requests, long bytes, long millis) {
+        this.count = count;
+        this.errors = errors;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.requests = requests;
+        this.bytes = bytes;
+        this.millis = millis;
+    }
+
+    /**
+     * @return the number of commands completed
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of commands that failed
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the median latency in milliseconds (-1 if none)
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return the 95th percentile latency in milliseconds (-1 if none)
+     */
+    public long getP95() {
+        return p95;
+    }
+
+    /**
+     * @return the 99th percentile latency in milliseconds (-1 if none)
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return the number of Azure requests made on behalf of the commands
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of content bytes moved by the commands
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the total time spent in the commands in milliseconds
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @return the average number of Azure requests per command
+     */
+    public double getRequestsPerCommand() {
+        return count == 0 ? 0.0 : (double) requests / count;
+    }
+
+    /**
+     * @return the average throughput while the commands were running, in bytes/s
+     */
+    public double getBytesPerSecond() {
+        return millis == 0 ? 0.0 : bytes * 1000.0 / millis;
+    }
+}
@@ -0,0 +1,248 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.Collections;
+import java.util.List;
+
+import com.cleo.connector.api.property.ConnectorPropertyException;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+
+/**
+ * An immutable snapshot of the computed configuration of a client: the
+ * connection string, request options, context template (with its proxy and
+ * parsed headers) and the tuning settings.  A snapshot is computed once for
+ * a set of raw property values, see {@link BlobStorageConnectorConfig#snapshot()}.
+ */
+public class ConfigSnapshot {
+    private final List<Object> values;
+
+    private final String storageAccountName;
+    private final String connectionString;
+    private final String container;
+    private final String encryptionKey;
+    private final int encryptionChunkSize;
+    private final int parallelism;
+    private final BlobRequestOptions requestOptions;
+    private final int maxConcurrentRequests;
+    private final long bandwidthLimit;
+    private final long globalBandwidthLimit;
+    private final boolean enableDebug;
+    private final boolean hedgeReads;
+    private final long hedgeDelay;
+    private final int hedgeMaxPercent;
+    private final boolean skipUnchanged;
+    private final String etagStore;
+    private final boolean skipIdentical;
+    private final String contentCache;
+    private final long contentCacheSize;
+    private final int asyncThreads;
+    private final boolean writeBehind;
+    private final String spoolDirectory;
+    private final boolean incrementalDir;
+    private final String watermarkStore;
+    private final String hostAlias;
+    private final ThrottleController throttle;
+    private final ContextTemplate contextTemplate;
+
+    /**
+     * Computes a snapshot from the config.
+     * @param config the config
+     * @param values the raw property values the snapshot is computed from
+     * @throws ConnectorPropertyException
+     */
+    ConfigSnapshot(BlobStorageConnectorConfig config, List<Object> values) throws ConnectorPropertyException {
+        this.values = values;
+        this.storageAccountName = config.getStorageAccountName();
+        this.connectionString = config.getConnectionString();
+        this.container = config.getContainer();
+        this.encryptionKey = config.getEncryptionKey();
+        this.encryptionChunkSize = config.getEncryptionChunkSize();
+        this.parallelism = config.getParallelism();
+        this.requestOptions = config.getRequestOptions();
+        this.maxConcurrentRequests = config.getMaxConcurrentRequests();
+        this.bandwidthLimit = config.getBandwidthLimit();
+        this.globalBandwidthLimit = config.getGlobalBandwidthLimit();
+        this.enableDebug = config.getEnableDebug();
+        this.hedgeReads = config.getHedgeReads();
+        this.hedgeDelay = config.getHedgeDelay();
+        this.hedgeMaxPercent = config.getHedgeMaxPercent();
+        this.skipUnchanged = config.getSkipUnchanged();
+        this.etagStore = config.getETagStore();
+        this.skipIdentical = config.getSkipIdentical();
+        this.contentCache = config.getContentCache();
+        this.contentCacheSize = config.getContentCacheSize();
+        this.asyncThreads = config.getAsyncThreads();
+        this.writeBehind = config.getWriteBehind();
+        this.spoolDirectory = config.getSpoolDirectory();
+        this.incrementalDir = config.getIncrementalDir();
+        this.watermarkStore = config.getWatermarkStore();
+        this.hostAlias = config.getHostAlias();
+        this.throttle = config.getThrottle();
+        this.contextTemplate = config.getContextTemplate(throttle);
+    }
+
+    /**
+     * Computes the default snapshot for a connection string, with no
+     * connector configuration: no encryption, hedging, bandwidth or
+     * concurrency limits, and the empty host alias.  The account throttle is
+     * looked up but not attached, leaving the maxima of configured hosts in
+     * force, and an asynchronous thread count of 0 leaves the size of an
+     * existing pool alone.
+     * @param connectionString the storage connection string
+     * @throws InvalidKeyException
+     * @throws URISyntaxException
+     */
+    ConfigSnapshot(String connectionString) throws InvalidKeyException, URISyntaxException {
+        this.values = Collections.emptyList();
+        this.storageAccountName = CloudStorageAccount.parse(connectionString).getCredentials().getAccountName();
+        this.connectionString = connectionString;
+        this.container = null;
+        this.encryptionKey = null;
+        this.encryptionChunkSize = 0;
+        this.parallelism = 1;
+        this.requestOptions = new BlobRequestOptions();
+        this.maxConcurrentRequests = 0;
+        this.bandwidthLimit = 0;
+        this.globalBandwidthLimit = 0;
+        this.enableDebug = false;
+        this.hedgeReads = false;
+        this.hedgeDelay = 0;
+        this.hedgeMaxPercent = 0;
+        this.skipUnchanged = false;
+        this.etagStore = null;
+        this.skipIdentical = false;
+        this.contentCache = null;
+        this.contentCacheSize = 0;
+        this.asyncThreads = 0;
+        this.writeBehind = false;
+        this.spoolDirectory = null;
+        this.incrementalDir = false;
+        this.watermarkStore = null;
+        this.hostAlias = "";
+        this.throttle = ThrottleController.of(storageAccountName);
+        this.contextTemplate = new ContextTemplate(null, null);
+    }
+
+    /**
+     * Returns {@code true} if the snapshot was computed from these raw values.
+     * @param values the current raw property values
+     * @return {@code true} if the snapshot is current
+     */
+    boolean matches(List<Object> values) {
+        return this.values.equals(values);
+    }
+
+    public String getStorageAccountName() {
+        return storageAccountName;
+    }
+
+    public String getConnectionString() {
+        return connectionString;
+    }
+
+    public String getContainer() {
+        return container;
+    }
+
+    public String getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    public int getEncryptionChunkSize() {
+        return encryptionChunkSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns a copy of the request options.
+     * @return a new BlobRequestOptions
+     */
+    public BlobRequestOptions getRequestOptions() {
+        return new BlobRequestOptions(requestOptions);
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    public long getGlobalBandwidthLimit() {
+        return globalBandwidthLimit;
+    }
+
+    public boolean getEnableDebug() {
+        return enableDebug;
+    }
+
+    public boolean getHedgeReads() {
+        return hedgeReads;
+    }
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public int getHedgeMaxPercent() {
+        return hedgeMaxPercent;
+    }
+
+    public boolean getSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public String getETagStore() {
+        return etagStore;
+    }
+
+    public boolean getSkipIdentical() {
+        return skipIdentical;
+    }
+
+    public String getContentCache() {
+        return contentCache;
+    }
+
+    public long getContentCacheSize() {
+        return contentCacheSize;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public boolean getIncrementalDir() {
+        return incrementalDir;
+    }
+
+    public String getWatermarkStore() {
+        return watermarkStore;
+    }
+
+    public String getHostAlias() {
+        return hostAlias;
+    }
+
+    public ThrottleController getThrottle() {
+        return throttle;
+    }
+
+    public ContextTemplate getContextTemplate() {
+        return contextTemplate;
+    }
+}
@@ -0,0 +1,268 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * An on-disk read-through cache of blob content, keyed by the blob URI and
+ * ETag, so a cached copy is valid exactly as long as the blob ETag is
+ * unchanged.  The total size of the cached files is bounded, evicting the
+ * least recently read files that are not being read.
+ * <p/>
+ * Concurrent reads of the same uncached blob are single-flighted: the first
+ * reader downloads the content into the cache and the others wait for it.
+ * There is one cache per directory, shared by all the hosts that name it.
+ */
+public class ContentCache {
+    private static final ConcurrentMap<String,ContentCache> CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * The name of a cached file (see {@link #name(String, String)}), and of
+     * one being written.
+     */
+    private static final Pattern CACHED = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern WRITING = Pattern.compile("[0-9a-f]{64}\\.\\d+\\.tmp");
+
+    /**
+     * Opens the content of a blob, for the reader that loads the cache.
+     */
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private static class Entry {
+        private final File file;
+        private final long length;
+        private int readers;
+
+        Entry(File file, long length) {
+            this.file = file;
+            this.length = length;
+            this.readers = 0;
+        }
+    }
+
+    private final File directory;
+    private long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<String,Entry> entries;
+    private final Map<String,CompletableFuture<Void>> loading;
+
+    private ContentCache(File directory) {
+        this.directory = directory;
+        this.maxBytes = 0;
+        this.bytes = 0;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+        this.loading = new HashMap<>();
+        index();
+    }
+
+    /**
+     * Returns the cache in {@code directory}, updating its size limit.
+     * @param directory the cache directory (created when first needed)
+     * @param maxBytes the limit on the total size of the cached files
+     * @return the cache
+     */
+    public static ContentCache of(String directory, long maxBytes) {
+        File dir = new File(directory).getAbsoluteFile();
+        ContentCache cache = CACHES.computeIfAbsent(dir.getPath(), k -> new ContentCache(dir));
+        cache.update(maxBytes);
+        return cache;
+    }
+
+    /**
+     * Picks up the files left by a previous run, oldest first so that the
+     * most recently written are the last evicted.  Only files named by the
+     * cache are adopted (or, if partly written, deleted): the directory may
+     * be shared, and other files are left alone.
+     */
+    private synchronized void index() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (WRITING.matcher(file.getName()).matches()) {
+                file.delete();
+            } else if (file.isFile() && CACHED.matcher(file.getName()).matches()) {
+                entries.put(file.getName(), new Entry(file, file.length()));
+                bytes += file.length();
+            }
+        }
+    }
+
+    private synchronized void update(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Opens a range of the content of a blob from the cache, loading the whole
+     * blob from {@code source} first if needed.  A blob larger than the cache
+     * is read directly from {@code source}.
+     * @param key the blob identity (its URI)
+     * @param etag the current ETag of the blob
+     * @param size the size of the blob
+     * @param offset the offset to start reading from
+     * @param length the number of bytes to read, or negative to read to the end
+     * @param source opens the content of the blob
+     * @return the stream
+     * @throws IOException
+     */
+    public InputStream open(String key, String etag, long size, long offset, long length, Source source) throws IOException {
+        if (size > maxBytes) {
+            InputStream in = source.open();
+            ByteStreams.skipFully(in, offset);
+            return length < 0 ? in : ByteStreams.limit(in, length);
+        }
+        String name = name(key, etag);
+        while (true) {
+            CompletableFuture<Void> flight;
+            boolean leader = false;
+            synchronized (this) {
+                Entry entry = entries.get(name);
+                if (entry != null) {
+                    return read(entry, offset, length);
+                }
+                flight = loading.get(name);
+                if (flight == null) {
+                    flight = new CompletableFuture<>();
+                    loading.put(name, flight);
+                    leader = true;
+                }
+            }
+            if (leader) {
+                load(name, size, source, flight);
+            }
+            try {
+                flight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for the cached content", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("failed to cache the content", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Downloads the content into a temporary file, moves it into place and
+     * releases the readers waiting for it.
+     */
+    private void load(String name, long size, Source source, CompletableFuture<Void> flight) {
+        File file = new File(directory, name);
+        File tmp = new File(directory, name+"."+Thread.currentThread().getId()+".tmp");
+        try {
+            Files.createDirectories(directory.toPath());
+            try (InputStream in = source.open();
+                    OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                long copied = ByteStreams.copy(in, out);
+                if (copied != size) {
+                    throw new IOException(String.format("expected %d bytes but read %d", size, copied));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                entries.put(name, new Entry(file, size));
+                bytes += size;
+                loading.remove(name);
+                evict();
+            }
+            flight.complete(null);
+        } catch (Exception e) {
+            tmp.delete();
+            synchronized (this) {
+                loading.remove(name);
+            }
+            flight.completeExceptionally(e);
+        }
+    }
+
+    private InputStream read(Entry entry, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ);
+        channel.position(Math.min(offset, entry.length));
+        InputStream in = Channels.newInputStream(channel);
+        entry.readers++;
+        return new FilterInputStream(length < 0 ? in : ByteStreams.limit(in, length)) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                synchronized (ContentCache.this) {
+                    if (!closed) {
+                        closed = true;
+                        entry.readers--;
+                        evict();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Removes the least recently read files not being read until the cache
+     * fits its limit.
+     */
+    private synchronized void evict() {
+        Iterator<Entry> i = entries.values().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            Entry entry = i.next();
+            if (entry.readers == 0) {
+                i.remove();
+                entry.file.delete();
+                bytes -= entry.length;
+            }
+        }
+    }
+
+    private static String name(String key, String etag) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((key+"\n"+etag).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.microsoft.azure.storage.OperationContext;
+
+/**
+ * An immutable recipe for {@link OperationContext}s: the proxy, the user
+ * headers and the listeners to attach.
+ * <p/>
+ * The SDK appends a {@code RequestResult} to its context for every request
+ * (including retries), so a context must not outlive the operation it was
+ * created for.  {@link #create()} makes a fresh context for each operation,
+ * which is cheap, instead of sharing one long-lived context.
+ */
+public class ContextTemplate {
+    private final Proxy proxy;
+    private final Map<String,String> headers;
+    private final List<Consumer<OperationContext>> attachments;
+
+    /**
+     * Constructs a template with no listeners.
+     * @param proxy the proxy, or {@code null}
+     * @param headers the user headers, or {@code null}
+     */
+    public ContextTemplate(Proxy proxy, Map<String,String> headers) {
+        this(proxy, headers == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(headers)),
+                Collections.emptyList());
+    }
+
+    private ContextTemplate(Proxy proxy, Map<String,String> headers, List<Consumer<OperationContext>> attachments) {
+        this.proxy = proxy;
+        this.headers = headers;
+        this.attachments = attachments;
+    }
+
+    /**
+     * Returns a new template that also applies {@code attachment} (typically
+     * adding listeners) to each context it creates.
+     * @param attachment the attachment
+     * @return a new template
+     */
+    public ContextTemplate with(Consumer<OperationContext> attachment) {
+        List<Consumer<OperationContext>> list = new ArrayList<>(attachments);
+        list.add(attachment);
+        return new ContextTemplate(proxy, headers, Collections.unmodifiableList(list));
+    }
+
+    /**
+     * Creates a fresh context.
+     * @return a new OperationContext
+     */
+    public OperationContext create() {
+        OperationContext context = new OperationContext();
+        context.setProxy(proxy);
+        context.setUserHeaders(new HashMap<>(headers));
+        for (Consumer<OperationContext> attachment : attachments) {
+            attachment.accept(context);
+        }
+        return context;
+    }
+}
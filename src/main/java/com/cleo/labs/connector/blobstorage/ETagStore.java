@@ -0,0 +1,47 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.IOException;
+
+/**
+ * The last seen ETag of each blob retrieved by a conditional GET, kept in a
+ * {@link PropertiesStore} so that unchanged blobs are still skipped after a
+ * restart.
+ */
+public class ETagStore {
+    private final PropertiesStore etags;
+
+    /**
+     * Returns the store persisted in {@code file}, loading it on first use.
+     * @param file the properties file (created when first saved)
+     * @return the store
+     * @throws IOException if an existing file can't be read
+     */
+    public static ETagStore of(String file) throws IOException {
+        return new ETagStore(PropertiesStore.of(file, "Azure Blob ETags"));
+    }
+
+    private ETagStore(PropertiesStore etags) {
+        this.etags = etags;
+    }
+
+    /**
+     * Returns the last seen ETag for {@code key}.
+     * @param key the key (the full path of the blob)
+     * @return the ETag, or {@code null}
+     */
+    public String get(String key) {
+        return etags.get(key);
+    }
+
+    /**
+     * Records the ETag for {@code key} and saves the store if it changed.
+     * @param key the key (the full path of the blob)
+     * @param etag the ETag
+     * @throws IOException
+     */
+    public void put(String key, String etag) throws IOException {
+        if (etag != null) {
+            etags.put(key, etag);
+        }
+    }
+}
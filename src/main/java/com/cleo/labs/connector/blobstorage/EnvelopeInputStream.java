@@ -0,0 +1,48 @@
+package com.cleo.labs.connector.blobstorage;
+
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.blob.CloudBlob;
+
+/**
+ * An {@link java.io.InputStream} over a plaintext range of a {@link BlobEnvelope}
+ * encrypted blob.  Only the chunks covering the range are fetched, each with
+ * its own ranged GET, and up to {@code readAhead} chunks are fetched and
+ * decrypted concurrently ahead of the reader.
+ */
+public class EnvelopeInputStream extends ChunkedInputStream {
+    private BlobStorageAccount account;
+    private CloudBlob blob;
+    private BlobEnvelope.Sealed sealed;
+    private AccessCondition condition;
+    private long cipherLength;
+    private long lastChunk;
+
+    /**
+     * Opens a plaintext range of an enveloped blob.
+     * @param account the account (for the worker pool and context)
+     * @param blob the blob, with attributes already fetched
+     * @param sealed the per-blob envelope state
+     * @param offset the plaintext offset to start reading from
+     * @param length the number of plaintext bytes to read, or negative to read to the end
+     * @param readAhead the number of chunks to fetch concurrently
+     */
+    public EnvelopeInputStream(BlobStorageAccount account, CloudBlob blob, BlobEnvelope.Sealed sealed,
+            long offset, long length, int readAhead) {
+        super(account.workers(), sealed.chunkSize(), BlobEnvelope.plainLength(blob), offset, length, readAhead);
+        this.account = account;
+        this.blob = blob;
+        this.sealed = sealed;
+        this.condition = AccessCondition.generateIfMatchCondition(blob.getProperties().getEtag());
+        this.cipherLength = blob.getProperties().getLength();
+        long chunks = (cipherLength + sealed.cipherChunkSize() - 1) / sealed.cipherChunkSize();
+        this.lastChunk = Math.max(0, chunks - 1);
+    }
+
+    @Override
+    protected byte[] fetch(long n) throws Exception {
+        long start = n * sealed.cipherChunkSize();
+        int length = (int) Math.min(sealed.cipherChunkSize(), cipherLength - start);
+        byte[] cipherText = BlobRangeInputStream.download(account, blob, condition, start, length);
+        return sealed.decrypt(n, n == lastChunk, cipherText, length);
+    }
+}
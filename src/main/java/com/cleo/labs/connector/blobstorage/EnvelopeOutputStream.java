@@ -0,0 +1,175 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+
+/**
+ * An {@link OutputStream} that encrypts its content into {@link BlobEnvelope}
+ * chunks and uploads each chunk as one block of a block blob.  Up to
+ * {@code parallelism} chunks are encrypted and uploaded concurrently, and the
+ * block list (together with the envelope metadata) is committed on
+ * {@link #close()}.
+ */
+public class EnvelopeOutputStream extends OutputStream {
+    private BlobStorageAccount account;
+    private CloudBlockBlob blob;
+    private BlobEnvelope.Sealed sealed;
+    private Semaphore slots;
+    private List<Future<?>> pending;
+    private List<BlockEntry> blocks;
+    private byte[] buffer;
+    private int count;
+    private long index;
+    private boolean closed;
+
+    public EnvelopeOutputStream(BlobStorageAccount account, CloudBlockBlob blob, BlobEnvelope.Sealed sealed, int parallelism) {
+        this.account = account;
+        this.blob = blob;
+        this.sealed = sealed;
+        this.slots = new Semaphore(Math.max(1, parallelism));
+        this.pending = new ArrayList<>();
+        this.blocks = new ArrayList<>();
+        this.buffer = new byte[sealed.chunkSize()];
+        this.count = 0;
+        this.index = 0;
+        this.closed = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        while (len > 0) {
+            if (count == buffer.length) {
+                // only now do we know this chunk is not the last one
+                submit(false);
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static String blockId(long index) {
+        return Base64.getEncoder().encodeToString(String.format("%010d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void submit(boolean last) throws IOException {
+        reap(false);
+        final byte[] chunk = buffer;
+        final int length = count;
+        final long n = index++;
+        final String id = blockId(n);
+        blocks.add(new BlockEntry(id));
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for an upload slot");
+        }
+        pending.add(account.workers().submit(() -> {
+            try {
+                byte[] cipherText = sealed.encrypt(n, last, chunk, length);
+                blob.uploadBlock(id, account.bandwidth().throttle(new ByteArrayInputStream(cipherText)), cipherText.length,
+                        null /* accessCondition */, account.options(), account.context());
+                return null;
+            } finally {
+                slots.release();
+            }
+        }));
+        buffer = new byte[sealed.chunkSize()];
+        count = 0;
+    }
+
+    /**
+     * Collects completed uploads, surfacing the first failure.
+     * @param all {@code true} to wait for all uploads, otherwise only completed ones are collected
+     * @throws IOException if any upload failed
+     */
+    private void reap(boolean all) throws IOException {
+        Iterator<Future<?>> i = pending.iterator();
+        while (i.hasNext()) {
+            Future<?> future = i.next();
+            if (all || future.isDone()) {
+                try {
+                    future.get();
+                    i.remove();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort();
+                    throw new InterruptedIOException("interrupted waiting for block upload");
+                } catch (ExecutionException e) {
+                    abort();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("encrypted block upload failed", cause);
+                }
+            }
+        }
+    }
+
+    private void abort() {
+        for (Future<?> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        closed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        submit(true);
+        closed = true;
+        reap(true);
+        blob.getMetadata().put(BlobEnvelope.METADATA, sealed.metadata());
+        try {
+            blob.commitBlockList(blocks, null /* accessCondition */, account.options(), account.context());
+        } catch (StorageException e) {
+            throw new IOException("failed to commit encrypted blob", e);
+        }
+    }
+
+    /**
+     * Convenience factory that seals a new data key for {@code blob}.
+     * @param account the account (for the envelope, worker pool and context)
+     * @param blob the destination block blob
+     * @param parallelism the maximum number of concurrent block uploads
+     * @return a new stream
+     * @throws IOException if a data key can not be generated
+     */
+    public static EnvelopeOutputStream of(BlobStorageAccount account, CloudBlockBlob blob, int parallelism) throws IOException {
+        try {
+            return new EnvelopeOutputStream(account, blob, account.envelope().seal(), parallelism);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("unable to generate a data key", e);
+        }
+    }
+}
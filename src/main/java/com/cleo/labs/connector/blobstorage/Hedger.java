@@ -0,0 +1,198 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.azure.storage.StorageException;
+
+/**
+ * Issues idempotent read requests with optional hedging: if the request has
+ * not completed after a delay, a duplicate is issued and whichever answers
+ * first is used.
+ * <p/>
+ * The delay is either fixed or, if configured as {@code 0}, adapts to the
+ * observed 95th percentile latency of the same kind of request against the
+ * same storage account.  Hedges are rationed by a budget that earns
+ * {@code maxPercent/100} of a hedge per request (up to a small burst), so
+ * hedges never exceed that fraction of requests over time.
+ */
+public class Hedger {
+
+    /**
+     * An idempotent request that may be issued more than once concurrently.
+     */
+    public interface Request<T> {
+        T call() throws StorageException, URISyntaxException;
+    }
+
+    /**
+     * Delay used for adaptive hedging until enough samples are collected.
+     */
+    public static final long INITIAL_DELAY = 1000L;
+    /**
+     * Floor for the adaptive delay, so that fast requests are not hedged on noise.
+     */
+    public static final long MINIMUM_DELAY = 20L;
+    private static final int MINIMUM_SAMPLES = 20;
+    private static final double MAXIMUM_BURST = 10.0;
+
+    private static final ConcurrentMap<String,LatencyWindow> WINDOWS = new ConcurrentHashMap<>();
+
+    private String account;
+    private boolean enabled;
+    private long delay;
+    private double rate;
+    private double budget;
+    private ExecutorService executor;
+    private final AtomicLong hedged = new AtomicLong();
+
+    /**
+     * Constructs a new Hedger.
+     * @param account the storage account name, scoping the adaptive latency history
+     * @param enabled {@code false} to simply issue each request once on the calling thread
+     * @param delay the fixed hedging delay in milliseconds, or 0 for adaptive
+     * @param maxPercent the maximum percentage of requests that may be hedged
+     * @param executor the pool on which requests are issued
+     */
+    public Hedger(String account, boolean enabled, long delay, int maxPercent, ExecutorService executor) {
+        this.account = account;
+        this.enabled = enabled && maxPercent > 0;
+        this.delay = delay;
+        this.rate = maxPercent / 100.0;
+        this.budget = 1.0;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns {@code true} if requests may be hedged.
+     * @return {@code true} if hedging is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of hedges issued.
+     * @return the number of hedges
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    private LatencyWindow window(String kind) {
+        return WINDOWS.computeIfAbsent(account + "/" + kind, k -> new LatencyWindow());
+    }
+
+    /**
+     * Returns the hedging delay for a kind of request.
+     * @param kind the kind of request
+     * @return the delay in milliseconds
+     */
+    public long delay(String kind) {
+        if (delay > 0) {
+            return delay;
+        }
+        LatencyWindow window = window(kind);
+        if (window.count() < MINIMUM_SAMPLES) {
+            return INITIAL_DELAY;
+        }
+        return Math.max(MINIMUM_DELAY, window.percentile(95));
+    }
+
+    private synchronized void earn() {
+        budget = Math.min(MAXIMUM_BURST, budget + rate);
+    }
+
+    private synchronized boolean spend() {
+        if (budget >= 1.0) {
+            budget -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Issues a request, hedging it if it is slow and the budget allows.
+     * @param kind the kind of request (e.g. "head", "range", "list"), for adaptive delays
+     * @param request the request
+     * @return the result of the first successful attempt
+     * @throws StorageException if all attempts failed
+     * @throws URISyntaxException if all attempts failed
+     */
+    public <T> T call(String kind, Request<T> request) throws StorageException, URISyntaxException {
+        if (!enabled) {
+            return request.call();
+        }
+        earn();
+        LatencyWindow window = window(kind);
+        CompletionService<T> attempts = new ExecutorCompletionService<>(executor);
+        Future<T> primary = attempts.submit(timed(request, window));
+        Future<T> hedge = null;
+        try {
+            Future<T> done = attempts.poll(delay(kind), TimeUnit.MILLISECONDS);
+            if (done == null && spend()) {
+                hedge = attempts.submit(timed(request, window));
+                hedged.incrementAndGet();
+            }
+            int outstanding = hedge == null ? 1 : 2;
+            ExecutionException failure = null;
+            while (outstanding > 0) {
+                if (done == null) {
+                    done = attempts.take();
+                }
+                outstanding--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    done = null; // wait for the other attempt, if any
+                }
+            }
+            throw unwrap(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("OperationInterrupted", "interrupted waiting for a read request",
+                    0, null, e);
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private static <T> Callable<T> timed(Request<T> request, LatencyWindow window) {
+        return () -> {
+            long start = System.nanoTime();
+            T result = request.call();
+            window.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        };
+    }
+
+    private static StorageException unwrap(ExecutionException e) throws URISyntaxException {
+        Throwable cause = e.getCause();
+        if (cause instanceof StorageException) {
+            return (StorageException) cause;
+        } else if (cause instanceof URISyntaxException) {
+            throw (URISyntaxException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new StorageException("OperationFailed", String.valueOf(cause), 0, null,
+                cause instanceof Exception ? (Exception) cause : e);
+    }
+}
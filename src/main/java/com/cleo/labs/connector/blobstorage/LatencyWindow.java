@@ -0,0 +1,75 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.Arrays;
+
+/**
+ * A bounded window of the most recent latency samples (in milliseconds)
+ * from which percentiles can be estimated.
+ */
+public class LatencyWindow {
+    public static final int DEFAULT_SIZE = 512;
+
+    private long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyWindow() {
+        this(DEFAULT_SIZE);
+    }
+
+    public LatencyWindow(int size) {
+        this.samples = new long[size];
+        this.next = 0;
+        this.count = 0;
+    }
+
+    /**
+     * Records a sample, replacing the oldest once the window is full.
+     * @param millis the latency in milliseconds
+     */
+    public synchronized void add(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Returns the number of samples currently in the window.
+     * @return the sample count
+     */
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Estimates a percentile of the samples in the window.
+     * @param percentile the percentile, from 0 to 100
+     * @return the estimate, or -1 if there are no samples
+     */
+    public long percentile(double percentile) {
+        return percentiles(percentile)[0];
+    }
+
+    /**
+     * Estimates several percentiles from a single snapshot of the window.
+     * @param percentiles the percentiles, each from 0 to 100
+     * @return the estimates in the same order, each -1 if there are no samples
+     */
+    public long[] percentiles(double...percentiles) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (sorted.length == 0) {
+                result[i] = -1;
+            } else {
+                int rank = (int) Math.ceil(percentiles[i] / 100.0 * sorted.length) - 1;
+                result[i] = sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultSegment;
+import com.microsoft.azure.storage.StorageException;
+
+/**
+ * A lazy {@link Iterable} over a segmented Azure listing, fetching each page
+ * through a caller-supplied {@link Fetcher} (so that pages can be hedged,
+ * throttled or measured) only as the iteration reaches it.
+ */
+public class Listing<T> implements Iterable<T> {
+
+    /**
+     * Fetches the page following {@code token} ({@code null} for the first page).
+     */
+    public interface Fetcher<T> {
+        ResultSegment<T> fetch(ResultContinuation token) throws StorageException, URISyntaxException;
+    }
+
+    private Fetcher<T> fetcher;
+
+    public Listing(Fetcher<T> fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private Iterator<T> page = Collections.emptyIterator();
+            private ResultContinuation token = null;
+            private boolean more = true;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && more) {
+                    try {
+                        ResultSegment<T> segment = fetcher.fetch(token);
+                        page = segment.getResults().iterator();
+                        token = segment.getContinuationToken();
+                        more = segment.getHasMoreResults() && token != null;
+                    } catch (StorageException | URISyntaxException e) {
+                        NoSuchElementException nse = new NoSuchElementException("error listing blobs: " + e.getMessage());
+                        nse.initCause(e);
+                        throw nse;
+                    }
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,253 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultSegment;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobDirectory;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+
+/**
+ * A flat listing of the blobs under a prefix, in name order, that splits the
+ * key space into disjoint prefix ranges and lists up to {@code parallelism}
+ * of them concurrently on an executor.  Each range is an independent chain
+ * of continuation tokens, so a large listing is no longer bound by the
+ * latency of a single chain.
+ * <p/>
+ * The ranges are seeded from a delimited listing of the top level: its
+ * virtual directories become ranges, and its blobs are returned as they are.
+ * Together they cover every name under the prefix, and they are disjoint and
+ * seeded in name order, so the merged listing is their concatenation.  Each
+ * range prefetches at most {@link #PREFETCH} pages ahead of the reader, and
+ * no thread waits on a slow reader.
+ */
+public class ParallelListing implements Iterable<CloudBlob> {
+    /**
+     * The number of pages a range fetches ahead of the reader.
+     */
+    public static final int PREFETCH = 2;
+
+    /**
+     * The most top level blobs returned together, the size of a listing page.
+     */
+    private static final int RUN = 5000;
+
+    /**
+     * Fetches the flat listing page of {@code prefix} following {@code token}.
+     */
+    public interface Fetcher {
+        ResultSegment<ListBlobItem> fetch(String prefix, ResultContinuation token) throws StorageException, URISyntaxException;
+    }
+
+    private interface Seed {
+        Iterator<Range> ranges();
+    }
+
+    private final Seed seed;
+    private final Fetcher fetcher;
+    private final Executor executor;
+    private final int parallelism;
+
+    private ParallelListing(Seed seed, Fetcher fetcher, Executor executor, int parallelism) {
+        this.seed = seed;
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns a listing seeded from a delimited listing of the top level.
+     * @param top the delimited listing, in name order
+     * @param fetcher fetches the flat pages of a range
+     * @param executor runs the fetches
+     * @param parallelism the number of ranges listed at once
+     * @return the listing
+     */
+    public static ParallelListing sampled(Iterable<ListBlobItem> top, Fetcher fetcher, Executor executor, int parallelism) {
+        return new ParallelListing(() -> new Iterator<Range>() {
+            private final Iterator<ListBlobItem> items = top.iterator();
+            private ListBlobItem next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && items.hasNext()) {
+                    ListBlobItem item = items.next();
+                    if (item instanceof CloudBlob || item instanceof CloudBlobDirectory) {
+                        next = item;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Range next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ListBlobItem item = next;
+                next = null;
+                if (item instanceof CloudBlobDirectory) {
+                    return new Range(((CloudBlobDirectory) item).getPrefix());
+                }
+                // collect the run of top level blobs up to the next directory
+                List<CloudBlob> blobs = new ArrayList<>();
+                blobs.add((CloudBlob) item);
+                while (blobs.size() < RUN && hasNext() && next instanceof CloudBlob) {
+                    blobs.add((CloudBlob) next);
+                    next = null;
+                }
+                return new Range(blobs);
+            }
+        }, fetcher, executor, parallelism);
+    }
+
+    /**
+     * A prefix range and the pages fetched for it but not yet read.
+     */
+    private static class Range {
+        private final String prefix;
+        private final ArrayDeque<List<CloudBlob>> pages = new ArrayDeque<>();
+        private ResultContinuation token = null;
+        private boolean more;
+        private boolean fetching = false;
+        private Exception error = null;
+
+        Range(String prefix) {
+            this.prefix = prefix;
+            this.more = true;
+        }
+
+        Range(List<CloudBlob> blobs) {
+            this.prefix = null;
+            this.more = false;
+            pages.add(blobs);
+        }
+
+        /**
+         * Starts fetching the next page unless one is being fetched, the
+         * prefetch is full or the range is complete.
+         */
+        synchronized void schedule(Fetcher fetcher, Executor executor) {
+            if (!fetching && more && error == null && pages.size() < PREFETCH) {
+                fetching = true;
+                executor.execute(() -> fetch(fetcher, executor));
+            }
+        }
+
+        private void fetch(Fetcher fetcher, Executor executor) {
+            ResultContinuation from;
+            synchronized (this) {
+                from = token;
+            }
+            try {
+                ResultSegment<ListBlobItem> segment = fetcher.fetch(prefix, from);
+                List<CloudBlob> blobs = new ArrayList<>();
+                for (ListBlobItem item : segment.getResults()) {
+                    if (item instanceof CloudBlob) {
+                        blobs.add((CloudBlob) item);
+                    }
+                }
+                synchronized (this) {
+                    pages.add(blobs);
+                    token = segment.getContinuationToken();
+                    more = segment.getHasMoreResults() && token != null;
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    error = e;
+                }
+            }
+            synchronized (this) {
+                fetching = false;
+                notifyAll();
+            }
+            schedule(fetcher, executor);
+        }
+
+        /**
+         * Waits for the next page.
+         * @return the page, or {@code null} at the end of the range
+         */
+        synchronized List<CloudBlob> take(Fetcher fetcher, Executor executor) {
+            schedule(fetcher, executor);
+            while (pages.isEmpty() && error == null && (more || fetching)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NoSuchElementException("interrupted listing blobs");
+                }
+            }
+            if (pages.isEmpty() && error != null) {
+                NoSuchElementException nse = new NoSuchElementException("error listing blobs: " + error.getMessage());
+                nse.initCause(error);
+                throw nse;
+            }
+            List<CloudBlob> page = pages.poll();
+            schedule(fetcher, executor);
+            return page;
+        }
+    }
+
+    @Override
+    public Iterator<CloudBlob> iterator() {
+        return new Iterator<CloudBlob>() {
+            private final Iterator<Range> ranges = seed.ranges();
+            private final ArrayDeque<Range> window = new ArrayDeque<>();
+            private int listing = 0; // ranges in the window still to fetch
+            private Iterator<CloudBlob> page = Collections.emptyIterator();
+
+            /**
+             * Tops up the window from the seed, starting the ranges added.
+             */
+            private void fill() {
+                while (listing < parallelism && window.size() < parallelism * PREFETCH && ranges.hasNext()) {
+                    Range range = ranges.next();
+                    if (range.prefix != null) {
+                        listing++;
+                        range.schedule(fetcher, executor);
+                    }
+                    window.add(range);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext()) {
+                    fill();
+                    Range head = window.peek();
+                    if (head == null) {
+                        return false;
+                    }
+                    List<CloudBlob> next = head.take(fetcher, executor);
+                    if (next == null) {
+                        window.poll();
+                        if (head.prefix != null) {
+                            listing--;
+                        }
+                    } else {
+                        page = next.iterator();
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public CloudBlob next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+}
@@ -1,31 +1,51 @@
 package com.cleo.labs.connector.blobstorage;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 
+/**
+ * An immutable path of node names.  The nodes are held in a shared array,
+ * so {@link #parent()}, {@link #chroot(int)} and {@link #slice(Integer, Integer)}
+ * do not copy, and the rendered string and hash are computed once, so a
+ * Path may be used directly as a map key.
+ */
 public class Path {
 
     static public final String DEFAULT_DELIMITER = "/";
-    
+
+    private static final String[] NO_NODES = new String[0];
+
     /**
-     * The list of String node names
+     * The String node names: {@code nodes[from]} up to (but excluding)
+     * {@code nodes[to]}.  The array is never modified once a Path is constructed.
      */
-    private List<String> nodes;
+    private final String[] nodes;
+    private final int from;
+    private final int to;
+
+    private final String delimiter;
 
-    private String delimiter = DEFAULT_DELIMITER;
+    /**
+     * Lazily computed {@link #toString()} and {@link #hashCode()}.
+     */
+    private String string = null;
+    private int hash = 0;
 
     /**
-     * Internal use only: makes a new Path without attempting
-     * to parse delimiters from the supplied node list.
+     * Internal use only: makes a new Path on a range of the node
+     * array without attempting to parse delimiters.
      * @param nodes
+     * @param from
+     * @param to
      * @param delimiter
      */
-    private Path(List<String> nodes, String delimiter) {
+    private Path(String[] nodes, int from, int to, String delimiter) {
         this.nodes = nodes;
+        this.from = from;
+        this.to = to;
         this.delimiter = delimiter;
     }
 
@@ -41,33 +61,50 @@ public class Path {
      * @param delimiter the delimiter
      */
     public Path(String delimiter) {
-        this.nodes = Collections.emptyList();
-        this.delimiter = delimiter;
+        this(NO_NODES, 0, 0, delimiter);
     }
 
     /**
      * Parses zero or more strings to
-     * form a path, splitting each string by {@link #DEFAULT_DELIMITER}.
+     * form a new path, splitting each string by the delimiter of this path
+     * ({@link #DEFAULT_DELIMITER} unless otherwise constructed).
+     * The delimiter is matched literally.
      * All null or empty strings, in the {@code parse} list or
      * as a result of splitting, are discarded.  This means that
      * leading, trailing, or multiple consecutive delimiters are
      * ignored.  An empty path has length zero.
      * @param parse a (possibly {@code null}) list of (possibly {@code null}) {@code String}s to parse
+     * @return a new Path with this path's delimiter
      */
     public Path parse(String...parse) {
-        this.nodes = new ArrayList<>();
+        List<String> parsed = new ArrayList<>();
         if (parse != null) {
             for (String node : parse) {
                 if (!Strings.isNullOrEmpty(node)) {
-                    for (String element : node.split(delimiter)) {
-                        if (!element.isEmpty()) {
-                            nodes.add(element);
-                        }
-                    }
+                    split(node, parsed);
                 }
             }
         }
-        return this;
+        String[] array = parsed.toArray(new String[parsed.size()]);
+        return new Path(array, 0, array.length, delimiter);
+    }
+
+    private void split(String s, List<String> into) {
+        int start = 0;
+        int length = delimiter.length();
+        if (length == 0) {
+            into.add(s);
+            return;
+        }
+        for (int at = s.indexOf(delimiter); at >= 0; at = s.indexOf(delimiter, start)) {
+            if (at > start) {
+                into.add(s.substring(start, at));
+            }
+            start = at + length;
+        }
+        if (start < s.length()) {
+            into.add(start == 0 ? s : s.substring(start));
+        }
     }
 
     /**
@@ -76,7 +113,7 @@ public class Path {
      * @return
      */
     public int size() {
-        return nodes.size();
+        return to - from;
     }
 
     /**
@@ -85,7 +122,7 @@ public class Path {
      * @return
      */
     public boolean empty() {
-        return nodes.isEmpty();
+        return to == from;
     }
 
     /**
@@ -95,10 +132,10 @@ public class Path {
      * @return a new Path shortened by 1, or {@code this} if the path is already empty
      */
     public Path parent() {
-        if (nodes.isEmpty()) {
+        if (empty()) {
             return this;
         } else {
-            return new Path(nodes.subList(0, nodes.size()-1), delimiter);
+            return new Path(nodes, from, to-1, delimiter);
         }
     }
 
@@ -109,15 +146,15 @@ public class Path {
      * <p/>
      * To safely parse node names for addition to a path, use
      * <pre>
-     *     child(new Path(nodes...))
+     *     child(new Path().parse(nodes...))
      * </pre>
      * @param node the node name (should not be null, empty, or contain the delimiter, but these are not checked)
      * @return a longer path
      */
     public Path child(String node) {
-        List<String> child = new ArrayList<>(nodes);
-        child.add(node);
-        return new Path(child, delimiter);
+        String[] child = Arrays.copyOfRange(nodes, from, to+1);
+        child[child.length-1] = node;
+        return new Path(child, 0, child.length, delimiter);
     }
 
     /**
@@ -127,9 +164,14 @@ public class Path {
      * @return the new Path
      */
     public Path child(Path path) {
-        List<String> child = new ArrayList<>(nodes);
-        child.addAll(path.nodes);
-        return new Path(child, delimiter);
+        if (path.empty() && path.delimiter.equals(delimiter)) {
+            return this;
+        } else if (empty()) {
+            return new Path(path.nodes, path.from, path.to, delimiter);
+        }
+        String[] child = Arrays.copyOfRange(nodes, from, to+path.size());
+        System.arraycopy(path.nodes, path.from, child, size(), path.size());
+        return new Path(child, 0, child.length, delimiter);
     }
 
     /**
@@ -156,18 +198,22 @@ public class Path {
      * @return a (possibly empty) slice of the Path
      */
     public Path slice(Integer fromNullable, Integer toNullable) {
-        int from = fromNullable==null ? 0 : fromNullable;
-        int to = toNullable==null ? nodes.size() : toNullable;
-        if (from < 0) {
-            from = Math.max(0, nodes.size()+from);
+        int size = size();
+        int start = fromNullable==null ? 0 : fromNullable;
+        int end = toNullable==null ? size : toNullable;
+        if (start < 0) {
+            start = Math.max(0, size+start);
+        }
+        start = Math.min(start, size);
+        if (end < 0) {
+            end = Math.max(0, size+end);
         }
-        from = Math.min(from, nodes.size());
-        if (to < 0) {
-            to = Math.max(0, nodes.size()+to);
+        end = Math.min(end, size);
+        end = Math.max(start, end);
+        if (start == 0 && end == size) {
+            return this;
         }
-        to = Math.min(to, nodes.size());
-        to = Math.max(from, to);
-        return new Path(nodes.subList(from, to), delimiter);
+        return new Path(nodes, from+start, from+end, delimiter);
     }
 
     /**
@@ -179,12 +225,12 @@ public class Path {
      */
     public String node(int n) {
         if (n < 0) {
-            n = nodes.size()+n;
+            n = size()+n;
         }
-        if (n < 0 || n >= nodes.size()) {
+        if (n < 0 || n >= size()) {
             return "";
         } else {
-            return nodes.get(n);
+            return nodes[from+n];
         }
     }
 
@@ -199,12 +245,63 @@ public class Path {
 
     /**
      * Returns all of the node names joined back together
-     * with {@link #DEFAULT_DELIMITER} as a separator.  The returned
+     * with the delimiter as a separator.  The returned
      * String neither begins nor ends with the delimiter.  ""
      * is returned for an empty Path.
      */
     @Override
     public String toString() {
-        return Joiner.on(delimiter).join(nodes);
+        String s = string;
+        if (s == null) {
+            if (empty()) {
+                s = "";
+            } else if (size() == 1) {
+                s = nodes[from];
+            } else {
+                StringBuilder sb = new StringBuilder(nodes[from]);
+                for (int i = from+1; i < to; i++) {
+                    sb.append(delimiter).append(nodes[i]);
+                }
+                s = sb.toString();
+            }
+            string = s;
+        }
+        return s;
+    }
+
+    /**
+     * Two Paths are equal if they have the same delimiter and nodes.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (!(obj instanceof Path)) {
+            return false;
+        }
+        Path other = (Path) obj;
+        if (size() != other.size() || !delimiter.equals(other.delimiter) ||
+                (hash != 0 && other.hash != 0 && hash != other.hash)) {
+            return false;
+        }
+        for (int i = 0; i < size(); i++) {
+            if (!nodes[from+i].equals(other.nodes[other.from+i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = delimiter.hashCode();
+            for (int i = from; i < to; i++) {
+                h = 31 * h + nodes[i].hashCode();
+            }
+            hash = h;
+        }
+        return h;
     }
 }
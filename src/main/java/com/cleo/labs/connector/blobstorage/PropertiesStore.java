@@ -0,0 +1,121 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A properties file loaded on first use and saved whenever a value changes,
+ * backing the {@link ETagStore} and the {@link WatermarkStore}.  There is one
+ * store per file, shared by all the clients that name it.
+ */
+public class PropertiesStore {
+    private static final Map<String,PropertiesStore> stores = new HashMap<>();
+
+    private final File file;
+    private final String comment;
+    private final Properties properties;
+
+    /**
+     * Returns the store persisted in {@code file}, loading it on first use.
+     * @param file the properties file (created when first saved)
+     * @param comment the comment written at the top of the file
+     * @return the store
+     * @throws IOException if an existing file can't be read
+     */
+    public static synchronized PropertiesStore of(String file, String comment) throws IOException {
+        File canonical = new File(file).getCanonicalFile();
+        PropertiesStore store = stores.get(canonical.getPath());
+        if (store == null) {
+            store = new PropertiesStore(canonical, comment);
+            stores.put(canonical.getPath(), store);
+        }
+        return store;
+    }
+
+    private PropertiesStore(File file, String comment) throws IOException {
+        this.file = file;
+        this.comment = comment;
+        this.properties = new Properties();
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+            }
+        }
+    }
+
+    /**
+     * Returns the value for {@code key}.
+     * @param key the key
+     * @return the value, or {@code null}
+     */
+    public synchronized String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    /**
+     * Records the value for {@code key} and saves the store if it changed.
+     * @param key the key
+     * @param value the value
+     * @throws IOException
+     */
+    public synchronized void put(String key, String value) throws IOException {
+        if (!value.equals(properties.getProperty(key))) {
+            properties.setProperty(key, value);
+            save();
+        }
+    }
+
+    /**
+     * Writes the store to a temporary file, forced to disk, and moves it into
+     * place, so a crash leaves either the old or the new content.
+     * @throws IOException
+     */
+    private void save() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            Files.createDirectories(dir.toPath());
+        }
+        File tmp = new File(dir, file.getName()+".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, comment);
+            out.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Encodes a string as a single word, with no spaces, tabs or line breaks.
+     * @param s the string
+     * @return the encoded string
+     */
+    public static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a string encoded by {@link #encode(String)}.
+     * @param s the encoded string
+     * @return the string
+     */
+    public static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.HttpURLConnection;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.cleo.connector.api.helper.Logger;
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RequestCompletedEvent;
+import com.microsoft.azure.storage.RequestResult;
+import com.microsoft.azure.storage.ResponseReceivedEvent;
+import com.microsoft.azure.storage.SendingRequestEvent;
+import com.microsoft.azure.storage.StorageEvent;
+
+/**
+ * Per host alias tracing of individual Azure requests.  For every request
+ * the service request ID, status, bytes and timings are kept in a bounded
+ * ring of the most recent {@link #DEFAULT_SIZE} requests (see
+ * {@link BlobStorageMetricsMXBean#dumpTrace()}) and, when enabled, logged
+ * as a structured debug line.
+ * <p/>
+ * Time to first byte runs from sending the request (including any request
+ * body) to receiving the response headers, so it covers the service and the
+ * network; the remainder of the total is spent reading the response body on
+ * the client side.
+ */
+public class RequestTracer {
+    public static final int DEFAULT_SIZE = 1000;
+
+    private static final ConcurrentMap<String,RequestTracer> HOSTS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the tracer for a host alias.
+     * @param alias the host alias
+     * @return the tracer
+     */
+    public static RequestTracer of(String alias) {
+        return HOSTS.computeIfAbsent(alias, k -> new RequestTracer(DEFAULT_SIZE));
+    }
+
+    /**
+     * One traced request.
+     */
+    public static class Trace {
+        private long start;
+        private String clientRequestId;
+        private String serviceRequestId;
+        private String method;
+        private String resource;
+        private int status;
+        private long bytesOut;
+        private long bytesIn;
+        private long ttfb;
+        private long total;
+
+        public long getStart() {
+            return start;
+        }
+
+        public String getClientRequestId() {
+            return clientRequestId;
+        }
+
+        public String getServiceRequestId() {
+            return serviceRequestId;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the request body length, or -1 if unknown
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return the response body length, or -1 if unknown
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return the time to first byte in milliseconds, or -1 if there was no response
+         */
+        public long getTtfb() {
+            return ttfb;
+        }
+
+        /**
+         * @return the total client-observed latency in milliseconds
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+            return String.format("azure-request time=%s client-request-id=%s request-id=%s method=%s resource=%s"+
+                    " status=%d bytes-out=%d bytes-in=%d ttfb-ms=%d total-ms=%d",
+                    format.format(new Date(start)), clientRequestId, serviceRequestId, method, resource,
+                    status, bytesOut, bytesIn, ttfb, total);
+        }
+    }
+
+    private Trace[] ring;
+    private int next;
+    private int count;
+
+    private RequestTracer(int size) {
+        this.ring = new Trace[size];
+        this.next = 0;
+        this.count = 0;
+    }
+
+    private synchronized void add(Trace trace) {
+        ring[next] = trace;
+        next = (next + 1) % ring.length;
+        count = Math.min(count + 1, ring.length);
+    }
+
+    /**
+     * Returns the traced requests currently in the ring, oldest first.
+     * @return the traces
+     */
+    public synchronized List<Trace> recent() {
+        List<Trace> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(ring[(next - count + i + ring.length) % ring.length]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the traced requests currently in the ring as text lines, oldest first.
+     * @return the trace lines
+     */
+    public String[] dump() {
+        List<Trace> recent = recent();
+        String[] lines = new String[recent.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = recent.get(i).toString();
+        }
+        return lines;
+    }
+
+    /**
+     * Clears the ring.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        next = 0;
+        count = 0;
+    }
+
+    private static class InFlight {
+        private Trace trace = new Trace();
+        private long sent;
+        private long received;
+    }
+
+    /**
+     * Attaches tracing listeners to an operation context.
+     * @param context the operation context
+     * @param logger the logger for debug lines, or {@code null} to only record in the ring
+     * @return the context
+     */
+    public OperationContext attach(OperationContext context, Logger logger) {
+        ConcurrentMap<RequestResult,InFlight> inflight = new ConcurrentHashMap<>();
+        context.getSendingRequestEventHandler().addListener(new StorageEvent<SendingRequestEvent>() {
+            @Override
+            public void eventOccurred(SendingRequestEvent event) {
+                InFlight request = new InFlight();
+                request.sent = System.nanoTime();
+                request.trace.start = System.currentTimeMillis();
+                request.trace.clientRequestId = event.getOpContext().getClientRequestID();
+                request.trace.status = 0;
+                request.trace.bytesOut = -1;
+                request.trace.bytesIn = -1;
+                request.trace.ttfb = -1;
+                if (event.getConnectionObject() instanceof HttpURLConnection) {
+                    HttpURLConnection connection = (HttpURLConnection) event.getConnectionObject();
+                    request.trace.method = connection.getRequestMethod();
+                    request.trace.resource = connection.getURL().getPath(); // the query may carry a SAS
+                    String length = connection.getRequestProperty("Content-Length");
+                    if (length != null) {
+                        try {
+                            request.trace.bytesOut = Long.parseLong(length);
+                        } catch (NumberFormatException e) {
+                            // leave it unknown
+                        }
+                    }
+                }
+                inflight.put(event.getRequestResult(), request);
+            }
+        });
+        context.getResponseReceivedEventHandler().addListener(new StorageEvent<ResponseReceivedEvent>() {
+            @Override
+            public void eventOccurred(ResponseReceivedEvent event) {
+                InFlight request = inflight.get(event.getRequestResult());
+                if (request != null) {
+                    request.received = System.nanoTime();
+                    request.trace.ttfb = TimeUnit.NANOSECONDS.toMillis(request.received - request.sent);
+                    if (event.getConnectionObject() instanceof HttpURLConnection) {
+                        request.trace.bytesIn = ((HttpURLConnection) event.getConnectionObject()).getContentLengthLong();
+                    }
+                }
+            }
+        });
+        context.getRequestCompletedEventHandler().addListener(new StorageEvent<RequestCompletedEvent>() {
+            @Override
+            public void eventOccurred(RequestCompletedEvent event) {
+                InFlight request = inflight.remove(event.getRequestResult());
+                if (request != null) {
+                    RequestResult result = event.getRequestResult();
+                    request.trace.total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.sent);
+                    request.trace.status = result.getStatusCode();
+                    request.trace.serviceRequestId = result.getServiceRequestID();
+                    add(request.trace);
+                    if (logger != null) {
+                        logger.debug(request.trace.toString());
+                    }
+                }
+            }
+        });
+        return context;
+    }
+}
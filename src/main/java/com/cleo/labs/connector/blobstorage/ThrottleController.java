@@ -0,0 +1,239 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RequestCompletedEvent;
+import com.microsoft.azure.storage.RequestResult;
+import com.microsoft.azure.storage.ResponseReceivedEvent;
+import com.microsoft.azure.storage.SendingRequestEvent;
+import com.microsoft.azure.storage.StorageErrorCodeStrings;
+import com.microsoft.azure.storage.StorageEvent;
+
+/**
+ * An adaptive (AIMD) limit on the number of concurrent requests to a storage
+ * account, shared by every connection to that account.
+ * <p/>
+ * The controller is attached to each {@link OperationContext}: a request
+ * waits for a slot as it is being sent and gives it back when it completes.
+ * A throttling response (503 ServerBusy, 500 OperationTimedOut or 429) halves
+ * the limit (at most once per {@link #COOLDOWN} so that a burst of throttled
+ * responses to the same overload counts once), and each other response grows
+ * it by {@code 1/limit}, i.e. by about one per round of requests, back up to
+ * the maximum.  Each host on the account registers its own maximum, and the
+ * smallest one applies.
+ */
+public class ThrottleController {
+    /**
+     * Minimum time between two decreases of the limit, in milliseconds.
+     */
+    public static final long COOLDOWN = 1000L;
+    /**
+     * Maximum time a request waits for a slot before proceeding anyway, in
+     * milliseconds, so that a request signed before it waited is not sent
+     * outside the allowed clock skew.
+     */
+    public static final long MAXIMUM_WAIT = 60000L;
+
+    private static final String ERROR_CODE = "x-ms-error-code";
+
+    private static final ConcurrentMap<String,ThrottleController> CONTROLLERS = new ConcurrentHashMap<>();
+
+    private final Map<String,Integer> maxima = new HashMap<>();
+    private int maximum;
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+    private long throttled;
+    private Set<RequestResult> holding = ConcurrentHashMap.newKeySet();
+
+    private ThrottleController() {
+        this.maximum = 0;
+        this.limit = Integer.MAX_VALUE;
+        this.inFlight = 0;
+        this.lastDecrease = 0;
+        this.throttled = 0;
+    }
+
+    /**
+     * Returns the controller shared by all connections to a storage account.
+     * @param account the storage account name
+     * @return the controller
+     */
+    public static ThrottleController of(String account) {
+        return CONTROLLERS.computeIfAbsent(account, k -> new ThrottleController());
+    }
+
+    /**
+     * Returns the controller shared by all connections to a storage account,
+     * registering the maximum of a host.
+     * @param account the storage account name
+     * @param host the host alias
+     * @param maximum the maximum number of concurrent requests of the host, or
+     * 0 for no limit (which leaves the maxima of the other hosts in force)
+     * @return the controller
+     */
+    public static ThrottleController of(String account, String host, int maximum) {
+        ThrottleController controller = of(account);
+        controller.setMaximum(host, maximum);
+        return controller;
+    }
+
+    private synchronized void setMaximum(String host, int hostMaximum) {
+        if (hostMaximum > 0) {
+            maxima.put(host, hostMaximum);
+        } else {
+            maxima.remove(host);
+        }
+        maximum = 0;
+        for (int m : maxima.values()) {
+            maximum = maximum == 0 ? m : Math.min(maximum, m);
+        }
+        this.limit = Math.min(limit, maximum <= 0 ? Integer.MAX_VALUE : maximum);
+        if (maximum > 0 && limit < 1) {
+            limit = 1;
+        }
+        notifyAll();
+    }
+
+    private boolean unlimited() {
+        return maximum <= 0;
+    }
+
+    /**
+     * Returns the smallest maximum registered by the hosts.
+     * @return the maximum, or 0 if there is no limit
+     */
+    public synchronized int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Returns the current limit.
+     * @return the limit, or 0 if there is no limit
+     */
+    public synchronized int getLimit() {
+        return unlimited() ? 0 : (int) limit;
+    }
+
+    /**
+     * Returns the number of requests currently holding a slot.
+     * @return the number of requests in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of throttling responses observed.
+     * @return the throttled response count
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    private synchronized boolean acquire() {
+        if (unlimited()) {
+            return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAXIMUM_WAIT);
+        boolean interrupted = false;
+        while (!unlimited() && inFlight >= (int) limit) {
+            long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (wait <= 0) {
+                break; // proceed without a slot rather than let the signature expire
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        inFlight++;
+        return true;
+    }
+
+    private synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Returns {@code true} for the responses Azure uses to signal throttling:
+     * 503 ServerBusy, 429, and 500 only with the OperationTimedOut error code
+     * (other 500s are ordinary server errors, not a sign of overload).
+     * @param status the HTTP status
+     * @param errorCode the {@code x-ms-error-code} header, or {@code null}
+     * @return {@code true} if the request was throttled
+     */
+    public static boolean isThrottled(int status, String errorCode) {
+        return status == HttpURLConnection.HTTP_UNAVAILABLE ||
+               status == 429 ||
+               status == HttpURLConnection.HTTP_INTERNAL_ERROR &&
+                   StorageErrorCodeStrings.OPERATION_TIMED_OUT.equals(errorCode);
+    }
+
+    private synchronized void response(int status, String errorCode) {
+        if (isThrottled(status, errorCode)) {
+            throttled++;
+            long now = System.currentTimeMillis();
+            if (now - lastDecrease >= COOLDOWN) {
+                limit = Math.max(1.0, limit / 2);
+                lastDecrease = now;
+            }
+        } else if (!unlimited() && status > 0) {
+            limit = Math.min(maximum, limit + 1.0 / limit);
+            notifyAll();
+        }
+    }
+
+    private final StorageEvent<SendingRequestEvent> sending = new StorageEvent<SendingRequestEvent>() {
+        @Override
+        public void eventOccurred(SendingRequestEvent event) {
+            if (acquire()) {
+                holding.add(event.getRequestResult());
+            }
+        }
+    };
+
+    private final StorageEvent<ResponseReceivedEvent> received = new StorageEvent<ResponseReceivedEvent>() {
+        @Override
+        public void eventOccurred(ResponseReceivedEvent event) {
+            String errorCode = event.getConnectionObject() instanceof HttpURLConnection
+                    ? ((HttpURLConnection) event.getConnectionObject()).getHeaderField(ERROR_CODE)
+                    : null;
+            response(event.getRequestResult().getStatusCode(), errorCode);
+        }
+    };
+
+    private final StorageEvent<RequestCompletedEvent> completed = new StorageEvent<RequestCompletedEvent>() {
+        @Override
+        public void eventOccurred(RequestCompletedEvent event) {
+            if (holding.remove(event.getRequestResult())) {
+                release();
+            }
+        }
+    };
+
+    /**
+     * Attaches the controller to an operation context, so that every request
+     * made with the context is admitted by (and reports back to) the controller.
+     * @param context the operation context
+     * @return the context
+     */
+    public OperationContext attach(OperationContext context) {
+        context.getSendingRequestEventHandler().addListener(sending);
+        context.getResponseReceivedEventHandler().addListener(received);
+        context.getRequestCompletedEventHandler().addListener(completed);
+        return context;
+    }
+}
@@ -0,0 +1,439 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static com.cleo.labs.connector.blobstorage.PropertiesStore.decode;
+import static com.cleo.labs.connector.blobstorage.PropertiesStore.encode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * A durable write-behind queue of uploads.  {@link #add} writes the content
+ * to a file in the spool directory and records it in an append-only manifest,
+ * both forced to disk before it returns, and a background uploader drains
+ * the spool on the asynchronous pool of the account, retrying failed uploads
+ * with a capped exponential backoff.  An upload that fails
+ * {@link #MAX_ATTEMPTS} times is moved to the {@code failed} subdirectory,
+ * with its record in the failure log there.  A spool left by a previous run
+ * is recovered when it is first opened.
+ * <p/>
+ * Each upload is recorded with the host alias that added it, and is made
+ * only with the account {@link #start} supplies for that alias, so hosts
+ * sharing a spool directory each drain their own uploads.  Uploads to the
+ * same blob are made in the order they were added.  There is one spool per
+ * directory.
+ */
+public class UploadSpool {
+    private static final ConcurrentMap<String,UploadSpool> SPOOLS = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "blob-spool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The first and longest delays in milliseconds before retrying a failed upload.
+     */
+    public static final long MIN_BACKOFF = 1000L;
+    public static final long MAX_BACKOFF = 60000L;
+
+    /**
+     * The number of attempts after which a failing upload is set aside.
+     */
+    public static final int MAX_ATTEMPTS = 10;
+
+    private static final String MANIFEST = "manifest.log";
+    private static final String DATA = ".data";
+    private static final String FAILED = "failed";
+    private static final String FAILED_LOG = "failed.log";
+
+    private static class Entry {
+        private final long id;
+        private final String alias;
+        private final String container;
+        private final String path;
+        private final String fullPath;
+        private final boolean unique;
+        private final File file;
+        private int attempts = 0;
+        private long notBefore = 0;
+        private boolean running = false;
+
+        Entry(long id, String alias, String container, String path, String fullPath, boolean unique, File file) {
+            this.id = id;
+            this.alias = alias;
+            this.container = container;
+            this.path = path;
+            this.fullPath = fullPath;
+            this.unique = unique;
+            this.file = file;
+        }
+
+        String target() {
+            return container+"/"+path;
+        }
+
+        String[] record() {
+            return new String[] {"ADD", Long.toString(id), encode(alias), encode(container), encode(path),
+                    encode(fullPath), Boolean.toString(unique)};
+        }
+    }
+
+    private final File directory;
+    private final int maxAttempts;
+    private final long minBackoff;
+    private FileChannel manifest;
+    private final TreeMap<Long,Entry> pending = new TreeMap<>(); // in the order added
+    private final Set<String> busy = new HashSet<>();
+    private long nextId = 1;
+    private final Map<String,BlobStorageAccount> accounts = new ConcurrentHashMap<>();
+    private volatile String lastError = null;
+    private int failed = 0;
+
+    /**
+     * Returns the spool in {@code directory}, recovering it on first use.
+     * @param directory the spool directory (created if needed)
+     * @return the spool
+     * @throws IOException if the spool can't be recovered
+     */
+    public static synchronized UploadSpool of(String directory) throws IOException {
+        File dir = new File(directory).getAbsoluteFile();
+        UploadSpool spool = SPOOLS.get(dir.getPath());
+        if (spool == null) {
+            spool = new UploadSpool(dir, MAX_ATTEMPTS, MIN_BACKOFF);
+            SPOOLS.put(dir.getPath(), spool);
+        }
+        return spool;
+    }
+
+    /**
+     * Opens (and recovers) a spool outside the shared registry, with its own
+     * retry limits.
+     * @param directory the spool directory (created if needed)
+     * @param maxAttempts the attempts after which an upload is set aside
+     * @param minBackoff the first delay in milliseconds before a retry
+     * @throws IOException if the spool can't be recovered
+     */
+    UploadSpool(File directory, int maxAttempts, long minBackoff) throws IOException {
+        this.directory = directory;
+        this.maxAttempts = maxAttempts;
+        this.minBackoff = minBackoff;
+        Files.createDirectories(directory.toPath());
+        recover();
+    }
+
+    /**
+     * Sets the account to upload the uploads of a host alias with, replacing
+     * the one of a previous configuration of the host, and starts draining
+     * them.
+     * @param account the account
+     * @param alias the host alias
+     */
+    public void start(BlobStorageAccount account, String alias) {
+        accounts.put(alias, account);
+        drain();
+    }
+
+    /**
+     * Spools the content of an upload, returning once the content and its
+     * manifest record are on disk.
+     * @param alias the host alias, whose account makes the upload
+     * @param container the container name
+     * @param path the blob path within the container
+     * @param fullPath the full path, for attribute cache invalidation
+     * @param unique {@code true} to make a unique name if the blob exists
+     * @param in the content, which is closed
+     * @return the number of bytes spooled
+     * @throws IOException
+     */
+    public long add(String alias, String container, String path, String fullPath, boolean unique, InputStream in) throws IOException {
+        long id;
+        synchronized (this) {
+            id = nextId++;
+        }
+        File file = new File(directory, id+DATA);
+        long size;
+        try (InputStream source = in; FileOutputStream out = new FileOutputStream(file)) {
+            size = ByteStreams.copy(source, out);
+            out.getChannel().force(true);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        synchronized (this) {
+            Entry entry = new Entry(id, alias, container, path, fullPath, unique, file);
+            record(entry.record());
+            pending.put(id, entry);
+        }
+        drain();
+        return size;
+    }
+
+    /**
+     * Returns the number of uploads waiting or in progress.
+     * @return the queue depth
+     */
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of uploads set aside after {@link #MAX_ATTEMPTS}
+     * failures, kept in the {@code failed} subdirectory.
+     * @return the failed count
+     */
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the most recent upload failure.
+     * @return the error, or {@code null}
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Waits until the spool is empty.
+     * @param millis the longest time to wait
+     * @return {@code true} if the spool is empty
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitEmpty(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        for (long wait = millis; !pending.isEmpty() && wait > 0; wait = deadline - System.currentTimeMillis()) {
+            wait(wait);
+        }
+        return pending.isEmpty();
+    }
+
+    /**
+     * Starts the uploads that are due and whose host has started, skipping a
+     * blob while an earlier upload to it is waiting or in progress.
+     */
+    private synchronized void drain() {
+        long now = System.currentTimeMillis();
+        Set<String> blocked = new HashSet<>(busy);
+        for (Entry entry : pending.values()) {
+            String target = entry.target();
+            BlobStorageAccount current = accounts.get(entry.alias);
+            if (current == null || entry.running || !blocked.add(target) || entry.notBefore > now) {
+                continue;
+            }
+            entry.running = true;
+            busy.add(target);
+            current.async().submit(() -> upload(current, entry));
+        }
+    }
+
+    private void upload(BlobStorageAccount current, Entry entry) {
+        try {
+            BlobStorageContainer container = current.getContainer(entry.container);
+            Path path = new Path(current.getDelimiter()).parse(entry.path);
+            BlobStorageContainer.Upload out = container.getOutputStream(path, false, entry.unique);
+            try (InputStream in = Files.newInputStream(entry.file.toPath())) {
+                ByteStreams.copy(in, out);
+            }
+            out.close(); // commits: skipped if the copy failed
+            done(entry);
+        } catch (Exception e) {
+            failed(entry, e);
+        }
+    }
+
+    private synchronized void done(Entry entry) {
+        AttrCache.invalidate(entry.alias, new Path().parse(entry.fullPath));
+        entry.file.delete();
+        remove(entry);
+    }
+
+    private synchronized void failed(Entry entry, Exception e) {
+        entry.running = false;
+        busy.remove(entry.target());
+        entry.attempts++;
+        lastError = String.format("upload of %s failed (attempt %d): %s", entry.target(), entry.attempts, e);
+        if (entry.attempts >= maxAttempts) {
+            try {
+                setAside(entry, e);
+            } catch (IOException io) {
+                lastError = "unable to set aside the failed upload of "+entry.target()+": "+io.getMessage();
+            }
+            // left pending (and retried) if it could not be set aside
+        }
+        if (pending.containsKey(entry.id)) {
+            long backoff = Math.min(MAX_BACKOFF, minBackoff << Math.min(entry.attempts-1, 16));
+            entry.notBefore = System.currentTimeMillis() + backoff;
+            TIMER.schedule(this::drain, backoff, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Moves the content of an upload that keeps failing to the failed
+     * subdirectory, appending its record and the error to the failure log
+     * there, and removes it from the spool.
+     * @param entry the upload
+     * @param e the last error
+     * @throws IOException
+     */
+    private void setAside(Entry entry, Exception e) throws IOException {
+        File dir = new File(directory, FAILED);
+        Files.createDirectories(dir.toPath());
+        List<String> fields = new ArrayList<>(Arrays.asList(entry.record()));
+        fields.set(0, "FAILED");
+        fields.add(encode(String.valueOf(e)));
+        try (FileChannel log = FileChannel.open(new File(dir, FAILED_LOG).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            append(log, fields.toArray(new String[fields.size()]));
+        }
+        // never replaces: an id collision fails (and is retried) rather than lose a set aside upload
+        Files.move(entry.file.toPath(), new File(dir, entry.file.getName()).toPath());
+        failed++;
+        remove(entry);
+    }
+
+    /**
+     * Records an upload as done and removes it from the spool.
+     * @param entry the upload
+     */
+    private void remove(Entry entry) {
+        pending.remove(entry.id);
+        busy.remove(entry.target());
+        try {
+            record("DONE", Long.toString(entry.id));
+            if (pending.isEmpty()) {
+                manifest.truncate(0);
+                manifest.force(true);
+            }
+        } catch (IOException e) {
+            lastError = "unable to update the spool manifest: "+e.getMessage();
+        }
+        notifyAll();
+        drain();
+    }
+
+    /**
+     * Appends a record to the manifest and forces it to disk.
+     * @param fields the record fields
+     * @throws IOException
+     */
+    private void record(String...fields) throws IOException {
+        append(manifest, fields);
+    }
+
+    private static void append(FileChannel channel, String...fields) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((String.join("\t", fields)+"\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Reads the manifest, keeping the uploads added but not done whose
+     * content is on disk, removes any other content files, and rewrites
+     * the manifest with just the pending uploads.  Counts the uploads set
+     * aside in the failed subdirectory, and numbers new uploads after both
+     * them and the pending ones, so that no id is reused.
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        File file = new File(directory, MANIFEST);
+        Map<Long,String[]> added = new LinkedHashMap<>();
+        if (file.exists()) {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                try {
+                    if (fields[0].equals("ADD") && fields.length == 7) {
+                        added.put(Long.parseLong(fields[1]), fields);
+                    } else if (fields[0].equals("DONE") && fields.length == 2) {
+                        added.remove(Long.parseLong(fields[1]));
+                    }
+                } catch (NumberFormatException e) {
+                    // a torn last line: ignore it
+                }
+            }
+        }
+        Map<Long,File> data = new HashMap<>();
+        File[] files = directory.listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            long id = id(f);
+            if (id > 0) {
+                data.put(id, f);
+                nextId = Math.max(nextId, id+1);
+            }
+        }
+        for (Map.Entry<Long,String[]> e : added.entrySet()) {
+            File content = data.remove(e.getKey());
+            if (content != null) {
+                String[] fields = e.getValue();
+                pending.put(e.getKey(), new Entry(e.getKey(), decode(fields[2]), decode(fields[3]), decode(fields[4]),
+                        decode(fields[5]), Boolean.parseBoolean(fields[6]), content));
+            }
+        }
+        for (File orphan : data.values()) {
+            orphan.delete(); // spooled but never acknowledged
+        }
+        File[] aside = new File(directory, FAILED).listFiles();
+        failed = 0;
+        for (File f : aside == null ? new File[0] : aside) {
+            long id = id(f);
+            if (id > 0) {
+                failed++;
+                nextId = Math.max(nextId, id+1);
+            }
+        }
+
+        File tmp = new File(directory, MANIFEST+".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            for (Entry entry : pending.values()) {
+                out.write((String.join("\t", entry.record())+"\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        manifest = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Returns the id of a content file.
+     * @param file the file
+     * @return the id, or 0 if the file is not a content file
+     */
+    private static long id(File file) {
+        String name = file.getName();
+        if (name.endsWith(DATA)) {
+            try {
+                return Long.parseLong(name.substring(0, name.length()-DATA.length()));
+            } catch (NumberFormatException e) {
+                // not ours
+            }
+        }
+        return 0;
+    }
+}
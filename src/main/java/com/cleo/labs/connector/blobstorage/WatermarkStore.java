@@ -0,0 +1,371 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static com.cleo.labs.connector.blobstorage.PropertiesStore.decode;
+import static com.cleo.labs.connector.blobstorage.PropertiesStore.encode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Strings;
+
+/**
+ * The watermark of each folder scanned by an incremental DIR, kept in a
+ * {@link PropertiesStore} so that only new or changed blobs are returned
+ * after a restart too.
+ * <p/>
+ * A listing is not a snapshot: a blob committed while the folder is listed
+ * is missed if its name was already passed, and a blob may become visible a
+ * little after its last modified time.  So the watermark is not the latest
+ * time listed, but the time the listing started by the service clock, less
+ * {@link #MARGIN}, and the ETags of the blobs modified after that are kept.
+ * The watermark of a folder only moves, and the properties file is only
+ * saved, when a DIR returns a blob that was not already pending.
+ * <p/>
+ * A blob returned by a DIR stays pending, and is returned again by every DIR,
+ * until it is {@link #retrieved}: a failed pickup, or a DIR made for another
+ * purpose, does not hide it.  The pending and retrieved blobs are recorded in
+ * an append-only journal next to the properties file, so that a GET appends
+ * a line rather than saving the store.  The journal is rewritten with just
+ * the live records when a watermark moves.  There is one store per file.
+ */
+public class WatermarkStore {
+    /**
+     * How long before the start of a listing the watermark is set, in
+     * milliseconds, covering the one second resolution of the times and the
+     * time a commit takes to become visible.
+     */
+    public static final long MARGIN = 30000L;
+
+    /**
+     * The suffix of the journal of pending and retrieved blobs.
+     */
+    private static final String JOURNAL = ".pending";
+
+    private static final Map<String,WatermarkStore> stores = new HashMap<>();
+
+    /**
+     * The watermark time of a folder, the ETag of each blob modified after it
+     * that was not new or has been retrieved, and the ETag of each blob
+     * returned but not yet retrieved.
+     */
+    public static class Watermark {
+        private final long lastModified;
+        private final Map<String,String> seen;
+        private final Map<String,String> pending;
+
+        public Watermark(long lastModified, Map<String,String> seen, Map<String,String> pending) {
+            this.lastModified = lastModified;
+            this.seen = seen;
+            this.pending = pending;
+        }
+
+        /**
+         * Returns {@code true} if a blob is new or changed since this
+         * watermark, or was returned but not retrieved.
+         * @param name the blob name
+         * @param lastModified the blob last modified time
+         * @param etag the blob ETag
+         * @return {@code true} if the blob is to be returned
+         */
+        public boolean isNew(String name, long lastModified, String etag) {
+            return pending.containsKey(name)
+                    || lastModified > this.lastModified && !Objects.equals(etag, seen.get(name));
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Computes the next watermark from the blobs of a scan, keeping only the
+     * blobs it returns and the blobs modified after the next watermark time.
+     */
+    public static class Scan {
+        private final Watermark previous;
+        private final long started;
+        private final LongSupplier skew;
+        private long lastModified;
+        private boolean listed = false;
+        private boolean changed = false;
+        private final Map<String,String> seen = new HashMap<>();
+        private final Map<String,String> returned = new HashMap<>();
+
+        /**
+         * Starts a scan from {@code previous}, which may be {@code null}.
+         * The skew is read at the first blob, so it is as of the first
+         * listing response.
+         * @param previous the current watermark
+         * @param started the local time the listing started
+         * @param skew the service clock less the local clock, in milliseconds
+         */
+        public Scan(Watermark previous, long started, LongSupplier skew) {
+            this.previous = previous;
+            this.started = started;
+            this.skew = skew;
+        }
+
+        /**
+         * Records a blob listed by the scan.
+         * @param name the blob name
+         * @param lastModified the blob last modified time
+         * @param etag the blob ETag
+         * @return {@code true} if the blob is to be returned
+         */
+        public boolean add(String name, long lastModified, String etag) {
+            if (!listed) {
+                this.lastModified = started + skew.getAsLong() - MARGIN;
+                listed = true;
+            }
+            if (previous == null || previous.isNew(name, lastModified, etag)) {
+                returned.put(name, etag);
+                changed |= previous == null || !previous.pending.containsKey(name)
+                        || !Objects.equals(etag, previous.pending.get(name));
+                return true;
+            }
+            if (lastModified > this.lastModified) {
+                seen.put(name, etag);
+            }
+            return false;
+        }
+
+        /**
+         * Returns {@code true} if the scan returned a blob that was not
+         * already pending, so the watermark is to move.
+         * @return {@code true} if changed
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+
+        /**
+         * Returns the watermark for the next scan.
+         * @return the watermark
+         */
+        public Watermark watermark() {
+            return new Watermark(lastModified, seen, returned);
+        }
+    }
+
+    private final PropertiesStore watermarks;
+    private final File file;
+    private FileChannel journal = null;
+    private final Map<String,Map<String,String>> pending = new HashMap<>();
+    private final Map<String,Map<String,String>> retrieved = new HashMap<>();
+
+    /**
+     * Returns the store persisted in {@code file}, loading it on first use.
+     * @param file the properties file (created when first saved)
+     * @return the store
+     * @throws IOException if an existing file can't be read
+     */
+    public static synchronized WatermarkStore of(String file) throws IOException {
+        File canonical = new File(file).getCanonicalFile();
+        WatermarkStore store = stores.get(canonical.getPath());
+        if (store == null) {
+            store = new WatermarkStore(PropertiesStore.of(file, "Azure Blob DIR Watermarks"),
+                    new File(canonical.getPath()+JOURNAL));
+            stores.put(canonical.getPath(), store);
+        }
+        return store;
+    }
+
+    /**
+     * Opens a store outside the shared registry, replaying its journal.
+     * @param watermarks the properties holding the watermarks
+     * @param file the journal file (created when first written)
+     * @throws IOException if an existing journal can't be read
+     */
+    WatermarkStore(PropertiesStore watermarks, File file) throws IOException {
+        this.watermarks = watermarks;
+        this.file = file;
+        recover();
+    }
+
+    /**
+     * Returns the watermark for {@code key}.
+     * @param key the key (the full path of the folder)
+     * @return the watermark, or {@code null} if the folder was never scanned
+     */
+    public synchronized Watermark get(String key) {
+        String value = watermarks.get(key);
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(" ");
+        try {
+            Map<String,String> seen = new HashMap<>();
+            for (int i = 1; i + 1 < fields.length; i += 2) {
+                seen.put(decode(fields[i]), Strings.emptyToNull(decode(fields[i+1])));
+            }
+            seen.putAll(retrieved.getOrDefault(key, Collections.emptyMap()));
+            return new Watermark(Long.parseLong(fields[0]), seen,
+                    new HashMap<>(pending.getOrDefault(key, Collections.emptyMap())));
+        } catch (NumberFormatException e) {
+            return null; // rescan
+        }
+    }
+
+    /**
+     * Moves the watermark for {@code key} if the scan changed it, saving the
+     * store and rewriting the journal.
+     * @param key the key (the full path of the folder)
+     * @param scan the completed scan
+     * @throws IOException
+     */
+    public synchronized void put(String key, Scan scan) throws IOException {
+        if (!scan.isChanged()) {
+            return;
+        }
+        Watermark watermark = scan.watermark();
+        StringBuilder value = new StringBuilder(Long.toString(watermark.lastModified));
+        for (Map.Entry<String,String> e : watermark.seen.entrySet()) {
+            value.append(' ').append(encode(e.getKey())).append(' ').append(encode(Strings.nullToEmpty(e.getValue())));
+        }
+        watermarks.put(key, value.toString());
+
+        // a blob retrieved while the folder was listed stays retrieved
+        Map<String,String> returned = new HashMap<>(watermark.pending);
+        Map<String,String> kept = new HashMap<>();
+        for (Map.Entry<String,String> e : retrieved.getOrDefault(key, Collections.emptyMap()).entrySet()) {
+            if (returned.containsKey(e.getKey()) && Objects.equals(e.getValue(), returned.get(e.getKey()))) {
+                returned.remove(e.getKey());
+                kept.put(e.getKey(), e.getValue());
+            }
+        }
+        update(pending, key, returned);
+        update(retrieved, key, kept);
+        compact();
+    }
+
+    private static void update(Map<String,Map<String,String>> map, String key, Map<String,String> blobs) {
+        if (blobs.isEmpty()) {
+            map.remove(key);
+        } else {
+            map.put(key, blobs);
+        }
+    }
+
+    /**
+     * Records that a blob returned by a DIR of {@code key} was retrieved, so
+     * it is not returned again unless it changes, appending it to the
+     * journal.
+     * @param key the key (the full path of the folder)
+     * @param name the blob name
+     * @throws IOException
+     */
+    public synchronized void retrieved(String key, String name) throws IOException {
+        Map<String,String> blobs = pending.get(key);
+        if (blobs != null && blobs.containsKey(name)) {
+            String etag = blobs.remove(name);
+            if (blobs.isEmpty()) {
+                pending.remove(key);
+            }
+            retrieved.computeIfAbsent(key, k -> new HashMap<>()).put(name, etag);
+            append("RETRIEVED", key, name, etag);
+        }
+    }
+
+    /**
+     * Appends a record to the journal and forces it to disk.
+     * @param type the record type
+     * @param key the key (the full path of the folder)
+     * @param name the blob name
+     * @param etag the blob ETag
+     * @throws IOException
+     */
+    private void append(String type, String key, String name, String etag) throws IOException {
+        if (journal == null) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null) {
+                Files.createDirectories(dir.toPath());
+            }
+            journal = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer line = ByteBuffer.wrap(record(type, key, name, etag).getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            journal.write(line);
+        }
+        journal.force(true);
+    }
+
+    private static String record(String type, String key, String name, String etag) {
+        return String.join("\t", type, encode(key), encode(name), encode(Strings.nullToEmpty(etag)))+"\n";
+    }
+
+    /**
+     * Replays the journal and rewrites it with just the live records.
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            try {
+                if (fields.length == 4) {
+                    String key = decode(fields[1]);
+                    String name = decode(fields[2]);
+                    String etag = Strings.emptyToNull(decode(fields[3]));
+                    if (fields[0].equals("PENDING")) {
+                        pending.computeIfAbsent(key, k -> new HashMap<>()).put(name, etag);
+                    } else if (fields[0].equals("RETRIEVED")) {
+                        Map<String,String> blobs = pending.get(key);
+                        if (blobs != null && blobs.remove(name) != null && blobs.isEmpty()) {
+                            pending.remove(key);
+                        }
+                        retrieved.computeIfAbsent(key, k -> new HashMap<>()).put(name, etag);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // a torn last line: ignore it
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Writes the live records to a temporary file, forced to disk, and moves
+     * it into place as the journal.
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            Files.createDirectories(dir.toPath());
+        }
+        File tmp = new File(dir, file.getName()+".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            write(out, "PENDING", pending);
+            write(out, "RETRIEVED", retrieved);
+            out.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(FileOutputStream out, String type, Map<String,Map<String,String>> records) throws IOException {
+        for (Map.Entry<String,Map<String,String>> key : records.entrySet()) {
+            for (Map.Entry<String,String> e : key.getValue().entrySet()) {
+                out.write(record(type, key.getKey(), e.getKey(), e.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A script of adverse network conditions for {@link LocalBlobService}.
+ * Rules are added per REST operation name (e.g. {@code GetBlob},
+ * {@code PutBlock}, see {@link LocalBlobService.Request#operation()}) or for
+ * {@link #ANY} operation, and every rule matching a request applies:
+ * <pre>
+ * service.faults().on("GetBlob").latency(FaultInjector.uniform(10, 50)).bandwidth(256*1024);
+ * service.faults().on("PutBlock").busy(3);
+ * service.faults().on(FaultInjector.ANY).reset(1, 4096);
+ * </pre>
+ * Random choices are drawn from a seeded generator so that a script is
+ * reproducible.
+ */
+public class FaultInjector {
+    public static final String ANY = "*";
+
+    /**
+     * The kinds of injected faults, as counted by {@link #getInjected(Fault)}.
+     */
+    public enum Fault { LATENCY, FIRST_BYTE, BANDWIDTH, BUSY, RESET };
+
+    /**
+     * A distribution of delays in milliseconds.
+     */
+    @FunctionalInterface
+    public interface Distribution {
+        long sample(Random random);
+    }
+
+    public static Distribution fixed(long millis) {
+        return random -> millis;
+    }
+
+    public static Distribution uniform(long min, long max) {
+        return random -> min + (long) (random.nextDouble() * (max - min));
+    }
+
+    public static Distribution exponential(long mean) {
+        return random -> (long) (-mean * Math.log(1.0 - random.nextDouble()));
+    }
+
+    public static Distribution normal(long mean, long deviation) {
+        return random -> Math.max(0L, Math.round(mean + random.nextGaussian() * deviation));
+    }
+
+    /**
+     * A rule for one operation (or {@link FaultInjector#ANY}).  The setters
+     * return the rule for chaining.
+     */
+    public class Rule {
+        private String operation;
+        private Distribution latency = null;
+        private Distribution firstByte = null;
+        private long bandwidth = 0;
+        private int busy = 0;
+        private double busyRate = 0.0;
+        private int resets = 0;
+        private long resetAfter = 0;
+
+        private Rule(String operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Delays the response (before any processing) by a sampled latency.
+         * @param latency the latency distribution
+         * @return this
+         */
+        public Rule latency(Distribution latency) {
+            synchronized (FaultInjector.this) {
+                this.latency = latency;
+            }
+            return this;
+        }
+
+        /**
+         * Delays the first byte of a response body by a sampled latency,
+         * after the status and headers have been sent.
+         * @param firstByte the delay distribution
+         * @return this
+         */
+        public Rule firstByte(Distribution firstByte) {
+            synchronized (FaultInjector.this) {
+                this.firstByte = firstByte;
+            }
+            return this;
+        }
+
+        /**
+         * Caps the request and response body transfer rates.
+         * @param bytesPerSecond the cap, or 0 for unlimited
+         * @return this
+         */
+        public Rule bandwidth(long bytesPerSecond) {
+            synchronized (FaultInjector.this) {
+                this.bandwidth = bytesPerSecond;
+            }
+            return this;
+        }
+
+        /**
+         * Fails the next {@code count} requests with 503 ServerBusy.
+         * @param count the burst length
+         * @return this
+         */
+        public Rule busy(int count) {
+            synchronized (FaultInjector.this) {
+                this.busy = count;
+            }
+            return this;
+        }
+
+        /**
+         * Fails a fraction of requests with 503 ServerBusy.
+         * @param rate the probability, from 0.0 to 1.0
+         * @return this
+         */
+        public Rule busyRate(double rate) {
+            synchronized (FaultInjector.this) {
+                this.busyRate = rate;
+            }
+            return this;
+        }
+
+        /**
+         * Drops the connection of the next {@code count} responses after
+         * {@code after} bytes of the body have been sent.
+         * @param count the number of responses to reset
+         * @param after the number of body bytes sent before the reset
+         * @return this
+         */
+        public Rule reset(int count, long after) {
+            synchronized (FaultInjector.this) {
+                this.resets = count;
+                this.resetAfter = after;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * The conditions chosen for a single request.
+     */
+    public static class Plan {
+        public long latency = 0;
+        public long firstByte = 0;
+        public long bandwidth = 0;
+        public boolean busy = false;
+        public long resetAfter = -1;
+    }
+
+    private Random random;
+    private List<Rule> rules = new ArrayList<>();
+    private Map<Fault,AtomicLong> injected = new EnumMap<>(Fault.class);
+
+    public FaultInjector() {
+        this(0L);
+    }
+
+    public FaultInjector(long seed) {
+        this.random = new Random(seed);
+        for (Fault fault : Fault.values()) {
+            injected.put(fault, new AtomicLong());
+        }
+    }
+
+    /**
+     * Adds a rule for an operation.
+     * @param operation the operation name, or {@link #ANY}
+     * @return the new rule
+     */
+    public synchronized Rule on(String operation) {
+        Rule rule = new Rule(operation);
+        rules.add(rule);
+        return rule;
+    }
+
+    /**
+     * Removes all rules and resets the counters.
+     */
+    public synchronized void clear() {
+        rules.clear();
+        for (AtomicLong count : injected.values()) {
+            count.set(0);
+        }
+    }
+
+    /**
+     * Returns the number of requests a fault was injected into.
+     * @param fault the kind of fault
+     * @return the count
+     */
+    public long getInjected(Fault fault) {
+        return injected.get(fault).get();
+    }
+
+    /**
+     * Chooses the conditions for a request, combining all matching rules:
+     * delays add, the lowest bandwidth cap wins, and a busy response takes
+     * precedence over a reset.
+     * @param operation the operation name
+     * @return the plan
+     */
+    public synchronized Plan plan(String operation) {
+        Plan plan = new Plan();
+        for (Rule rule : rules) {
+            if (!rule.operation.equals(ANY) && !rule.operation.equals(operation)) {
+                continue;
+            }
+            if (rule.latency != null) {
+                plan.latency += rule.latency.sample(random);
+            }
+            if (rule.firstByte != null) {
+                plan.firstByte += rule.firstByte.sample(random);
+            }
+            if (rule.bandwidth > 0 && (plan.bandwidth == 0 || rule.bandwidth < plan.bandwidth)) {
+                plan.bandwidth = rule.bandwidth;
+            }
+            if (!plan.busy && rule.busy > 0) {
+                rule.busy--;
+                plan.busy = true;
+            } else if (!plan.busy && rule.busyRate > 0.0 && random.nextDouble() < rule.busyRate) {
+                plan.busy = true;
+            }
+        }
+        for (Rule rule : rules) {
+            if (plan.busy || plan.resetAfter >= 0) {
+                break;
+            } else if ((rule.operation.equals(ANY) || rule.operation.equals(operation)) && rule.resets > 0) {
+                rule.resets--;
+                plan.resetAfter = rule.resetAfter;
+            }
+        }
+        count(Fault.LATENCY, plan.latency > 0);
+        count(Fault.FIRST_BYTE, plan.firstByte > 0 && !plan.busy);
+        count(Fault.BANDWIDTH, plan.bandwidth > 0 && !plan.busy);
+        count(Fault.BUSY, plan.busy);
+        count(Fault.RESET, plan.resetAfter >= 0 && !plan.busy);
+        return plan;
+    }
+
+    private void count(Fault fault, boolean applied) {
+        if (applied) {
+            injected.get(fault).incrementAndGet();
+        }
+    }
+}
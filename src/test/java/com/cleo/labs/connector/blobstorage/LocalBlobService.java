@@ -0,0 +1,1226 @@
+package com.cleo.labs.connector.blobstorage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.cleo.connector.api.property.CommonProperty;
+import com.cleo.connector.shell.interfaces.IConnectorHost;
+import com.cleo.labs.connector.testing.TestConnector;
+import com.cleo.labs.connector.testing.TestConnectorHost;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Azure Blob service, implementing the subset
+ * of the REST API the connector uses over plain HTTP on the loopback
+ * interface:
+ * <ul><li>containers: create, delete, get properties and list</li>
+ *     <li>blobs: put (block and append), put block, put block list, get block
+ *         list, append block, get (with ranges), head, delete, copy and set
+ *         metadata</li>
+ *     <li>list blobs with prefix, delimiter, markers and metadata</li>
+ *     <li>If-Match and If-None-Match conditions</li></ul>
+ * Adverse network conditions can be scripted per operation with
+ * {@link #faults()}.
+ * Requests must be signed with SharedKey for the configured account, so the
+ * SDK is exercised unmodified: point a connection string at
+ * {@link #getEndpoint()} (see {@link #getConnectionString()}), or set the
+ * {@code BlobEndpoint} connector property.  Blobs are kept in memory.
+ */
+public class LocalBlobService implements AutoCloseable {
+    /**
+     * The well-known development storage account and key.
+     */
+    public static final String ACCOUNT = "devstoreaccount1";
+    public static final String KEY = "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+
+    public static final String VERSION = "2017-07-29";
+    public static final int DEFAULT_MAX_RESULTS = 5000;
+    public static final int CHUNK = 8192;
+
+    private static final String BLOCK_BLOB = "BlockBlob";
+    private static final String APPEND_BLOB = "AppendBlob";
+    private static final String META = "x-ms-meta-";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern BLOCK = Pattern.compile("<(Latest|Committed|Uncommitted)>([^<]*)</\\1>");
+    private static final String[] SIGNED_HEADERS = { "Content-Encoding", "Content-Language", "Content-Length",
+            "Content-MD5", "Content-Type", "Date", "If-Modified-Since", "If-Match", "If-None-Match",
+            "If-Unmodified-Since", "Range" };
+
+    private String account;
+    private byte[] key;
+    private HttpServer server;
+    private ExecutorService executor;
+    private ConcurrentMap<String,Container> containers = new ConcurrentSkipListMap<>();
+    private AtomicLong etags = new AtomicLong(System.currentTimeMillis());
+    private AtomicLong requests = new AtomicLong();
+    private FaultInjector faults = new FaultInjector();
+
+    /**
+     * A stored blob.  Blobs are replaced, never modified, so a reader always
+     * sees a consistent snapshot.
+     */
+    protected static class Blob {
+        private String type;
+        private byte[] content;
+        private String etag;
+        private long lastModified;
+        private String contentType;
+        private String contentMD5;
+        private Map<String,String> metadata;
+        private Map<String,byte[]> blocks;
+        private int appendBlocks;
+        private String copyId;
+        private String copySource;
+    }
+
+    protected static class Container {
+        private String etag;
+        private long lastModified;
+        private Map<String,String> metadata;
+        private ConcurrentSkipListMap<String,Blob> blobs = new ConcurrentSkipListMap<>();
+        private ConcurrentMap<String,Map<String,byte[]>> staged = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * A parsed request.
+     */
+    protected static class Request {
+        protected HttpExchange exchange;
+        protected String method;
+        protected String container;
+        protected String blob;
+        protected Map<String,List<String>> query;
+        protected byte[] body;
+        protected String operation;
+        protected FaultInjector.Plan plan;
+
+        public String header(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        public String param(String name) {
+            List<String> values = query.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        /**
+         * Returns the REST operation name, e.g. {@code GetBlob} or {@code PutBlock}.
+         * @return the operation name
+         */
+        public String operation() {
+            return operation;
+        }
+    }
+
+    /**
+     * A service error, rendered as an Azure error response.
+     */
+    protected static class ServiceError extends Exception {
+        private static final long serialVersionUID = 1L;
+        private int status;
+        private String code;
+
+        public ServiceError(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+    }
+
+    /**
+     * Signals a deliberately dropped connection.
+     */
+    private static class Reset extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Starts a service for the development storage account.
+     * @throws IOException
+     */
+    public LocalBlobService() throws IOException {
+        this(ACCOUNT, KEY);
+    }
+
+    /**
+     * Starts a service for an account on an ephemeral loopback port.
+     * @param account the account name
+     * @param key the base64 account key
+     * @throws IOException
+     */
+    public LocalBlobService(String account, String key) throws IOException {
+        this.account = account;
+        this.key = Base64.getDecoder().decode(key);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "local-blob-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::exchange);
+        server.start();
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getKey() {
+        return Base64.getEncoder().encodeToString(key);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the (path-style) blob endpoint for the account.
+     * @return the endpoint URL
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + getPort() + "/" + account;
+    }
+
+    public String getConnectionString() {
+        return "DefaultEndpointsProtocol=http;AccountName=" + account + ";AccountKey=" + getKey()
+                + ";BlobEndpoint=" + getEndpoint() + ";";
+    }
+
+    /**
+     * Returns a connector client for the account, with debug enabled.
+     * @param container the container, or {@code null} for the account level
+     * @param properties further connector properties, as name and value pairs
+     * (overriding the defaults)
+     * @return the client
+     */
+    public BlobStorageConnectorClient client(String container, String...properties) {
+        BlobStorageConnectorSchema blobSchema = new BlobStorageConnectorSchema();
+        blobSchema.setup();
+        TestConnector connector = new TestConnector(System.err)
+                .set("StorageAccountName", getAccount())
+                .set("AccessKey", getKey())
+                .set("BlobEndpoint", getEndpoint())
+                .set(CommonProperty.EnableDebug.name(), Boolean.TRUE.toString());
+        if (!Strings.isNullOrEmpty(container)) {
+            connector.set("Container", container);
+        }
+        for (int i = 0; i + 1 < properties.length; i += 2) {
+            connector.set(properties[i], properties[i+1]);
+        }
+        BlobStorageConnectorClient client = new BlobStorageConnectorClient(blobSchema);
+        IConnectorHost connectorHost = new TestConnectorHost(client);
+        client.setup(connector, blobSchema, connectorHost);
+        return client;
+    }
+
+    /**
+     * Returns the fault script applied to requests, initially empty.
+     * @return the fault injector
+     */
+    public FaultInjector faults() {
+        return faults;
+    }
+
+    /**
+     * Returns the number of requests received.
+     * @return the request count
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /*------------------------------------------------------------------------
+     * Request handling
+     *----------------------------------------------------------------------*/
+
+    private void exchange(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Request request = parse(exchange);
+            request.plan = faults.plan(request.operation);
+            pause(request.plan.latency);
+            pace(request.body.length, request.plan.bandwidth);
+            if (request.plan.busy) {
+                error(exchange, 503, "ServerBusy", "The server is busy.");
+                return;
+            }
+            serve(request);
+        } catch (Reset e) {
+            // close without completing the response
+        } catch (Exception e) {
+            try {
+                error(exchange, 500, "InternalError", String.valueOf(e));
+            } catch (IOException ignore) {
+                // the response was already started
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Request parse(HttpExchange exchange) throws IOException {
+        Request request = new Request();
+        request.exchange = exchange;
+        request.method = exchange.getRequestMethod();
+        request.body = ByteStreams.toByteArray(exchange.getRequestBody());
+        request.query = query(exchange.getRequestURI().getRawQuery());
+        String path = exchange.getRequestURI().getPath();
+        String prefix = "/" + account;
+        if (path.startsWith(prefix)) {
+            path = path.substring(prefix.length());
+        } else {
+            path = null; // will fail authentication
+        }
+        if (path != null && path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path != null && !path.isEmpty()) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                request.container = path;
+            } else {
+                request.container = path.substring(0, slash);
+                request.blob = path.substring(slash + 1);
+                if (request.blob.isEmpty()) {
+                    request.blob = null;
+                }
+            }
+        }
+        request.operation = operation(request);
+        return request;
+    }
+
+    private static Map<String,List<String>> query(String raw) throws UnsupportedEncodingException {
+        Map<String,List<String>> query = new HashMap<>();
+        if (raw != null && !raw.isEmpty()) {
+            for (String pair : raw.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+                String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+                query.computeIfAbsent(name.toLowerCase(Locale.US), k -> new ArrayList<>()).add(value);
+            }
+        }
+        return query;
+    }
+
+    private static String operation(Request request) {
+        String comp = request.param("comp");
+        boolean container = "container".equals(request.param("restype"));
+        if (request.container == null) {
+            return "list".equals(comp) ? "ListContainers" : "Unsupported";
+        } else if (request.blob == null && container) {
+            switch (request.method) {
+            case "PUT":
+                return comp == null ? "CreateContainer" : "Unsupported";
+            case "DELETE":
+                return "DeleteContainer";
+            case "GET":
+            case "HEAD":
+                return "list".equals(comp) ? "ListBlobs" : comp == null ? "GetContainerProperties" : "Unsupported";
+            default:
+                return "Unsupported";
+            }
+        } else if (request.blob == null) {
+            return "Unsupported";
+        }
+        switch (request.method) {
+        case "PUT":
+            if (comp == null) {
+                return request.header("x-ms-copy-source") != null ? "CopyBlob" : "PutBlob";
+            }
+            switch (comp) {
+            case "block":
+                return "PutBlock";
+            case "blocklist":
+                return "PutBlockList";
+            case "appendblock":
+                return "AppendBlock";
+            case "metadata":
+                return "SetBlobMetadata";
+            default:
+                return "Unsupported";
+            }
+        case "GET":
+            return "blocklist".equals(comp) ? "GetBlockList" : comp == null ? "GetBlob" : "Unsupported";
+        case "HEAD":
+            return "GetBlobProperties";
+        case "DELETE":
+            return "DeleteBlob";
+        default:
+            return "Unsupported";
+        }
+    }
+
+    /**
+     * Authenticates and performs a request, sending the response.
+     * @param request the request
+     * @throws IOException
+     */
+    protected void serve(Request request) throws IOException {
+        try {
+            authenticate(request);
+            switch (request.operation) {
+            case "ListContainers":
+                listContainers(request);
+                break;
+            case "CreateContainer":
+                createContainer(request);
+                break;
+            case "DeleteContainer":
+                deleteContainer(request);
+                break;
+            case "GetContainerProperties":
+                getContainerProperties(request);
+                break;
+            case "ListBlobs":
+                listBlobs(request);
+                break;
+            case "PutBlob":
+                putBlob(request);
+                break;
+            case "CopyBlob":
+                copyBlob(request);
+                break;
+            case "PutBlock":
+                putBlock(request);
+                break;
+            case "PutBlockList":
+                putBlockList(request);
+                break;
+            case "GetBlockList":
+                getBlockList(request);
+                break;
+            case "AppendBlock":
+                appendBlock(request);
+                break;
+            case "SetBlobMetadata":
+                setBlobMetadata(request);
+                break;
+            case "GetBlob":
+                getBlob(request, false);
+                break;
+            case "GetBlobProperties":
+                getBlob(request, true);
+                break;
+            case "DeleteBlob":
+                deleteBlob(request);
+                break;
+            default:
+                throw new ServiceError(400, "UnsupportedHttpVerb", "unsupported request " + request.method + " "
+                        + request.exchange.getRequestURI());
+            }
+        } catch (ServiceError e) {
+            error(request.exchange, e.status, e.code, e.getMessage());
+        }
+    }
+
+    /*------------------------------------------------------------------------
+     * SharedKey authentication
+     *----------------------------------------------------------------------*/
+
+    /**
+     * Returns the string to sign for a request, as described for the
+     * Blob service SharedKey scheme.
+     * @param request the request
+     * @return the string to sign
+     */
+    protected String stringToSign(Request request) {
+        StringBuilder s = new StringBuilder(request.method);
+        for (String name : SIGNED_HEADERS) {
+            String value = request.header(name);
+            if (value == null || (name.equals("Content-Length") && value.equals("0"))) {
+                value = "";
+            }
+            s.append('\n').append(value);
+        }
+        Map<String,String> canonical = new TreeMap<>();
+        for (Map.Entry<String,List<String>> header : request.exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.US);
+            if (name.startsWith("x-ms-")) {
+                List<String> values = new ArrayList<>();
+                for (String value : header.getValue()) {
+                    values.add(value.replaceAll("\r?\n", ""));
+                }
+                canonical.put(name, String.join(",", values));
+            }
+        }
+        for (Map.Entry<String,String> header : canonical.entrySet()) {
+            s.append('\n').append(header.getKey()).append(':').append(header.getValue());
+        }
+        s.append('\n').append('/').append(account).append(request.exchange.getRequestURI().getRawPath());
+        for (Map.Entry<String,List<String>> param : new TreeMap<>(request.query).entrySet()) {
+            List<String> values = new ArrayList<>(param.getValue());
+            Collections.sort(values);
+            s.append('\n').append(param.getKey()).append(':').append(String.join(",", values));
+        }
+        return s.toString();
+    }
+
+    private void authenticate(Request request) throws ServiceError {
+        String authorization = request.header("Authorization");
+        String expected = "SharedKey " + account + ":";
+        if (authorization == null || !authorization.startsWith(expected)) {
+            throw new ServiceError(403, "AuthenticationFailed", "missing or foreign SharedKey authorization");
+        }
+        String toSign = stringToSign(request);
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            String signature = Base64.getEncoder().encodeToString(mac.doFinal(toSign.getBytes(StandardCharsets.UTF_8)));
+            if (!MessageDigest.isEqual(signature.getBytes(StandardCharsets.US_ASCII),
+                    authorization.substring(expected.length()).getBytes(StandardCharsets.US_ASCII))) {
+                throw new ServiceError(403, "AuthenticationFailed",
+                        "signature mismatch, the server signed '" + toSign.replace("\n", "\\n") + "'");
+            }
+        } catch (GeneralSecurityException e) {
+            throw new ServiceError(500, "InternalError", e.toString());
+        }
+    }
+
+    /*------------------------------------------------------------------------
+     * Containers
+     *----------------------------------------------------------------------*/
+
+    private Container container(Request request) throws ServiceError {
+        Container container = containers.get(request.container);
+        if (container == null) {
+            throw new ServiceError(404, "ContainerNotFound", "The specified container does not exist.");
+        }
+        return container;
+    }
+
+    private void createContainer(Request request) throws IOException, ServiceError {
+        Container container = new Container();
+        container.etag = etag();
+        container.lastModified = now();
+        container.metadata = metadata(request);
+        if (containers.putIfAbsent(request.container, container) != null) {
+            throw new ServiceError(409, "ContainerAlreadyExists", "The specified container already exists.");
+        }
+        Headers headers = headers(request);
+        headers.set("ETag", container.etag);
+        headers.set("Last-Modified", date(container.lastModified));
+        send(request, 201, null);
+    }
+
+    private void deleteContainer(Request request) throws IOException, ServiceError {
+        if (containers.remove(request.container) == null) {
+            throw new ServiceError(404, "ContainerNotFound", "The specified container does not exist.");
+        }
+        headers(request);
+        send(request, 202, null);
+    }
+
+    private void getContainerProperties(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        Headers headers = headers(request);
+        headers.set("ETag", container.etag);
+        headers.set("Last-Modified", date(container.lastModified));
+        headers.set("x-ms-lease-status", "unlocked");
+        headers.set("x-ms-lease-state", "available");
+        for (Map.Entry<String,String> meta : container.metadata.entrySet()) {
+            headers.set(META + meta.getKey(), meta.getValue());
+        }
+        send(request, 200, null);
+    }
+
+    private void listContainers(Request request) throws IOException {
+        String prefix = nullToEmpty(request.param("prefix"));
+        String marker = nullToEmpty(request.param("marker"));
+        int max = maxResults(request);
+        boolean metadata = nullToEmpty(request.param("include")).contains("metadata");
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        xml.append("<EnumerationResults ServiceEndpoint=\"").append(escape(getEndpoint())).append("/\">");
+        element(xml, "Prefix", prefix);
+        element(xml, "Marker", marker);
+        element(xml, "MaxResults", String.valueOf(max));
+        xml.append("<Containers>");
+        String next = "";
+        int count = 0;
+        for (Map.Entry<String,Container> entry : containers.entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith(prefix) || name.compareTo(marker) < 0) {
+                continue;
+            }
+            if (count++ == max) {
+                next = name;
+                break;
+            }
+            Container container = entry.getValue();
+            xml.append("<Container>");
+            element(xml, "Name", name);
+            xml.append("<Properties>");
+            element(xml, "Last-Modified", date(container.lastModified));
+            element(xml, "Etag", container.etag);
+            element(xml, "LeaseStatus", "unlocked");
+            element(xml, "LeaseState", "available");
+            xml.append("</Properties>");
+            if (metadata) {
+                metadata(xml, container.metadata);
+            }
+            xml.append("</Container>");
+        }
+        xml.append("</Containers>");
+        element(xml, "NextMarker", next);
+        xml.append("</EnumerationResults>");
+        headers(request).set("Content-Type", "application/xml");
+        send(request, 200, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*------------------------------------------------------------------------
+     * Blobs
+     *----------------------------------------------------------------------*/
+
+    private void listBlobs(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        String prefix = nullToEmpty(request.param("prefix"));
+        String delimiter = nullToEmpty(request.param("delimiter"));
+        String marker = nullToEmpty(request.param("marker"));
+        int max = maxResults(request);
+        boolean metadata = nullToEmpty(request.param("include")).contains("metadata");
+
+        // merge blobs and prefixes in name order
+        TreeMap<String,Blob> items = new TreeMap<>();
+        for (Map.Entry<String,Blob> entry : container.blobs.tailMap(prefix).entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            int at = delimiter.isEmpty() ? -1 : name.indexOf(delimiter, prefix.length());
+            if (at >= 0) {
+                items.put(name.substring(0, at + delimiter.length()), null);
+            } else {
+                items.put(name, entry.getValue());
+            }
+        }
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        xml.append("<EnumerationResults ServiceEndpoint=\"").append(escape(getEndpoint())).append("/\"")
+           .append(" ContainerName=\"").append(escape(request.container)).append("\">");
+        element(xml, "Prefix", prefix);
+        element(xml, "Marker", marker);
+        element(xml, "MaxResults", String.valueOf(max));
+        element(xml, "Delimiter", delimiter);
+        xml.append("<Blobs>");
+        String next = "";
+        int count = 0;
+        for (Map.Entry<String,Blob> item : items.tailMap(marker).entrySet()) {
+            if (count++ == max) {
+                next = item.getKey();
+                break;
+            }
+            Blob blob = item.getValue();
+            if (blob == null) {
+                xml.append("<BlobPrefix>");
+                element(xml, "Name", item.getKey());
+                xml.append("</BlobPrefix>");
+            } else {
+                xml.append("<Blob>");
+                element(xml, "Name", item.getKey());
+                xml.append("<Properties>");
+                element(xml, "Last-Modified", date(blob.lastModified));
+                element(xml, "Etag", blob.etag);
+                element(xml, "Content-Length", String.valueOf(blob.content.length));
+                element(xml, "Content-Type", blob.contentType);
+                element(xml, "Content-Encoding", "");
+                element(xml, "Content-Language", "");
+                element(xml, "Content-MD5", nullToEmpty(blob.contentMD5));
+                element(xml, "Cache-Control", "");
+                element(xml, "BlobType", blob.type);
+                element(xml, "LeaseStatus", "unlocked");
+                element(xml, "LeaseState", "available");
+                xml.append("</Properties>");
+                if (metadata) {
+                    metadata(xml, blob.metadata);
+                }
+                xml.append("</Blob>");
+            }
+        }
+        xml.append("</Blobs>");
+        element(xml, "NextMarker", next);
+        xml.append("</EnumerationResults>");
+        headers(request).set("Content-Type", "application/xml");
+        send(request, 200, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks the If-Match and If-None-Match conditions of a request.
+     * @param request the request
+     * @param blob the current blob, or {@code null} if it does not exist
+     * @param read {@code true} for GET and HEAD, where If-None-Match yields 304
+     * @return {@code false} if a read should answer 304 Not Modified
+     * @throws ServiceError if a condition fails
+     */
+    private boolean conditions(Request request, Blob blob, boolean read) throws ServiceError {
+        String ifMatch = request.header("If-Match");
+        if (ifMatch != null && !ifMatch.equals("*") && (blob == null || !ifMatch.equals(blob.etag))) {
+            if (blob == null && read) {
+                throw new ServiceError(404, "BlobNotFound", "The specified blob does not exist.");
+            }
+            throw new ServiceError(412, "ConditionNotMet", "The condition specified using HTTP conditional header(s) is not met.");
+        }
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null && blob != null && (ifNoneMatch.equals("*") || ifNoneMatch.equals(blob.etag))) {
+            if (read) {
+                return false;
+            } else if (ifNoneMatch.equals("*")) {
+                throw new ServiceError(409, "BlobAlreadyExists", "The specified blob already exists.");
+            }
+            throw new ServiceError(412, "ConditionNotMet", "The condition specified using HTTP conditional header(s) is not met.");
+        }
+        return true;
+    }
+
+    private Blob blob(Container container, Request request) throws ServiceError {
+        Blob blob = container.blobs.get(request.blob);
+        if (blob == null) {
+            throw new ServiceError(404, "BlobNotFound", "The specified blob does not exist.");
+        }
+        return blob;
+    }
+
+    private Blob create(Request request, String type, byte[] content, String md5) {
+        Blob blob = new Blob();
+        blob.type = type;
+        blob.content = content;
+        blob.etag = etag();
+        blob.lastModified = now();
+        String contentType = request.header("x-ms-blob-content-type");
+        blob.contentType = contentType != null ? contentType : "application/octet-stream";
+        String contentMD5 = request.header("x-ms-blob-content-md5");
+        blob.contentMD5 = contentMD5 != null ? contentMD5 : md5;
+        blob.metadata = metadata(request);
+        blob.blocks = Collections.emptyMap();
+        return blob;
+    }
+
+    private void written(Request request, int status, Blob blob) throws IOException {
+        Headers headers = headers(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", date(blob.lastModified));
+        if (blob.contentMD5 != null) {
+            headers.set("Content-MD5", blob.contentMD5);
+        }
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, status, null);
+    }
+
+    private void putBlob(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        String type = nullToEmpty(request.header("x-ms-blob-type"));
+        Blob blob;
+        synchronized (container) {
+            conditions(request, container.blobs.get(request.blob), false);
+            if (type.equals(BLOCK_BLOB)) {
+                blob = create(request, BLOCK_BLOB, request.body, md5(request.body));
+            } else if (type.equals(APPEND_BLOB)) {
+                blob = create(request, APPEND_BLOB, new byte[0], null);
+            } else {
+                throw new ServiceError(400, "InvalidHeaderValue", "unsupported x-ms-blob-type: " + type);
+            }
+            container.blobs.put(request.blob, blob);
+            container.staged.remove(request.blob);
+        }
+        written(request, 201, blob);
+    }
+
+    private void copyBlob(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        String source;
+        try {
+            source = new URI(request.header("x-ms-copy-source")).getPath();
+        } catch (URISyntaxException e) {
+            throw new ServiceError(400, "InvalidHeaderValue", "invalid x-ms-copy-source");
+        }
+        String prefix = "/" + account + "/";
+        int slash = source.startsWith(prefix) ? source.indexOf('/', prefix.length()) : -1;
+        if (slash < 0) {
+            throw new ServiceError(400, "InvalidHeaderValue", "x-ms-copy-source is not a blob in this account");
+        }
+        Container from = containers.get(source.substring(prefix.length(), slash));
+        Blob original = from == null ? null : from.blobs.get(source.substring(slash + 1));
+        if (original == null) {
+            throw new ServiceError(404, "CannotVerifyCopySource", "The specified blob does not exist.");
+        }
+        Blob blob;
+        synchronized (container) {
+            conditions(request, container.blobs.get(request.blob), false);
+            blob = new Blob();
+            blob.type = original.type;
+            blob.content = original.content;
+            blob.etag = etag();
+            blob.lastModified = now();
+            blob.contentType = original.contentType;
+            blob.contentMD5 = original.contentMD5;
+            Map<String,String> metadata = metadata(request);
+            blob.metadata = metadata.isEmpty() ? original.metadata : metadata;
+            blob.blocks = original.blocks;
+            blob.appendBlocks = original.appendBlocks;
+            blob.copyId = UUID.randomUUID().toString();
+            blob.copySource = request.header("x-ms-copy-source");
+            container.blobs.put(request.blob, blob);
+        }
+        Headers headers = headers(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", date(blob.lastModified));
+        headers.set("x-ms-copy-id", blob.copyId);
+        headers.set("x-ms-copy-status", "success");
+        send(request, 202, null);
+    }
+
+    private void putBlock(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        String id = request.param("blockid");
+        if (id == null || id.isEmpty()) {
+            throw new ServiceError(400, "InvalidQueryParameterValue", "blockid is required");
+        }
+        container.staged.computeIfAbsent(request.blob, k -> new ConcurrentHashMap<>()).put(id, request.body);
+        Headers headers = headers(request);
+        headers.set("Content-MD5", md5(request.body));
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, 201, null);
+    }
+
+    private void putBlockList(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        Blob blob;
+        synchronized (container) {
+            Blob existing = container.blobs.get(request.blob);
+            conditions(request, existing, false);
+            Map<String,byte[]> staged = container.staged.getOrDefault(request.blob, Collections.emptyMap());
+            Map<String,byte[]> committed = existing == null ? Collections.emptyMap() : existing.blocks;
+            Map<String,byte[]> blocks = new LinkedHashMap<>();
+            int length = 0;
+            Matcher m = BLOCK.matcher(new String(request.body, StandardCharsets.UTF_8));
+            while (m.find()) {
+                String id = m.group(2);
+                byte[] block;
+                switch (m.group(1)) {
+                case "Committed":
+                    block = committed.get(id);
+                    break;
+                case "Uncommitted":
+                    block = staged.get(id);
+                    break;
+                default:
+                    block = staged.containsKey(id) ? staged.get(id) : committed.get(id);
+                }
+                if (block == null) {
+                    throw new ServiceError(400, "InvalidBlockList", "The specified block list is invalid.");
+                }
+                blocks.put(id, block);
+                length += block.length;
+            }
+            byte[] content = new byte[length];
+            int offset = 0;
+            for (byte[] block : blocks.values()) {
+                System.arraycopy(block, 0, content, offset, block.length);
+                offset += block.length;
+            }
+            blob = create(request, BLOCK_BLOB, content, null);
+            blob.blocks = blocks;
+            container.blobs.put(request.blob, blob);
+            container.staged.remove(request.blob);
+        }
+        written(request, 201, blob);
+    }
+
+    private void getBlockList(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        Blob blob = container.blobs.get(request.blob);
+        Map<String,byte[]> staged = container.staged.getOrDefault(request.blob, Collections.emptyMap());
+        if (blob == null && staged.isEmpty()) {
+            throw new ServiceError(404, "BlobNotFound", "The specified blob does not exist.");
+        }
+        String type = nullToEmpty(request.param("blocklisttype"));
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><BlockList>");
+        if (!type.equals("uncommitted")) {
+            xml.append("<CommittedBlocks>");
+            if (blob != null) {
+                for (Map.Entry<String,byte[]> block : blob.blocks.entrySet()) {
+                    xml.append("<Block>");
+                    element(xml, "Name", block.getKey());
+                    element(xml, "Size", String.valueOf(block.getValue().length));
+                    xml.append("</Block>");
+                }
+            }
+            xml.append("</CommittedBlocks>");
+        }
+        if (type.equals("uncommitted") || type.equals("all")) {
+            xml.append("<UncommittedBlocks>");
+            for (Map.Entry<String,byte[]> block : staged.entrySet()) {
+                xml.append("<Block>");
+                element(xml, "Name", block.getKey());
+                element(xml, "Size", String.valueOf(block.getValue().length));
+                xml.append("</Block>");
+            }
+            xml.append("</UncommittedBlocks>");
+        }
+        xml.append("</BlockList>");
+        Headers headers = headers(request);
+        headers.set("Content-Type", "application/xml");
+        if (blob != null) {
+            headers.set("ETag", blob.etag);
+            headers.set("Last-Modified", date(blob.lastModified));
+        }
+        send(request, 200, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendBlock(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        Blob blob;
+        long offset;
+        synchronized (container) {
+            Blob existing = blob(container, request);
+            conditions(request, existing, false);
+            if (!existing.type.equals(APPEND_BLOB)) {
+                throw new ServiceError(409, "InvalidBlobType", "The blob type is invalid for this operation.");
+            }
+            offset = existing.content.length;
+            String position = request.header("x-ms-blob-condition-appendpos");
+            if (position != null && Long.parseLong(position) != offset) {
+                throw new ServiceError(412, "AppendPositionConditionNotMet",
+                        "The append position condition specified was not met.");
+            }
+            String maxSize = request.header("x-ms-blob-condition-maxsize");
+            if (maxSize != null && offset + request.body.length > Long.parseLong(maxSize)) {
+                throw new ServiceError(412, "MaxBlobSizeConditionNotMet",
+                        "The max blob size condition specified was not met.");
+            }
+            blob = copy(existing);
+            blob.content = new byte[existing.content.length + request.body.length];
+            System.arraycopy(existing.content, 0, blob.content, 0, existing.content.length);
+            System.arraycopy(request.body, 0, blob.content, existing.content.length, request.body.length);
+            blob.appendBlocks = existing.appendBlocks + 1;
+            blob.etag = etag();
+            blob.lastModified = now();
+            container.blobs.put(request.blob, blob);
+        }
+        Headers headers = headers(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", date(blob.lastModified));
+        headers.set("Content-MD5", md5(request.body));
+        headers.set("x-ms-blob-append-offset", String.valueOf(offset));
+        headers.set("x-ms-blob-committed-block-count", String.valueOf(blob.appendBlocks));
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, 201, null);
+    }
+
+    private void setBlobMetadata(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        Blob blob;
+        synchronized (container) {
+            Blob existing = blob(container, request);
+            conditions(request, existing, false);
+            blob = copy(existing);
+            blob.metadata = metadata(request);
+            blob.etag = etag();
+            blob.lastModified = now();
+            container.blobs.put(request.blob, blob);
+        }
+        Headers headers = headers(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", date(blob.lastModified));
+        send(request, 200, null);
+    }
+
+    private void getBlob(Request request, boolean head) throws IOException, ServiceError {
+        Container container = container(request);
+        Blob blob = blob(container, request);
+        Headers headers = headers(request);
+        if (!conditions(request, blob, true)) {
+            headers.set("ETag", blob.etag);
+            headers.set("Last-Modified", date(blob.lastModified));
+            send(request, 304, null);
+            return;
+        }
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", date(blob.lastModified));
+        headers.set("Content-Type", blob.contentType);
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("x-ms-blob-type", blob.type);
+        headers.set("x-ms-lease-status", "unlocked");
+        headers.set("x-ms-lease-state", "available");
+        headers.set("x-ms-server-encrypted", "false");
+        if (blob.type.equals(APPEND_BLOB)) {
+            headers.set("x-ms-blob-committed-block-count", String.valueOf(blob.appendBlocks));
+        }
+        if (blob.copyId != null) {
+            headers.set("x-ms-copy-id", blob.copyId);
+            headers.set("x-ms-copy-source", blob.copySource);
+            headers.set("x-ms-copy-status", "success");
+            headers.set("x-ms-copy-progress", blob.content.length + "/" + blob.content.length);
+            headers.set("x-ms-copy-completion-time", date(blob.lastModified));
+        }
+        for (Map.Entry<String,String> meta : blob.metadata.entrySet()) {
+            headers.set(META + meta.getKey(), meta.getValue());
+        }
+        String range = request.header("x-ms-range");
+        if (range == null) {
+            range = request.header("Range");
+        }
+        int length = blob.content.length;
+        if (range == null || head) {
+            if (blob.contentMD5 != null) {
+                headers.set("Content-MD5", blob.contentMD5);
+            }
+            if (head) {
+                headers.set("Content-Length", String.valueOf(length));
+                send(request, 200, null);
+            } else {
+                send(request, 200, blob.content);
+            }
+            return;
+        }
+        Matcher m = RANGE.matcher(range);
+        if (!m.matches()) {
+            throw new ServiceError(400, "InvalidRange", "invalid range: " + range);
+        }
+        long start = Long.parseLong(m.group(1));
+        long end = m.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(m.group(2)), length - 1);
+        if (start >= length || end < start) {
+            headers.set("Content-Range", "bytes */" + length);
+            throw new ServiceError(416, "InvalidRange", "The range specified is invalid for the current size of the resource.");
+        }
+        if (blob.contentMD5 != null) {
+            headers.set("x-ms-blob-content-md5", blob.contentMD5);
+        }
+        headers.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        byte[] slice = new byte[(int) (end - start + 1)];
+        System.arraycopy(blob.content, (int) start, slice, 0, slice.length);
+        send(request, 206, slice);
+    }
+
+    private void deleteBlob(Request request) throws IOException, ServiceError {
+        Container container = container(request);
+        synchronized (container) {
+            Blob blob = blob(container, request);
+            conditions(request, blob, false);
+            container.blobs.remove(request.blob);
+        }
+        headers(request);
+        send(request, 202, null);
+    }
+
+    private static Blob copy(Blob original) {
+        Blob blob = new Blob();
+        blob.type = original.type;
+        blob.content = original.content;
+        blob.etag = original.etag;
+        blob.lastModified = original.lastModified;
+        blob.contentType = original.contentType;
+        blob.contentMD5 = original.contentMD5;
+        blob.metadata = original.metadata;
+        blob.blocks = original.blocks;
+        blob.appendBlocks = original.appendBlocks;
+        blob.copyId = original.copyId;
+        blob.copySource = original.copySource;
+        return blob;
+    }
+
+    /*------------------------------------------------------------------------
+     * Helpers
+     *----------------------------------------------------------------------*/
+
+    private String etag() {
+        return "\"0x8D" + Long.toHexString(etags.incrementAndGet()).toUpperCase(Locale.US) + "\"";
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000 * 1000; // HTTP dates have second precision
+    }
+
+    private static String date(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static String md5(byte[] content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String,String> metadata(Request request) {
+        Map<String,String> metadata = new TreeMap<>();
+        for (Map.Entry<String,List<String>> header : request.exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.US);
+            if (name.startsWith(META) && !header.getValue().isEmpty()) {
+                metadata.put(name.substring(META.length()), header.getValue().get(0));
+            }
+        }
+        return Collections.unmodifiableMap(metadata);
+    }
+
+    private static int maxResults(Request request) {
+        String max = request.param("maxresults");
+        return max == null ? DEFAULT_MAX_RESULTS : Math.max(1, Math.min(DEFAULT_MAX_RESULTS, Integer.parseInt(max)));
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    private static void element(StringBuilder xml, String name, String value) {
+        if (value == null || value.isEmpty()) {
+            xml.append('<').append(name).append("/>");
+        } else {
+            xml.append('<').append(name).append('>').append(escape(value)).append("</").append(name).append('>');
+        }
+    }
+
+    private static void metadata(StringBuilder xml, Map<String,String> metadata) {
+        xml.append("<Metadata>");
+        for (Map.Entry<String,String> meta : metadata.entrySet()) {
+            element(xml, meta.getKey(), meta.getValue());
+        }
+        xml.append("</Metadata>");
+    }
+
+    private Headers headers(Request request) {
+        Headers headers = request.exchange.getResponseHeaders();
+        headers.set("x-ms-request-id", UUID.randomUUID().toString());
+        headers.set("x-ms-version", VERSION);
+        headers.set("Date", date(System.currentTimeMillis()));
+        String clientRequestId = request.header("x-ms-client-request-id");
+        if (clientRequestId != null) {
+            headers.set("x-ms-client-request-id", clientRequestId);
+        }
+        return headers;
+    }
+
+    /**
+     * Sends the response status, the headers already set, and the body.
+     * @param request the request
+     * @param status the HTTP status
+     * @param body the body, or {@code null} for none
+     * @throws IOException
+     */
+    protected void send(Request request, int status, byte[] body) throws IOException {
+        HttpExchange exchange = request.exchange;
+        boolean empty = body == null || body.length == 0 || request.method.equals("HEAD") || status == 304;
+        if (request.plan.resetAfter >= 0 && (empty || request.plan.resetAfter >= body.length)) {
+            throw new Reset(); // nothing to truncate: drop the connection before responding
+        }
+        if (body == null || body.length == 0 || request.method.equals("HEAD") || status == 304) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            write(request, exchange.getResponseBody(), body);
+        }
+    }
+
+    /**
+     * Writes a response body.
+     * @param request the request
+     * @param out the response body stream
+     * @param body the body
+     * @throws IOException
+     */
+    protected void write(Request request, OutputStream out, byte[] body) throws IOException {
+        FaultInjector.Plan plan = request.plan;
+        if (plan.firstByte > 0) {
+            out.flush(); // the status and headers
+            pause(plan.firstByte);
+        }
+        int length = plan.resetAfter >= 0 ? (int) plan.resetAfter : body.length;
+        for (int offset = 0; offset < length; offset += CHUNK) {
+            int chunk = Math.min(CHUNK, length - offset);
+            pace(chunk, plan.bandwidth);
+            out.write(body, offset, chunk);
+            out.flush();
+        }
+        if (length < body.length) {
+            throw new Reset();
+        }
+    }
+
+    private static void pause(long millis) throws IOException {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static void pace(long bytes, long bytesPerSecond) throws IOException {
+        if (bytesPerSecond > 0) {
+            pause(bytes * 1000L / bytesPerSecond);
+        }
+    }
+
+    private void error(HttpExchange exchange, int status, String code, String message) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("x-ms-request-id", UUID.randomUUID().toString());
+        headers.set("x-ms-version", VERSION);
+        headers.set("x-ms-error-code", code);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><Error>");
+        element(xml, "Code", code);
+        element(xml, "Message", message);
+        xml.append("</Error>");
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+        headers.set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,76 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import com.cleo.labs.connector.testing.StringSource;
+
+public class TestBlobEnvelope {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String OTHER_KEY = Base64.getEncoder().encodeToString(new byte[16]);
+    private static final byte[] LOREM = StringSource.lorem.getBytes();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BlobEnvelope envelope = new BlobEnvelope(KEY, 1024);
+        BlobEnvelope.Sealed sealed = envelope.seal();
+        byte[] plain = LOREM;
+        byte[] cipherText = sealed.encrypt(3, true, plain, plain.length);
+        assertEquals(plain.length + BlobEnvelope.TAG_LENGTH, cipherText.length);
+
+        BlobEnvelope.Sealed opened = envelope.open(sealed.metadata());
+        assertEquals(1024, opened.chunkSize());
+        assertArrayEquals(plain, opened.decrypt(3, true, cipherText, cipherText.length));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testWrongIndex() throws Exception {
+        BlobEnvelope.Sealed sealed = new BlobEnvelope(KEY, 1024).seal();
+        byte[] plain = LOREM;
+        byte[] cipherText = sealed.encrypt(0, false, plain, plain.length);
+        sealed.decrypt(1, false, cipherText, cipherText.length);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testTruncationDetected() throws Exception {
+        // a non-final chunk presented as the last one must fail
+        BlobEnvelope.Sealed sealed = new BlobEnvelope(KEY, 1024).seal();
+        byte[] plain = LOREM;
+        byte[] cipherText = sealed.encrypt(0, false, plain, plain.length);
+        sealed.decrypt(0, true, cipherText, cipherText.length);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testTamperDetected() throws Exception {
+        BlobEnvelope.Sealed sealed = new BlobEnvelope(KEY, 1024).seal();
+        byte[] plain = LOREM;
+        byte[] cipherText = sealed.encrypt(0, true, plain, plain.length);
+        cipherText[7] ^= 1;
+        sealed.decrypt(0, true, cipherText, cipherText.length);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testWrongMasterKey() throws Exception {
+        BlobEnvelope.Sealed sealed = new BlobEnvelope(KEY, 1024).seal();
+        new BlobEnvelope(OTHER_KEY, 1024).open(sealed.metadata());
+    }
+
+    @Test
+    public void testEmptyChunk() throws Exception {
+        BlobEnvelope.Sealed sealed = new BlobEnvelope(KEY, 1024).seal();
+        byte[] cipherText = sealed.encrypt(0, true, new byte[0], 0);
+        assertEquals(BlobEnvelope.TAG_LENGTH, cipherText.length);
+        assertEquals(0, sealed.decrypt(0, true, cipherText, cipherText.length).length);
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void testInvalidKey() throws Exception {
+        new BlobEnvelope(Base64.getEncoder().encodeToString(new byte[10]), 1024);
+    }
+}
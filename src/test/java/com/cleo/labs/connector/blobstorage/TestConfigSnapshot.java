@@ -0,0 +1,40 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.util.Base64;
+
+import org.junit.Test;
+
+import com.cleo.connector.shell.interfaces.IConnectorHost;
+import com.cleo.labs.connector.testing.TestConnector;
+import com.cleo.labs.connector.testing.TestConnectorHost;
+
+public class TestConfigSnapshot {
+
+    @Test
+    public void testSnapshotReuse() throws Exception {
+        BlobStorageConnectorSchema blobSchema = new BlobStorageConnectorSchema();
+        blobSchema.setup();
+        TestConnector connector = new TestConnector(System.err)
+                .set("StorageAccountName", "snapshot")
+                .set("AccessKey", Base64.getEncoder().encodeToString(new byte[64]))
+                .set("Headers", "[{\"enabled\":true,\"header\":\"x-ms-test\",\"value\":\"snapshot\"}]");
+        BlobStorageConnectorClient client = new BlobStorageConnectorClient(blobSchema);
+        IConnectorHost connectorHost = new TestConnectorHost(client);
+        client.setup(connector, blobSchema, connectorHost);
+        BlobStorageConnectorConfig config = new BlobStorageConnectorConfig(client, blobSchema);
+
+        ConfigSnapshot first = config.snapshot();
+        assertSame(first, config.snapshot());
+        assertSame(first.getContextTemplate(), config.snapshot().getContextTemplate());
+        assertEquals("snapshot", first.getContextTemplate().create().getUserHeaders().get("x-ms-test"));
+        assertNotSame(first.getRequestOptions(), first.getRequestOptions());
+
+        connector.set("Parallelism", "8");
+        ConfigSnapshot second = config.snapshot();
+        assertNotSame(first, second);
+        assertEquals(8, second.getParallelism());
+        assertSame(second, config.snapshot());
+    }
+}
@@ -0,0 +1,154 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class TestContentCache {
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream closing = in) {
+            return new String(ByteStreams.toByteArray(closing), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static File directory() throws IOException {
+        return Files.createTempDirectory("content").toFile();
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testKeyedByEtag() throws Exception {
+        File dir = directory();
+        try {
+            ContentCache cache = ContentCache.of(dir.getPath(), 1024);
+            AtomicInteger loads = new AtomicInteger();
+            ContentCache.Source v1 = () -> { loads.incrementAndGet(); return new ByteArrayInputStream("version1".getBytes()); };
+            ContentCache.Source v2 = () -> { loads.incrementAndGet(); return new ByteArrayInputStream("version2".getBytes()); };
+            assertEquals("version1", read(cache.open("blob", "\"1\"", 8, 0, -1, v1)));
+            assertEquals("version1", read(cache.open("blob", "\"1\"", 8, 0, -1, v2)));
+            assertEquals("sion", read(cache.open("blob", "\"1\"", 8, 3, 4, v2)));
+            assertEquals(1, loads.get());
+            // a new ETag is a new entry
+            assertEquals("version2", read(cache.open("blob", "\"2\"", 8, 0, -1, v2)));
+            assertEquals(2, loads.get());
+            assertEquals(16, cache.getBytes());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyRead() throws Exception {
+        File dir = directory();
+        try {
+            ContentCache cache = ContentCache.of(dir.getPath(), 20);
+            AtomicInteger loads = new AtomicInteger();
+            ContentCache.Source ten = () -> { loads.incrementAndGet(); return new ByteArrayInputStream("0123456789".getBytes()); };
+            read(cache.open("a", "e", 10, 0, -1, ten));
+            read(cache.open("b", "e", 10, 0, -1, ten));
+            read(cache.open("a", "e", 10, 0, -1, ten)); // a is now more recent than b
+            read(cache.open("c", "e", 10, 0, -1, ten)); // evicts b
+            assertEquals(3, loads.get());
+            assertEquals(20, cache.getBytes());
+            read(cache.open("a", "e", 10, 0, -1, ten));
+            assertEquals(3, loads.get());
+            read(cache.open("b", "e", 10, 0, -1, ten));
+            assertEquals(4, loads.get());
+
+            // an open reader pins its entry
+            InputStream pinned = cache.open("b", "e", 10, 0, -1, ten);
+            read(cache.open("d", "e", 10, 0, -1, ten));
+            read(cache.open("x", "e", 10, 0, -1, ten));
+            assertEquals("0123456789", read(pinned));
+            read(cache.open("b", "e", 10, 0, -1, ten));
+            assertEquals(6, loads.get());
+
+            // too large to cache: read straight through
+            assertEquals("23456", read(cache.open("big", "e", 30, 2, 5,
+                    () -> new ByteArrayInputStream("012345678901234567890123456789".getBytes()))));
+            assertTrue(cache.getBytes() <= 20);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testLeavesOtherFiles() throws Exception {
+        File dir = directory();
+        try {
+            File other = new File(dir, "report.csv");
+            File otherTmp = new File(dir, "upload.tmp");
+            Files.write(other.toPath(), "0123456789".getBytes());
+            Files.write(otherTmp.toPath(), "0123456789".getBytes());
+            ContentCache cache = ContentCache.of(dir.getPath(), 10);
+            assertEquals(0, cache.getBytes());
+            ContentCache.Source ten = () -> new ByteArrayInputStream("0123456789".getBytes());
+            read(cache.open("a", "e", 10, 0, -1, ten));
+            read(cache.open("b", "e", 10, 0, -1, ten)); // evicts a, not the other files
+            assertEquals(10, cache.getBytes());
+            assertTrue(other.exists());
+            assertTrue(otherTmp.exists());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        File dir = directory();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            ContentCache cache = ContentCache.of(dir.getPath(), 1024);
+            AtomicInteger loads = new AtomicInteger();
+            CountDownLatch release = new CountDownLatch(1);
+            ContentCache.Source slow = () -> {
+                loads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new ByteArrayInputStream("shared".getBytes());
+            };
+            List<Future<String>> readers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                readers.add(pool.submit(() -> read(cache.open("blob", "e", 6, 0, -1, slow))));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> reader : readers) {
+                assertEquals("shared", reader.get());
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import com.cleo.connector.api.property.CommonProperty;
+import com.cleo.connector.shell.interfaces.IConnectorHost;
+import com.cleo.labs.connector.testing.TestConnector;
+import com.cleo.labs.connector.testing.TestConnectorHost;
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RequestCompletedEvent;
+import com.microsoft.azure.storage.RequestResult;
+import com.microsoft.azure.storage.ResponseReceivedEvent;
+import com.microsoft.azure.storage.SendingRequestEvent;
+
+public class TestContextTemplate {
+
+    private static BlobStorageAccount setupAccount() throws Exception {
+        BlobStorageConnectorSchema blobSchema = new BlobStorageConnectorSchema();
+        blobSchema.setup();
+        TestConnector connector = new TestConnector(System.err)
+                .set("StorageAccountName", "soak")
+                .set("AccessKey", Base64.getEncoder().encodeToString(new byte[64]))
+                .set("Headers", "[{\"enabled\":true,\"header\":\"x-ms-test\",\"value\":\"soak\"}]")
+                .set(CommonProperty.EnableDebug.name(), Boolean.TRUE.toString());
+        BlobStorageConnectorClient client = new BlobStorageConnectorClient(blobSchema);
+        IConnectorHost connectorHost = new TestConnectorHost(client);
+        client.setup(connector, blobSchema, connectorHost);
+        return new BlobStorageAccount(new BlobStorageConnectorConfig(client, blobSchema));
+    }
+
+    /**
+     * Plays one request through a context the way the SDK does.
+     */
+    private static void request(OperationContext context, int status) {
+        RequestResult result = new RequestResult();
+        context.getRequestResults().add(result);
+        context.getSendingRequestEventHandler().fireEvent(new SendingRequestEvent(context, null, result));
+        result.setStatusCode(status);
+        context.getResponseReceivedEventHandler().fireEvent(new ResponseReceivedEvent(context, null, result));
+        context.getRequestCompletedEventHandler().fireEvent(new RequestCompletedEvent(context, null, result));
+    }
+
+    @Test
+    public void testFreshContext() throws Exception {
+        BlobStorageAccount account = setupAccount();
+        OperationContext first = account.context();
+        request(first, 200);
+        OperationContext second = account.context();
+        assertNotSame(first, second);
+        assertNotEquals(first.getClientRequestID(), second.getClientRequestID());
+        assertEquals(1, first.getRequestResults().size());
+        assertTrue(second.getRequestResults().isEmpty());
+        assertEquals("soak", second.getUserHeaders().get("x-ms-test"));
+        assertTrue(second.getRequestCompletedEventHandler().hasListeners());
+        // changing one context's headers does not leak into the next
+        second.getUserHeaders().put("x-ms-other", "value");
+        assertNull(account.context().getUserHeaders().get("x-ms-other"));
+    }
+
+    @Test
+    public void testSoak() throws Exception {
+        BlobStorageAccount account = setupAccount();
+        WeakReference<OperationContext> early = new WeakReference<>(account.context());
+        request(early.get(), 200);
+        for (int i = 0; i < 200000; i++) {
+            OperationContext context = account.context();
+            request(context, i % 100 == 0 ? 503 : 200);
+            request(context, 200);
+        }
+        for (int i = 0; i < 10 && early.get() != null; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertNull("operation context retained after use", early.get());
+        assertEquals(0, account.throttle().getInFlight());
+        assertTrue(RequestTracer.of("").recent().size() <= RequestTracer.DEFAULT_SIZE);
+    }
+}
@@ -0,0 +1,179 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cleo.connector.api.command.ConnectorCommandResult;
+import com.cleo.connector.api.command.ConnectorCommandResult.Status;
+import com.cleo.labs.connector.blobstorage.FaultInjector.Fault;
+import com.cleo.labs.connector.testing.Commands;
+import com.cleo.labs.connector.testing.StringCollector;
+import com.cleo.labs.connector.testing.StringSource;
+import com.google.common.base.Strings;
+import com.microsoft.azure.storage.blob.CloudBlob;
+
+/**
+ * Drives the connector through {@link LocalBlobService} faults, checking that
+ * retries recover and that throughput follows the injected conditions.
+ */
+public class TestFaultInjection {
+
+    private static final String CONTAINER = "faults";
+    private static final String CONTENT = Strings.repeat(StringSource.oneK, 64);
+
+    private static LocalBlobService service;
+
+    @BeforeClass
+    public static void startService() throws Exception {
+        service = new LocalBlobService();
+        assertEquals(Status.Success, Commands.mkdir(CONTAINER).go(setupClient(null)).getStatus());
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+    }
+
+    @After
+    public void clearFaults() {
+        service.faults().clear();
+    }
+
+    private static BlobStorageConnectorClient setupClient(String container) {
+        return service.client(container,
+                "RetryPolicy", "Linear",
+                "RetryAttempts", "3",
+                "RetryBackoff", "100");
+    }
+
+    @Test
+    public void testBusyBurst() throws Exception {
+        BlobStorageConnectorClient client = setupClient(CONTAINER);
+        service.faults().on(FaultInjector.ANY).busy(2);
+        ConnectorCommandResult result = Commands.put(new StringSource("busy.txt", CONTENT), "busy.txt").go(client);
+        assertEquals(Status.Success, result.getStatus());
+        assertEquals(2, service.faults().getInjected(Fault.BUSY));
+        assertTrue(ThrottleController.of(service.getAccount()).getThrottled() > 0);
+    }
+
+    @Test
+    public void testSharedMaximum() {
+        ThrottleController throttle = ThrottleController.of("shared", "a", 8);
+        assertSame(throttle, ThrottleController.of("shared", "b", 4));
+        assertEquals(4, throttle.getMaximum());
+        assertEquals(4, throttle.getLimit());
+        ThrottleController.of("shared", "a", 8); // set up again: b still applies
+        assertEquals(4, throttle.getMaximum());
+        ThrottleController.of("shared", "c", 0); // no maximum: the others still apply
+        assertEquals(4, throttle.getMaximum());
+        ThrottleController.of("shared", "b", 0);
+        assertEquals(8, throttle.getMaximum());
+        ThrottleController.of("shared", "a", 0);
+        assertEquals(0, throttle.getMaximum());
+    }
+
+    @Test
+    public void testThrottleResponses() {
+        assertTrue(ThrottleController.isThrottled(503, "ServerBusy"));
+        assertTrue(ThrottleController.isThrottled(429, null));
+        assertTrue(ThrottleController.isThrottled(500, "OperationTimedOut"));
+        assertFalse(ThrottleController.isThrottled(500, "InternalError"));
+        assertFalse(ThrottleController.isThrottled(500, null));
+        assertFalse(ThrottleController.isThrottled(404, "BlobNotFound"));
+    }
+
+    @Test
+    public void testResetMidBody() throws Exception {
+        BlobStorageConnectorClient client = setupClient(CONTAINER);
+        assertEquals(Status.Success, Commands.put(new StringSource("reset.txt", CONTENT), "reset.txt").go(client).getStatus());
+        service.faults().on("GetBlob").reset(1, CONTENT.length() / 2);
+        StringCollector collector = new StringCollector().name("reset.txt");
+        ConnectorCommandResult result = Commands.get("reset.txt", collector).go(client);
+        assertEquals(Status.Success, result.getStatus());
+        assertEquals(CONTENT, collector.toString());
+        assertEquals(1, service.faults().getInjected(Fault.RESET));
+    }
+
+    @Test
+    public void testBandwidthAndLatency() throws Exception {
+        BlobStorageConnectorClient client = setupClient(CONTAINER);
+        assertEquals(Status.Success, Commands.put(new StringSource("slow.txt", CONTENT), "slow.txt").go(client).getStatus());
+        long bandwidth = CONTENT.length(); // one second for the body
+        service.faults().on("GetBlob").bandwidth(bandwidth).firstByte(FaultInjector.fixed(200));
+        service.faults().on(FaultInjector.ANY).latency(FaultInjector.uniform(20, 40));
+        StringCollector collector = new StringCollector().name("slow.txt");
+        long start = System.currentTimeMillis();
+        ConnectorCommandResult result = Commands.get("slow.txt", collector).go(client);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(Status.Success, result.getStatus());
+        assertEquals(CONTENT, collector.toString());
+        assertTrue("transfer finished in "+elapsed+"ms", elapsed >= 1200);
+        assertTrue(service.faults().getInjected(Fault.LATENCY) > 0);
+    }
+
+    @Test
+    public void testTraceTimeToFirstByte() throws Exception {
+        BlobStorageConnectorClient client = setupClient(CONTAINER);
+        assertEquals(Status.Success, Commands.put(new StringSource("traced.txt", CONTENT), "traced.txt").go(client).getStatus());
+        // delays the response headers, so it counts towards the time to first byte
+        service.faults().on("GetBlob").latency(FaultInjector.fixed(200));
+        assertEquals(Status.Success, Commands.get("traced.txt", new StringCollector().name("traced.txt")).go(client).getStatus());
+        RequestTracer.Trace trace = null;
+        for (RequestTracer.Trace t : RequestTracer.of(client.getHost().getAlias()).recent()) {
+            if ("GET".equals(t.getMethod()) && t.getResource().endsWith("/traced.txt")) {
+                trace = t;
+            }
+        }
+        assertNotNull("GET not traced", trace);
+        assertEquals(2, trace.getStatus() / 100);
+        assertTrue("ttfb "+trace.getTtfb()+"ms", trace.getTtfb() >= 200);
+        assertTrue(trace.getTotal() >= trace.getTtfb());
+        assertEquals(CONTENT.length(), trace.getBytesIn());
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        BlobStorageConnectorClient client = setupClient(CONTAINER);
+        assertEquals(Status.Success, Commands.put(new StringSource("hedge.txt", CONTENT), "hedge.txt").go(client).getStatus());
+        BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString());
+        CloudBlob blob = account.getContainer(CONTAINER).getBlob(new Path().parse("hedge.txt"));
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            // 50ms fixed delay, hedging at most 20% of requests
+            Hedger hedger = new Hedger("hedging", true, 50, 20, executor);
+            Hedger.Request<Void> head = () -> {
+                blob.downloadAttributes(null, account.options(), account.context());
+                return null;
+            };
+
+            // only the first request is slow: the hedge answers first
+            AtomicInteger requests = new AtomicInteger();
+            service.faults().on("GetBlobProperties").latency(random -> requests.getAndIncrement() == 0 ? 2000 : 0);
+            long start = System.currentTimeMillis();
+            hedger.call("head", head);
+            long elapsed = System.currentTimeMillis() - start;
+            assertEquals(1, hedger.getHedged());
+            assertTrue("hedged request took "+elapsed+"ms", elapsed < 1000);
+
+            // every request is slow: the budget holds hedges to 20% of the calls
+            service.faults().on("GetBlobProperties").latency(FaultInjector.fixed(100));
+            int calls = 20;
+            for (int i = 0; i < calls; i++) {
+                hedger.call("head", head);
+            }
+            long hedges = hedger.getHedged() - 1;
+            assertTrue("no hedges under the budget", hedges > 0);
+            assertTrue(hedges+" hedges for "+calls+" calls", hedges <= calls * 20 / 100);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cleo.connector.api.command.ConnectorCommandResult.Status;
+import com.cleo.connector.api.property.CommonProperty;
+import com.cleo.labs.connector.testing.Commands;
+import com.cleo.labs.connector.testing.LoadGenerator;
+import com.cleo.labs.connector.testing.LoadGenerator.Operation;
+
+public class TestLoadGenerator {
+
+    private static final String CONTAINER = "load";
+
+    private static LocalBlobService service;
+
+    @BeforeClass
+    public static void startService() throws Exception {
+        service = new LocalBlobService();
+        assertEquals(Status.Success, Commands.mkdir(CONTAINER).go(setupClient(null)).getStatus());
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+    }
+
+    private static BlobStorageConnectorClient setupClient(String container) {
+        return service.client(container, CommonProperty.EnableDebug.name(), Boolean.FALSE.toString());
+    }
+
+    @Test
+    public void testMixedLoad() throws Exception {
+        LoadGenerator.Report report = new LoadGenerator()
+                .clients(Arrays.asList(setupClient(CONTAINER), setupClient(CONTAINER)))
+                .threads(4)
+                .weight(Operation.GET, 4)
+                .weight(Operation.PUT, 2)
+                .sizes(LoadGenerator.logUniform(100, 256*1024))
+                .operations(400)
+                .seed(42)
+                .run();
+        assertEquals(400, report.total.count);
+        assertEquals(0, report.total.errors);
+        assertNotNull(report.get(Operation.GET));
+        assertTrue(report.get(Operation.PUT).bytes > 0);
+        assertTrue(report.total.p50Ms <= report.total.p99Ms);
+
+        Path csv = Files.createTempFile("load", ".csv");
+        Path json = Files.createTempFile("load", ".json");
+        try {
+            report.writeCsv(csv);
+            report.writeJson(json);
+            assertEquals(report.getOperations().size() + 2, Files.readAllLines(csv).size());
+            assertTrue(new String(Files.readAllBytes(json), "UTF-8").contains("\"opsPerSecond\""));
+        } finally {
+            Files.delete(csv);
+            Files.delete(json);
+        }
+        // the run cleans up after itself
+        assertTrue(Commands.dir("").go(setupClient(CONTAINER)).getDirEntries().get().isEmpty());
+    }
+}
@@ -0,0 +1,597 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cleo.connector.api.ConnectorException;
+import com.cleo.connector.api.command.ConnectorCommandResult;
+import com.cleo.connector.api.command.ConnectorCommandResult.Status;
+import com.cleo.connector.api.directory.Entry;
+import com.cleo.labs.connector.testing.Commands;
+import com.cleo.labs.connector.testing.StringCollector;
+import com.cleo.labs.connector.testing.StringSource;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.DeleteSnapshotsOption;
+
+/**
+ * Drives the connector against {@link LocalBlobService}, so these tests
+ * run offline, without an Azure account.
+ */
+public class TestLocalBlobService {
+
+    private static LocalBlobService service;
+
+    @BeforeClass
+    public static void startService() throws Exception {
+        service = new LocalBlobService();
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+    }
+
+    private static BlobStorageConnectorClient setupClient(String container, String...properties) {
+        return service.client(container, properties);
+    }
+
+    /**
+     * Deletes a temporary directory and everything under it.
+     */
+    private static void delete(java.nio.file.Path directory) throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(directory)) {
+            for (java.nio.file.Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BlobStorageConnectorClient account = setupClient(null);
+        ConnectorCommandResult result;
+
+        result = Commands.mkdir("roundtrip").go(account);
+        assertEquals(Status.Success, result.getStatus());
+        result = Commands.mkdir("roundtrip").go(account);
+        assertEquals(Status.Error, result.getStatus());
+
+        BlobStorageConnectorClient container = setupClient("roundtrip");
+        result = Commands.put(new StringSource("file1.txt", StringSource.lorem), "file1.txt").go(container);
+        assertEquals(Status.Success, result.getStatus());
+        result = Commands.put(new StringSource("file2.txt", StringSource.oneK), "folder/file2.txt").go(container);
+        assertEquals(Status.Success, result.getStatus());
+
+        StringCollector collector = new StringCollector().name("file1.txt");
+        result = Commands.get("file1.txt", collector).go(container);
+        assertEquals(Status.Success, result.getStatus());
+        assertEquals(StringSource.lorem, collector.toString());
+
+        assertEquals(StringSource.oneK.length(), Commands.attr("folder/file2.txt").go(container).readAttributes().size());
+        assertTrue(Commands.attr("folder").go(container).readAttributes().isDirectory());
+
+        result = Commands.dir("").go(container);
+        assertEquals(Status.Success, result.getStatus());
+        List<Entry> entries = result.getDirEntries().orElse(Collections.emptyList());
+        assertEquals(2, entries.size());
+
+        result = Commands.delete("file1.txt").go(container);
+        assertEquals(Status.Success, result.getStatus());
+        result = Commands.get("file1.txt", new StringCollector().name("file1.txt")).go(container);
+        assertEquals(Status.Error, result.getStatus());
+
+        assertTrue(service.getRequestCount() > 0);
+    }
+
+    @Test
+    public void testDirPrimesAttributes() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("primed").go(setupClient(null)).getStatus());
+        BlobStorageConnectorClient container = setupClient("primed");
+        assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+        assertEquals(Status.Success, Commands.put(new StringSource("b.txt", StringSource.lorem), "sub/b.txt").go(container).getStatus());
+        assertEquals(Status.Success, Commands.put(new StringSource("c.txt", StringSource.lorem), "sub/deeper/c.txt").go(container).getStatus());
+
+        List<Entry> entries = Commands.dir("sub").go(container).getDirEntries().orElse(Collections.emptyList());
+        assertEquals(2, entries.size());
+        long requests = service.getRequestCount();
+        assertTrue(Commands.attr("sub").go(container).readAttributes().isDirectory());
+        for (Entry e : entries) {
+            assertEquals(e.isDir(), Commands.attr(e.getPath()).go(container).readAttributes().isDirectory());
+        }
+        assertEquals("ATTR after DIR made requests", requests, service.getRequestCount());
+
+        // containers listed at the account level are primed too
+        BlobStorageConnectorClient account = setupClient(null);
+        Commands.dir("").go(account);
+        requests = service.getRequestCount();
+        assertTrue(Commands.attr("primed").go(account).readAttributes().isDirectory());
+        assertEquals("ATTR after DIR made requests", requests, service.getRequestCount());
+    }
+
+    @Test
+    public void testWritesPrimeAttributes() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("written").go(setupClient(null)).getStatus());
+        BlobStorageConnectorClient container = setupClient("written");
+        assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+        assertEquals(Status.Success, Commands.mkdir("sub").go(container).getStatus());
+        long requests = service.getRequestCount();
+        assertEquals(StringSource.lorem.length(), Commands.attr("a.txt").go(container).readAttributes().size());
+        assertTrue(Commands.attr("sub").go(container).readAttributes().isDirectory());
+        assertEquals("ATTR after PUT or MKDIR made requests", requests, service.getRequestCount());
+
+        assertEquals(Status.Success, Commands.delete("a.txt").go(container).getStatus());
+        requests = service.getRequestCount();
+        try {
+            Commands.attr("a.txt").go(container);
+            fail("deleted blob still has attributes");
+        } catch (ConnectorException e) {
+            // expected
+        }
+        assertEquals("ATTR after DELETE made requests", requests, service.getRequestCount());
+    }
+
+    @Test
+    public void testGetUsesCachedAttributes() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("cached").go(setupClient(null)).getStatus());
+        BlobStorageConnectorClient container = setupClient("cached");
+        assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+
+        long requests = service.getRequestCount();
+        StringCollector collector = new StringCollector().name("a.txt");
+        assertEquals(Status.Success, Commands.get("a.txt", collector).go(container).getStatus());
+        assertEquals(StringSource.lorem, collector.toString());
+        assertEquals("GET with cached attributes made more than one request", requests + 1, service.getRequestCount());
+
+        // replace the blob behind the cache: the If-Match fails and GET falls back to a HEAD
+        BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString());
+        byte[] replaced = StringSource.oneK.getBytes("UTF-8");
+        account.client().getContainerReference("cached").getBlockBlobReference("a.txt")
+                .uploadFromByteArray(replaced, 0, replaced.length, null, account.options(), account.context());
+        collector = new StringCollector().name("a.txt");
+        assertEquals(Status.Success, Commands.get("a.txt", collector).go(container).getStatus());
+        assertEquals(StringSource.oneK, collector.toString());
+
+        // delete the blob behind the cache: GET reports it missing, as without the cache
+        assertEquals(Status.Success, Commands.dir("").go(container).getStatus());
+        account.client().getContainerReference("cached").getBlockBlobReference("a.txt")
+                .delete(DeleteSnapshotsOption.NONE, null, account.options(), account.context());
+        try {
+            Commands.get("a.txt", new StringCollector().name("a.txt")).go(container);
+            fail("GET of a deleted blob succeeded");
+        } catch (ConnectorException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("does not exist"));
+        }
+        try {
+            Commands.attr("a.txt").go(container);
+            fail("stale attributes of a deleted blob are still cached");
+        } catch (ConnectorException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCommandMetrics() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("measured").go(setupClient(null)).getStatus());
+        BlobStorageConnectorClient container = setupClient("measured");
+        BlobStorageMetrics metrics = BlobStorageMetrics.of(container.getHost().getAlias());
+
+        // every request the service sees is counted against a command
+        long served = service.getRequestCount();
+        long counted = requests(metrics, null);
+        long puts = count(metrics, "PUT");
+        assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+        assertEquals(service.getRequestCount() - served, requests(metrics, null) - counted);
+        assertEquals(puts + 1, count(metrics, "PUT"));
+
+        // one ranged GET with the cached attributes
+        served = service.getRequestCount();
+        long gets = requests(metrics, "GET");
+        long ok = metrics.getRequests2xx();
+        assertEquals(Status.Success, Commands.get("a.txt", new StringCollector().name("a.txt")).go(container).getStatus());
+        assertEquals(1, service.getRequestCount() - served);
+        assertEquals(1, requests(metrics, "GET") - gets);
+        assertEquals(1, metrics.getRequests2xx() - ok);
+
+        // a GET of a missing blob fails with 404s
+        served = service.getRequestCount();
+        long missing = metrics.getRequests4xx();
+        long errors = metrics.getCommands().get("GET").getErrors();
+        try {
+            Commands.get("missing.txt", new StringCollector().name("missing.txt")).go(container);
+            fail("GET of a missing blob succeeded");
+        } catch (ConnectorException e) {
+            // expected
+        }
+        assertTrue(service.getRequestCount() > served);
+        assertEquals(service.getRequestCount() - served, metrics.getRequests4xx() - missing);
+        assertEquals(errors + 1, metrics.getCommands().get("GET").getErrors());
+    }
+
+    /**
+     * Returns the requests counted against a command, or all commands.
+     * @param metrics the metrics
+     * @param command the command, or {@code null} for all
+     * @return the number of requests
+     */
+    private static long requests(BlobStorageMetrics metrics, String command) {
+        long total = 0;
+        for (Map.Entry<String,CommandMetrics> e : metrics.getCommands().entrySet()) {
+            if (command == null || command.equals(e.getKey())) {
+                total += e.getValue().getRequests();
+            }
+        }
+        return total;
+    }
+
+    private static long count(BlobStorageMetrics metrics, String command) {
+        CommandMetrics c = metrics.getCommands().get(command);
+        return c == null ? 0 : c.getCount();
+    }
+
+    @Test
+    public void testSkipUnchanged() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("unchanged").go(setupClient(null)).getStatus());
+        java.nio.file.Path store = Files.createTempFile("etags", ".properties");
+        Files.delete(store);
+        try {
+            BlobStorageConnectorClient container = setupClient("unchanged", "SkipUnchanged", "true", "ETagStore", store.toString());
+            assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+
+            StringCollector collector = new StringCollector().name("a.txt");
+            ConnectorCommandResult result = Commands.get("a.txt", collector).go(container);
+            assertEquals(Status.Success, result.getStatus());
+            assertEquals(StringSource.lorem, collector.toString());
+            assertTrue(Files.exists(store));
+
+            // a new client shares the recorded ETag
+            container = setupClient("unchanged", "SkipUnchanged", "true", "ETagStore", store.toString());
+            collector = new StringCollector().name("a.txt");
+            result = Commands.get("a.txt", collector).go(container);
+            assertEquals(Status.Success, result.getStatus());
+            assertEquals("unchanged", result.getMessage().orElse(""));
+            assertEquals("", collector.toString());
+
+            assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.oneK), "a.txt").go(container).getStatus());
+            collector = new StringCollector().name("a.txt");
+            result = Commands.get("a.txt", collector).go(container);
+            assertEquals(Status.Success, result.getStatus());
+            assertEquals(StringSource.oneK, collector.toString());
+        } finally {
+            Files.deleteIfExists(store);
+        }
+    }
+
+    @Test
+    public void testIncrementalDir() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("incremental").go(setupClient(null)).getStatus());
+        java.nio.file.Path store = Files.createTempFile("watermarks", ".properties");
+        Files.delete(store);
+        try {
+            BlobStorageConnectorClient container = setupClient("incremental", "IncrementalDir", "true", "WatermarkStore", store.toString());
+            assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "inbox/a.txt").go(container).getStatus());
+            assertEquals(Status.Success, Commands.put(new StringSource("b.txt", StringSource.lorem), "inbox/b.txt").go(container).getStatus());
+
+            assertEquals(2, Commands.dir("inbox").go(container).getDirEntries().orElse(Collections.emptyList()).size());
+            // returned blobs are returned again until they are retrieved
+            assertEquals(2, Commands.dir("inbox").go(container).getDirEntries().orElse(Collections.emptyList()).size());
+            assertEquals(Status.Success, Commands.get("inbox/a.txt", new StringCollector().name("a.txt")).go(container).getStatus());
+            List<Entry> entries = Commands.dir("inbox").go(container).getDirEntries().orElse(Collections.emptyList());
+            assertEquals(1, entries.size());
+            assertEquals("inbox/b.txt", entries.get(0).getPath());
+            assertEquals(Status.Success, Commands.get("inbox/b.txt", new StringCollector().name("b.txt")).go(container).getStatus());
+            assertTrue(Commands.dir("inbox").go(container).getDirEntries().orElse(Collections.emptyList()).isEmpty());
+
+            // a blob written in the same second as the watermark is still new
+            assertEquals(Status.Success, Commands.put(new StringSource("c.txt", StringSource.lorem), "inbox/c.txt").go(container).getStatus());
+            // and so is a rewritten blob, for a new client sharing the store
+            assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.oneK), "inbox/a.txt").go(container).getStatus());
+            container = setupClient("incremental", "IncrementalDir", "true", "WatermarkStore", store.toString());
+            entries = Commands.dir("inbox").go(container).getDirEntries().orElse(Collections.emptyList());
+            List<String> names = new ArrayList<>();
+            for (Entry e : entries) {
+                names.add(e.getPath());
+                String name = new Path().parse(e.getPath()).name();
+                assertEquals(Status.Success, Commands.get(e.getPath(), new StringCollector().name(name)).go(container).getStatus());
+            }
+            Collections.sort(names);
+            assertEquals(Arrays.asList("inbox/a.txt", "inbox/c.txt"), names);
+            assertTrue(Commands.dir("inbox").go(container).getDirEntries().orElse(Collections.emptyList()).isEmpty());
+
+            // a DIR without IncrementalDir still lists everything
+            assertEquals(3, Commands.dir("inbox").go(setupClient("incremental")).getDirEntries().orElse(Collections.emptyList()).size());
+        } finally {
+            Files.deleteIfExists(store);
+            Files.deleteIfExists(store.resolveSibling(store.getFileName()+".pending"));
+        }
+    }
+
+    @Test
+    public void testSkipIdentical() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("identical").go(setupClient(null)).getStatus());
+        BlobStorageConnectorClient container = setupClient("identical", "SkipIdentical", "true");
+        assertEquals(Status.Success, Commands.put(new FileSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+
+        long requests = service.getRequestCount();
+        ConnectorCommandResult result = Commands.put(new FileSource("a.txt", StringSource.lorem), "a.txt").go(container);
+        assertEquals(Status.Success, result.getStatus());
+        assertEquals("identical", result.getMessage().orElse(""));
+        assertEquals("identical PUT made requests", requests, service.getRequestCount());
+
+        result = Commands.put(new FileSource("a.txt", StringSource.oneK), "a.txt").go(container);
+        assertEquals(Status.Success, result.getStatus());
+        assertNotEquals("identical", result.getMessage().orElse(""));
+        StringCollector collector = new StringCollector().name("a.txt");
+        assertEquals(Status.Success, Commands.get("a.txt", collector).go(container).getStatus());
+        assertEquals(StringSource.oneK, collector.toString());
+    }
+
+    @Test
+    public void testContentCache() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("contentcache").go(setupClient(null)).getStatus());
+        java.nio.file.Path directory = Files.createTempDirectory("content");
+        try {
+            BlobStorageConnectorClient container = setupClient("contentcache", "ContentCache", directory.toString());
+            assertEquals(Status.Success, Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container).getStatus());
+            StringCollector collector = new StringCollector().name("a.txt");
+            assertEquals(Status.Success, Commands.get("a.txt", collector).go(container).getStatus());
+            assertEquals(StringSource.lorem, collector.toString());
+
+            // the second GET only validates the ETag with a HEAD
+            long requests = service.getRequestCount();
+            collector = new StringCollector().name("a.txt");
+            assertEquals(Status.Success, Commands.get("a.txt", collector).go(container).getStatus());
+            assertEquals(StringSource.lorem, collector.toString());
+            assertEquals(requests + 1, service.getRequestCount());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString());
+        BlobStorageContainer container = account.getContainer("async");
+        container.create();
+        AsyncBlobStorageContainer async = container.async();
+
+        List<CompletableFuture<Path>> puts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            puts.add(async.put(new Path().parse("f"+i), new ByteArrayInputStream(StringSource.lorem.getBytes()), false, false));
+        }
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture[puts.size()])).get();
+        assertEquals(10, async.list(new Path()).get().size());
+
+        async.copy(new Path().parse("f0"), new Path().parse("copy")).get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(StringSource.lorem.length(), async.get(new Path().parse("copy"), out).get().longValue());
+        assertEquals(StringSource.lorem, out.toString());
+
+        async.delete(new Path().parse("copy"))
+            .thenCompose(v -> async.list(new Path()))
+            .thenAccept(items -> assertEquals(10, items.size()))
+            .get();
+
+        // a cancelled put is interrupted while copying and does not commit
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                started.countDown();
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted");
+                }
+                return 'x';
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+        CompletableFuture<Path> cancelled = async.put(new Path().parse("cancelled"), endless, false, false);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        Thread.sleep(200); // long enough for a (wrong) commit to land
+        try {
+            container.getBlob(new Path().parse("cancelled"));
+            fail("cancelled put was committed");
+        } catch (StorageException e) {
+            assertEquals(404, e.getHttpStatusCode());
+        }
+        assertEquals(10, async.list(new Path()).get().size());
+    }
+
+    @Test
+    public void testParallelListing() throws Exception {
+        BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString());
+        BlobStorageContainer container = account.getContainer("parallel");
+        container.create();
+        List<String> expected = new ArrayList<>();
+        for (String name : new String[] {"a.txt", "b/1", "b/2", "b/c/3", "c", "d/4", "e.txt", "f/5"}) {
+            expected.add(name);
+            try (BlobStorageContainer.Upload out = container.getOutputStream(new Path().parse(name), false, false)) {
+                out.write(name.getBytes());
+            }
+        }
+        for (int i = 0; i < 30; i++) {
+            String name = String.format("g/%02d", i);
+            expected.add(name);
+            container.getOutputStream(new Path().parse(name), false, false).close();
+        }
+
+        for (int threads : new int[] {1, 3, 8}) {
+            List<String> names = new ArrayList<>();
+            for (CloudBlob blob : container.list(new Path(), threads)) {
+                names.add(blob.getName());
+            }
+            assertEquals(expected, names);
+        }
+
+        List<String> names = new ArrayList<>();
+        for (CloudBlob blob : container.list(new Path().parse("g"))) {
+            names.add(blob.getName());
+        }
+        assertEquals(expected.subList(expected.size()-30, expected.size()), names);
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        assertEquals(Status.Success, Commands.mkdir("spooled").go(setupClient(null)).getStatus());
+        java.nio.file.Path directory = Files.createTempDirectory("spool");
+        try {
+            BlobStorageConnectorClient container = setupClient("spooled", "WriteBehind", "true", "SpoolDirectory", directory.toString());
+            ConnectorCommandResult result = Commands.put(new StringSource("a.txt", StringSource.lorem), "a.txt").go(container);
+            assertEquals(Status.Success, result.getStatus());
+            assertEquals("spooled", result.getMessage().orElse(""));
+
+            UploadSpool spool = UploadSpool.of(directory.toString());
+            assertTrue(spool.awaitEmpty(10000));
+            StringCollector collector = new StringCollector().name("a.txt");
+            assertEquals(Status.Success, Commands.get("a.txt", collector).go(container).getStatus());
+            assertEquals(StringSource.lorem, collector.toString());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testSpoolRecovery() throws Exception {
+        BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString());
+        account.getContainer("recovered").create();
+        java.nio.file.Path directory = Files.createTempDirectory("spool");
+        try {
+            // a spool left by a previous run: one pending upload, one done, one never
+            // acknowledged, and one pending for another host
+            Files.write(directory.resolve("manifest.log"), Arrays.asList(
+                    "ADD\t1\tlocal\trecovered\tpending.txt\trecovered%2Fpending.txt\tfalse",
+                    "ADD\t2\tlocal\trecovered\tdone.txt\trecovered%2Fdone.txt\tfalse",
+                    "DONE\t2",
+                    "ADD\t4\tother\trecovered\tother.txt\trecovered%2Fother.txt\tfalse"));
+            Files.write(directory.resolve("1.data"), StringSource.lorem.getBytes());
+            Files.write(directory.resolve("3.data"), StringSource.oneK.getBytes());
+            Files.write(directory.resolve("4.data"), StringSource.oneK.getBytes());
+
+            UploadSpool spool = UploadSpool.of(directory.toString());
+            assertEquals(2, spool.getDepth());
+            assertFalse(Files.exists(directory.resolve("3.data")));
+            spool.start(account, "local");
+            for (long deadline = System.currentTimeMillis() + 10000;
+                    spool.getDepth() > 1 && System.currentTimeMillis() < deadline; ) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, spool.getDepth());
+            assertFalse(Files.exists(directory.resolve("1.data")));
+            assertTrue(Files.exists(directory.resolve("4.data")));
+            spool.start(account, "other");
+            assertTrue(spool.awaitEmpty(10000));
+            assertEquals(0, Files.size(directory.resolve("manifest.log")));
+            assertEquals(0, spool.getFailed());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            account.getContainer("recovered").async().get(new Path().parse("pending.txt"), out).get();
+            assertEquals(StringSource.lorem, out.toString());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testSpoolSetAside() throws Exception {
+        BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString());
+        java.nio.file.Path directory = Files.createTempDirectory("spool");
+        try {
+            // uploads to a missing container fail, and are set aside after one attempt
+            UploadSpool spool = new UploadSpool(directory.toFile(), 1, 10L);
+            spool.start(account, "local");
+            spool.add("local", "missing", "a.txt", "missing/a.txt", false, new ByteArrayInputStream("first".getBytes()));
+            assertTrue(spool.awaitEmpty(10000));
+            assertEquals(1, spool.getFailed());
+
+            // after a restart of the drained spool, the next id must not collide
+            spool = new UploadSpool(directory.toFile(), 1, 10L);
+            assertEquals(1, spool.getFailed());
+            spool.start(account, "local");
+            spool.add("local", "missing", "b.txt", "missing/b.txt", false, new ByteArrayInputStream("second".getBytes()));
+            assertTrue(spool.awaitEmpty(10000));
+            assertEquals(2, spool.getFailed());
+
+            java.nio.file.Path failed = directory.resolve("failed");
+            List<String> contents = new ArrayList<>();
+            try (Stream<java.nio.file.Path> paths = Files.list(failed)) {
+                for (java.nio.file.Path path : paths.filter(p -> p.toString().endsWith(".data")).collect(Collectors.toList())) {
+                    contents.add(new String(Files.readAllBytes(path)));
+                }
+            }
+            Collections.sort(contents);
+            assertEquals(Arrays.asList("first", "second"), contents);
+            assertEquals(2, Files.readAllLines(failed.resolve("failed.log")).size());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A source that reports itself as a (re-readable) file.
+     */
+    private static class FileSource extends StringSource {
+        private final long length;
+
+        FileSource(String path, String content) {
+            super(path, content);
+            this.length = content.getBytes().length;
+        }
+
+        @Override
+        public boolean isFile() {
+            return true;
+        }
+
+        @Override
+        public Long getLength() {
+            return length;
+        }
+    }
+
+    @Test
+    public void testRejectsBadSignature() throws Exception {
+        try (LocalBlobService other = new LocalBlobService(LocalBlobService.ACCOUNT,
+                Base64.getEncoder().encodeToString(new byte[64]))) {
+            BlobStorageAccount account = new BlobStorageAccount(service.getConnectionString()
+                    .replace(service.getEndpoint(), other.getEndpoint()));
+            try {
+                account.client().getContainerReference("denied").exists(null, account.options(), account.context());
+                fail("request signed with the wrong key was accepted");
+            } catch (StorageException e) {
+                assertEquals(403, e.getHttpStatusCode());
+            }
+        }
+    }
+}
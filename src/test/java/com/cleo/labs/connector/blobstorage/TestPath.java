@@ -0,0 +1,56 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestPath {
+
+    @Test
+    public void testParse() {
+        Path path = new Path().parse("/a//b/", null, "", "c");
+        assertEquals(3, path.size());
+        assertEquals("a/b/c", path.toString());
+        assertEquals("c", path.name());
+        assertEquals("", new Path().parse().toString());
+        assertTrue(new Path().parse("///").empty());
+        // the delimiter is literal, not a regular expression
+        Path dotted = new Path(".").parse("a.b..c");
+        assertEquals(3, dotted.size());
+        assertEquals("a.b.c", dotted.toString());
+        Path multi = new Path("::").parse("::a::b:c::");
+        assertEquals(2, multi.size());
+        assertEquals("b:c", multi.name());
+    }
+
+    @Test
+    public void testImmutable() {
+        Path empty = new Path();
+        Path path = empty.parse("a/b");
+        assertNotSame(empty, path);
+        assertTrue(empty.empty());
+        Path child = path.child("c");
+        assertEquals("a/b", path.toString());
+        assertEquals("a/b/c", child.toString());
+        assertEquals("a/b", child.parent().toString());
+        assertEquals("b/c", child.chroot(1).toString());
+        assertEquals("c", child.chroot(-1).toString());
+        assertEquals("b", child.slice(1, -1).toString());
+        assertEquals("", child.slice(5, null).toString());
+        assertEquals("a/b/c/a/b", child.child(path).toString());
+        assertEquals("a|b", new Path("|").child(path).toString());
+    }
+
+    @Test
+    public void testEquals() {
+        Path path = new Path().parse("container/folder/file.txt");
+        Path same = new Path().parse("container").child("folder").child("file.txt");
+        Path sliced = new Path().parse("x/container/folder/file.txt/y").slice(1, -1);
+        assertEquals(path, same);
+        assertEquals(path, sliced);
+        assertEquals(path.hashCode(), same.hashCode());
+        assertEquals(path.hashCode(), sliced.hashCode());
+        assertNotEquals(path, path.parent());
+        assertNotEquals(path, new Path("|").child(path));
+    }
+}
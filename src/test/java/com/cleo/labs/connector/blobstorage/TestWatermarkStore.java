@@ -0,0 +1,106 @@
+package com.cleo.labs.connector.blobstorage;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class TestWatermarkStore {
+
+    @Test
+    public void testMissedDuringListing() {
+        long now = System.currentTimeMillis();
+        WatermarkStore.Scan scan = new WatermarkStore.Scan(null, now, () -> 0L);
+        assertTrue(scan.add("b", now - 60000, "\"b\""));
+        assertTrue(scan.add("c", now + 2000, "\"c\""));
+        assertTrue(scan.isChanged());
+        WatermarkStore.Watermark watermark = scan.watermark();
+        assertEquals(now - WatermarkStore.MARGIN, watermark.getLastModified());
+        // committed while listing, after its name was passed
+        assertTrue(watermark.isNew("a", now - 1000, "\"a\""));
+        // returned, but not yet retrieved
+        assertTrue(watermark.isNew("b", now - 60000, "\"b\""));
+        assertTrue(watermark.isNew("c", now + 2000, "\"c\""));
+    }
+
+    @Test
+    public void testSkewReadAtFirstBlob() {
+        long now = System.currentTimeMillis();
+        long[] skew = {0L};
+        WatermarkStore.Scan scan = new WatermarkStore.Scan(null, now, () -> skew[0]);
+        skew[0] = 5000L; // as of the first listing response
+        scan.add("a", now, "\"a\"");
+        assertEquals(now + 5000L - WatermarkStore.MARGIN, scan.watermark().getLastModified());
+    }
+
+    @Test
+    public void testRetrieved() throws Exception {
+        File file = File.createTempFile("watermarks", ".properties");
+        file.delete();
+        File journal = new File(file.getPath()+".pending");
+        try {
+            long now = System.currentTimeMillis();
+            WatermarkStore store = WatermarkStore.of(file.getPath());
+            WatermarkStore.Scan scan = new WatermarkStore.Scan(store.get("inbox"), now, () -> 0L);
+            scan.add("a b", now - 60000, "\"a\"");
+            scan.add("c", now - 1000, "\"c\"");
+            store.put("inbox", scan);
+            store.retrieved("inbox", "a b");
+            store.retrieved("inbox", "c");
+            assertTrue(file.exists());
+            assertTrue(journal.exists());
+
+            // reopened from the files, as after a restart
+            WatermarkStore reopened = new WatermarkStore(PropertiesStore.of(file.getPath(), null), journal);
+            WatermarkStore.Watermark saved = reopened.get("inbox");
+            assertFalse(saved.isNew("a b", now - 60000, "\"a\""));
+            assertFalse(saved.isNew("c", now - 1000, "\"c\""));
+            assertTrue(saved.isNew("c", now, "\"c2\"")); // rewritten
+
+            // the next scan keeps the ETags after its own watermark only
+            scan = new WatermarkStore.Scan(saved, now + 1000, () -> 0L);
+            assertFalse(scan.add("a b", now - 60000, "\"a\""));
+            assertFalse(scan.add("c", now - 1000, "\"c\""));
+            assertTrue(scan.add("d", now, "\"d\""));
+            reopened.put("inbox", scan);
+            WatermarkStore.Watermark next = reopened.get("inbox");
+            assertFalse(next.isNew("c", now - 1000, "\"c\""));
+            assertTrue(next.isNew("d", now, "\"d\""));
+        } finally {
+            file.delete();
+            journal.delete();
+        }
+    }
+
+    @Test
+    public void testUnchangedScanSavesNothing() throws Exception {
+        File file = File.createTempFile("watermarks", ".properties");
+        file.delete();
+        File journal = new File(file.getPath()+".pending");
+        try {
+            long now = System.currentTimeMillis();
+            WatermarkStore store = WatermarkStore.of(file.getPath());
+            WatermarkStore.Scan scan = new WatermarkStore.Scan(store.get("inbox"), now, () -> 0L);
+            scan.add("a", now - 60000, "\"a\"");
+            scan.add("b", now - 60000, "\"b\"");
+            store.put("inbox", scan);
+            store.retrieved("inbox", "a");
+            byte[] properties = Files.readAllBytes(file.toPath());
+            byte[] records = Files.readAllBytes(journal.toPath());
+
+            // b is still pending and a is retrieved: the watermark stays put
+            scan = new WatermarkStore.Scan(store.get("inbox"), now + 1000, () -> 0L);
+            assertFalse(scan.add("a", now - 60000, "\"a\""));
+            assertTrue(scan.add("b", now - 60000, "\"b\""));
+            assertFalse(scan.isChanged());
+            store.put("inbox", scan);
+            assertArrayEquals(properties, Files.readAllBytes(file.toPath()));
+            assertArrayEquals(records, Files.readAllBytes(journal.toPath()));
+        } finally {
+            file.delete();
+            journal.delete();
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.cleo.labs.connector.testing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.cleo.connector.api.ConnectorClient;
+import com.cleo.connector.api.command.ConnectorCommandResult;
+import com.cleo.connector.api.command.ConnectorCommandResult.Status;
+import com.google.common.base.Strings;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs a weighted mix of DIR, ATTR, GET, PUT and DELETE commands against one
+ * or more clients from a number of threads, and reports throughput and
+ * latency percentiles per command:
+ * <pre>
+ * LoadGenerator.Report report = new LoadGenerator()
+ *         .clients(client1, client2)
+ *         .threads(16)
+ *         .weight(LoadGenerator.Operation.GET, 60)
+ *         .weight(LoadGenerator.Operation.PUT, 20)
+ *         .sizes(LoadGenerator.logUniform(1024, 64*1024*1024))
+ *         .duration(60, TimeUnit.SECONDS)
+ *         .run();
+ * report.writeCsv(Paths.get("load.csv"));
+ * </pre>
+ * Each thread works in its own files under the configured folder, so GET,
+ * ATTR and DELETE target files the same thread has PUT (a PUT is issued
+ * instead while it has none).  Threads are assigned to clients round robin.
+ */
+public class LoadGenerator {
+
+    public enum Operation { DIR, ATTR, GET, PUT, DELETE };
+
+    /**
+     * A distribution of file sizes in bytes.
+     */
+    @FunctionalInterface
+    public interface SizeDistribution {
+        long sample(Random random);
+    }
+
+    public static SizeDistribution fixed(long size) {
+        return random -> size;
+    }
+
+    public static SizeDistribution uniform(long min, long max) {
+        return random -> min + (long) (random.nextDouble() * (max - min));
+    }
+
+    /**
+     * Sizes whose logarithm is uniform, i.e. as many files from 1K-10K as
+     * from 1M-10M, which is typical of file transfer workloads.
+     * @param min the smallest size
+     * @param max the largest size
+     * @return the distribution
+     */
+    public static SizeDistribution logUniform(long min, long max) {
+        double low = Math.log(min);
+        double high = Math.log(max);
+        return random -> Math.round(Math.exp(low + random.nextDouble() * (high - low)));
+    }
+
+    private List<ConnectorClient> clients = new ArrayList<>();
+    private int threads = 1;
+    private Map<Operation,Integer> weights = new EnumMap<>(Operation.class);
+    private SizeDistribution sizes = fixed(1024);
+    private long duration = 0;
+    private long operations = 1000;
+    private String folder = "";
+    private long seed = 0L;
+
+    public LoadGenerator() {
+        for (Operation operation : Operation.values()) {
+            weights.put(operation, 1);
+        }
+    }
+
+    public LoadGenerator clients(ConnectorClient...clients) {
+        return clients(Arrays.asList(clients));
+    }
+
+    public LoadGenerator clients(List<? extends ConnectorClient> clients) {
+        this.clients = new ArrayList<>(clients);
+        return this;
+    }
+
+    public LoadGenerator threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the relative weight of an operation in the mix (all default to 1).
+     * @param operation the operation
+     * @param weight the weight, 0 to exclude it
+     * @return this
+     */
+    public LoadGenerator weight(Operation operation, int weight) {
+        weights.put(operation, weight);
+        return this;
+    }
+
+    public LoadGenerator sizes(SizeDistribution sizes) {
+        this.sizes = sizes;
+        return this;
+    }
+
+    /**
+     * Runs for a period of time (overriding {@link #operations(long)}).
+     * @param duration the duration
+     * @param unit its unit
+     * @return this
+     */
+    public LoadGenerator duration(long duration, TimeUnit unit) {
+        this.duration = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Runs a total number of operations, divided among the threads.
+     * @param operations the number of operations
+     * @return this
+     */
+    public LoadGenerator operations(long operations) {
+        this.operations = operations;
+        this.duration = 0;
+        return this;
+    }
+
+    /**
+     * Sets the folder (relative to the clients' roots) to work in.
+     * @param folder the folder, which must exist
+     * @return this
+     */
+    public LoadGenerator folder(String folder) {
+        this.folder = Strings.isNullOrEmpty(folder) || folder.endsWith("/") ? Strings.nullToEmpty(folder) : folder + "/";
+        return this;
+    }
+
+    public LoadGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * The samples recorded for one operation, per thread.
+     */
+    private static class Samples {
+        private long[] nanos = new long[1024];
+        private int count = 0;
+        private long errors = 0;
+        private long bytes = 0;
+
+        private void add(long elapsed, boolean ok, long transferred) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+            errors += ok ? 0 : 1;
+            bytes += transferred;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private int index;
+        private ConnectorClient client;
+        private Random random;
+        private List<String> files = new ArrayList<>();
+        private Map<Operation,Samples> samples = new EnumMap<>(Operation.class);
+        private long count;
+        private long deadline;
+        private CountDownLatch start;
+        private long sequence = 0;
+
+        private Worker(int index, long count, CountDownLatch start) {
+            this.index = index;
+            this.client = clients.get(index % clients.size());
+            this.random = new Random(seed + index);
+            this.count = count;
+            this.start = start;
+            for (Operation operation : Operation.values()) {
+                samples.put(operation, new Samples());
+            }
+        }
+
+        private Operation choose() {
+            int total = 0;
+            for (int weight : weights.values()) {
+                total += weight;
+            }
+            int pick = random.nextInt(total);
+            for (Map.Entry<Operation,Integer> weight : weights.entrySet()) {
+                pick -= weight.getValue();
+                if (pick < 0) {
+                    return weight.getKey();
+                }
+            }
+            return Operation.PUT;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            deadline = duration > 0 ? System.currentTimeMillis() + duration : Long.MAX_VALUE;
+            for (long i = 0; duration > 0 ? System.currentTimeMillis() < deadline : i < count; i++) {
+                Operation operation = choose();
+                if (files.isEmpty() && operation != Operation.DIR) {
+                    operation = Operation.PUT;
+                }
+                long begin = System.nanoTime();
+                boolean ok = false;
+                long bytes = 0;
+                try {
+                    ConnectorCommandResult result;
+                    switch (operation) {
+                    case DIR:
+                        result = Commands.dir(folder).go(client);
+                        ok = result != null && result.getStatus() == Status.Success;
+                        break;
+                    case ATTR:
+                        ok = Commands.attr(pick()).go(client).readAttributes() != null;
+                        break;
+                    case GET:
+                        String name = pick();
+                        CountingCollector collector = new CountingCollector().name(name);
+                        result = Commands.get(name, collector).go(client);
+                        ok = result != null && result.getStatus() == Status.Success;
+                        bytes = collector.count();
+                        break;
+                    case PUT:
+                        name = folder + "load-" + index + "-" + sequence++;
+                        long size = sizes.sample(random);
+                        result = Commands.put(new SizedSource(name, size), name).go(client);
+                        ok = result != null && result.getStatus() == Status.Success;
+                        if (ok) {
+                            files.add(name);
+                            bytes = size;
+                        }
+                        break;
+                    case DELETE:
+                        name = files.remove(random.nextInt(files.size()));
+                        result = Commands.delete(name).go(client);
+                        ok = result != null && result.getStatus() == Status.Success;
+                        break;
+                    }
+                } catch (Exception e) {
+                    ok = false;
+                }
+                samples.get(operation).add(System.nanoTime() - begin, ok, bytes);
+            }
+        }
+
+        private String pick() {
+            return files.get(random.nextInt(files.size()));
+        }
+
+        /**
+         * Deletes the files left behind by the run.
+         */
+        private void cleanup() {
+            for (String name : files) {
+                try {
+                    Commands.delete(name).go(client);
+                } catch (Exception ignore) {
+                    // best effort
+                }
+            }
+            files.clear();
+        }
+    }
+
+    /**
+     * Runs the load and returns the report.  Files created by the run are
+     * deleted afterwards (and are not part of the report).
+     * @return the report
+     * @throws InterruptedException
+     */
+    public Report run() throws InterruptedException {
+        if (clients.isEmpty()) {
+            throw new IllegalStateException("no clients");
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> running = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            long count = operations / threads + (i < operations % threads ? 1 : 0);
+            Worker worker = new Worker(i, count, start);
+            Thread thread = new Thread(worker, "load-" + i);
+            workers.add(worker);
+            running.add(thread);
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : running) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        for (Worker worker : workers) {
+            worker.cleanup();
+        }
+        return new Report(threads, clients.size(), elapsed, workers);
+    }
+
+    /**
+     * The results of a run, per operation and in total.
+     */
+    public static class Report {
+        /**
+         * The results for one operation (or the total).
+         */
+        public static class Line {
+            public String operation;
+            public long count;
+            public long errors;
+            public long bytes;
+            public double opsPerSecond;
+            public double bytesPerSecond;
+            public double meanMs;
+            public double p50Ms;
+            public double p90Ms;
+            public double p95Ms;
+            public double p99Ms;
+            public double maxMs;
+        }
+
+        public int threads;
+        public int clients;
+        public double seconds;
+        public List<Line> operations = new ArrayList<>();
+        public Line total;
+
+        private Report(int threads, int clients, long elapsed, List<Worker> workers) {
+            this.threads = threads;
+            this.clients = clients;
+            this.seconds = elapsed / 1e9;
+            List<Samples> all = new ArrayList<>();
+            for (Operation operation : Operation.values()) {
+                List<Samples> samples = new ArrayList<>();
+                for (Worker worker : workers) {
+                    samples.add(worker.samples.get(operation));
+                }
+                all.addAll(samples);
+                Line line = line(operation.name(), samples);
+                if (line.count > 0) {
+                    operations.add(line);
+                }
+            }
+            total = line("TOTAL", all);
+        }
+
+        private Line line(String operation, List<Samples> samples) {
+            Line line = new Line();
+            line.operation = operation;
+            long[] nanos = new long[0];
+            for (Samples s : samples) {
+                int from = nanos.length;
+                nanos = Arrays.copyOf(nanos, from + s.count);
+                System.arraycopy(s.nanos, 0, nanos, from, s.count);
+                line.errors += s.errors;
+                line.bytes += s.bytes;
+            }
+            Arrays.sort(nanos);
+            line.count = nanos.length;
+            line.opsPerSecond = seconds > 0 ? line.count / seconds : 0;
+            line.bytesPerSecond = seconds > 0 ? line.bytes / seconds : 0;
+            if (nanos.length > 0) {
+                line.meanMs = Arrays.stream(nanos).average().getAsDouble() / 1e6;
+                line.p50Ms = percentile(nanos, 0.50);
+                line.p90Ms = percentile(nanos, 0.90);
+                line.p95Ms = percentile(nanos, 0.95);
+                line.p99Ms = percentile(nanos, 0.99);
+                line.maxMs = nanos[nanos.length - 1] / 1e6;
+            }
+            return line;
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+        }
+
+        public List<Line> getOperations() {
+            return Collections.unmodifiableList(operations);
+        }
+
+        /**
+         * Returns the line for an operation.
+         * @param operation the operation
+         * @return the line, or {@code null} if it did not run
+         */
+        public Line get(Operation operation) {
+            for (Line line : operations) {
+                if (line.operation.equals(operation.name())) {
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        public String toCsv() {
+            StringBuilder csv = new StringBuilder(
+                    "operation,threads,clients,seconds,count,errors,bytes,ops_per_second,bytes_per_second,"+
+                    "mean_ms,p50_ms,p90_ms,p95_ms,p99_ms,max_ms\n");
+            List<Line> lines = new ArrayList<>(operations);
+            lines.add(total);
+            for (Line line : lines) {
+                csv.append(String.format(Locale.US, "%s,%d,%d,%.3f,%d,%d,%d,%.2f,%.0f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+                        line.operation, threads, clients, seconds, line.count, line.errors, line.bytes,
+                        line.opsPerSecond, line.bytesPerSecond, line.meanMs, line.p50Ms, line.p90Ms,
+                        line.p95Ms, line.p99Ms, line.maxMs));
+            }
+            return csv.toString();
+        }
+
+        public String toJson() {
+            return new GsonBuilder().setPrettyPrinting().create().toJson(this);
+        }
+
+        public void writeCsv(Path path) throws IOException {
+            write(path, toCsv());
+        }
+
+        public void writeJson(Path path) throws IOException {
+            write(path, toJson());
+        }
+
+        private static void write(Path path, String content) throws IOException {
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                writer.write(content);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return toCsv();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.cleo.labs.connector.testing;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import com.cleo.connector.api.interfaces.IConnectorFile;
+import com.cleo.connector.api.interfaces.IConnectorOutgoing;
+
+/**
+ * A source of {@code length} generated bytes, produced as they are read so
+ * that large files need not be held in memory.
+ */
+public class SizedSource implements IConnectorOutgoing {
+    private String path;
+    private long length;
+    public SizedSource(String path, long length) {
+        this.path = path;
+        this.length = length;
+    }
+    @Override
+    public String getDefaultName() { return null; }
+    @Override
+    public IConnectorFile getFile() { return null; }
+    @Override
+    public Long getLength() { return length; }
+    @Override
+    public Map<String, String> getMetadata() { return null; }
+    @Override
+    public String getName() { return path.replaceFirst(".*/", ""); }
+    @Override
+    public String getPath() { return path; }
+    @Override
+    public IConnectorFile getSentboxCopy() { return null; }
+    @Override
+    public InputStream getStream() {
+        return new InputStream() {
+            private long position = 0;
+            @Override
+            public int read() {
+                return position < length ? 'A' + (int) (position++ % 26) : -1;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= length) {
+                    return -1;
+                }
+                int n = (int) Math.min(len, length - position);
+                for (int i = 0; i < n; i++) {
+                    b[off + i] = (byte) ('A' + (int) (position++ % 26));
+                }
+                return n;
+            }
+        };
+    }
+    @Override
+    public String getTransferId() { return "transfer-id"; }
+    @Override
+    public boolean isFile() { return false; }
+    @Override
+    public boolean isForward() { return false; }
+    @Override
+    public boolean isStream() { return true; }
+    @Override
+    public void setForward(boolean arg0) { }
+    @Override
+    public void setMetadata(Map<String, String> arg0) { }
+    @Override
+    public IConnectorOutgoing setStream(InputStream arg0) { return null; }
+    @Override
+    public void setTransferId(String arg0) { }
+}